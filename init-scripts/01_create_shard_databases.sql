@@ -0,0 +1,5 @@
+-- Базы шардов для локальной проверки шардирования (app.sharding.enabled=true).
+-- Выполняется контейнером PostgreSQL только при первой инициализации тома.
+CREATE DATABASE research_jooq_shard_0;
+CREATE DATABASE research_jooq_shard_1;
+CREATE DATABASE research_jooq_shard_2;
@@ -0,0 +1,32 @@
+package oleborn.research_jooq.config;
+
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * КОНФИГУРАЦИЯ ПУЛА ПОТОКОВ ДЛЯ BULK-ЗАДАЧ
+ * <p>
+ * Пул ограничен и по потокам, и по очереди: тяжелые операции не должны
+ * забирать потоки Tomcat и неограниченно копиться в памяти.
+ * Если очередь заполнена - execute() бросает RejectedExecutionException (503 для клиента).
+ */
+@Configuration
+public class BulkJobConfig {
+
+    @Bean(destroyMethod = "shutdownNow")
+    public ThreadPoolExecutor bulkJobExecutor(BulkJobProperties properties) {
+        return new ThreadPoolExecutor(
+                properties.workerThreads(),
+                properties.workerThreads(),
+                0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(properties.queueCapacity()),
+                new CustomizableThreadFactory("bulk-job-"),
+                new ThreadPoolExecutor.AbortPolicy()
+        );
+    }
+}
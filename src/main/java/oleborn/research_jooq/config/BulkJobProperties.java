@@ -0,0 +1,18 @@
+package oleborn.research_jooq.config;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.bind.DefaultValue;
+
+/**
+ * НАСТРОЙКИ ПОДСИСТЕМЫ ФОНОВЫХ BULK-ЗАДАЧ (app.jobs.*)
+ *
+ * @param workerThreads количество потоков, обрабатывающих задачи
+ * @param queueCapacity размер очереди ожидающих задач (сверх него задачи отклоняются)
+ * @param chunkSize     количество элементов, обрабатываемых в одной транзакции
+ */
+@ConfigurationProperties(prefix = "app.jobs")
+public record BulkJobProperties(
+        @DefaultValue("2") int workerThreads,
+        @DefaultValue("16") int queueCapacity,
+        @DefaultValue("500") int chunkSize
+) {}
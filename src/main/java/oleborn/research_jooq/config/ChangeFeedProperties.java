@@ -0,0 +1,27 @@
+package oleborn.research_jooq.config;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.bind.DefaultValue;
+
+import java.time.Duration;
+
+/**
+ * НАСТРОЙКИ ЛЕНТЫ ИЗМЕНЕНИЙ (app.change-feed.*)
+ *
+ * @param enabled              запускать ли LISTEN-соединение
+ * @param subscriberBufferSize сколько событий может ждать отправки одному SSE-подписчику;
+ *                             при переполнении подписчик отключается и переподключается с Last-Event-ID
+ * @param replayLimit          максимум событий, досылаемых при переподключении (больше - клиенту шлется reset)
+ * @param senderThreads        потоки, отправляющие события в SSE-соединения
+ * @param emitterTimeout       время жизни одного SSE-соединения
+ * @param retention            сколько хранить события в таблице change_feed
+ */
+@ConfigurationProperties(prefix = "app.change-feed")
+public record ChangeFeedProperties(
+        @DefaultValue("true") boolean enabled,
+        @DefaultValue("1000") int subscriberBufferSize,
+        @DefaultValue("10000") int replayLimit,
+        @DefaultValue("4") int senderThreads,
+        @DefaultValue("30m") Duration emitterTimeout,
+        @DefaultValue("24h") Duration retention
+) {}
@@ -0,0 +1,130 @@
+package oleborn.research_jooq.config;
+
+import liquibase.exception.LiquibaseException;
+import liquibase.integration.spring.SpringLiquibase;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.core.io.Resource;
+import org.springframework.core.io.support.PathMatchingResourcePatternResolver;
+import org.springframework.dao.DataAccessException;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * LIQUIBASE, КОТОРЫЙ НЕ ЗАПУСКАЕТСЯ, ЕСЛИ СХЕМА УЖЕ АКТУАЛЬНА
+ * <p>
+ * Полный прогон Liquibase на каждом старте - это разбор changelog, блокировка DATABASECHANGELOGLOCK
+ * и сверка контрольных сумм всех changeSet'ов. Здесь вместо этого считается SHA-256 от всех файлов
+ * db/** и сравнивается с суммой, сохраненной после последнего успешного прогона:
+ * совпала - Liquibase пропускается, нет - выполняется обычный update и сумма обновляется.
+ * <p>
+ * В сумму входят и настройки запуска (changelog, contexts, labels, схемы, параметры changelog):
+ * те же файлы с другими contexts или параметрами (например, shard у шардов) применяют другие changeSet'ы.
+ * С dropFirst Liquibase выполняется всегда - схема пересоздается независимо от суммы.
+ * Таблица app_schema_checksum создается changeSet'ом 18, здесь сумма только записывается.
+ */
+@Slf4j
+public class ChecksumSkippingLiquibase extends SpringLiquibase {
+
+    private static final String CHANGELOG_PATTERN = "classpath*:db/**/*.*";
+
+    private final boolean skipWhenCurrent;
+
+    // Копия параметров changelog в порядке ключей - для стабильной контрольной суммы
+    private final Map<String, String> changeLogParameters = new TreeMap<>();
+
+    public ChecksumSkippingLiquibase(boolean skipWhenCurrent) {
+        this.skipWhenCurrent = skipWhenCurrent;
+    }
+
+    @Override
+    public void setChangeLogParameters(Map<String, String> parameters) {
+        super.setChangeLogParameters(parameters);
+        changeLogParameters.clear();
+        if (parameters != null) {
+            changeLogParameters.putAll(parameters);
+        }
+    }
+
+    @Override
+    public void afterPropertiesSet() throws LiquibaseException {
+        if (!skipWhenCurrent || !isShouldRun()) {
+            super.afterPropertiesSet();
+            return;
+        }
+
+        String checksum = changelogChecksum();
+        JdbcTemplate jdbc = new JdbcTemplate(getDataSource());
+
+        if (!isDropFirst() && checksum.equals(appliedChecksum(jdbc))) {
+            log.info("Liquibase skipped: changelog checksum {} is already applied", checksum);
+            return;
+        }
+
+        super.afterPropertiesSet();
+        storeChecksum(jdbc, checksum);
+    }
+
+    private String appliedChecksum(JdbcTemplate jdbc) {
+        try {
+            List<String> applied = jdbc.queryForList(
+                    "SELECT checksum FROM app_schema_checksum WHERE id = 1", String.class);
+            return applied.isEmpty() ? null : applied.get(0);
+        } catch (DataAccessException e) {
+            // Таблицы еще нет - первый запуск
+            return null;
+        }
+    }
+
+    private void storeChecksum(JdbcTemplate jdbc, String checksum) {
+        jdbc.update("""
+                INSERT INTO app_schema_checksum (id, checksum, applied_at)
+                VALUES (1, ?, NOW())
+                ON CONFLICT (id) DO UPDATE SET checksum = EXCLUDED.checksum, applied_at = EXCLUDED.applied_at""",
+                checksum);
+    }
+
+    private String changelogChecksum() {
+        try {
+            Resource[] resources = new PathMatchingResourcePatternResolver().getResources(CHANGELOG_PATTERN);
+            Arrays.sort(resources, Comparator.comparing(Resource::getFilename, Comparator.nullsFirst(String::compareTo)));
+
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(settings().getBytes(StandardCharsets.UTF_8));
+            for (Resource resource : resources) {
+                if (resource.getFilename() == null) continue;
+                digest.update(resource.getFilename().getBytes(StandardCharsets.UTF_8));
+                try (InputStream in = resource.getInputStream()) {
+                    digest.update(in.readAllBytes());
+                }
+            }
+            return HexFormat.of().formatHex(digest.digest());
+        } catch (IOException | NoSuchAlgorithmException e) {
+            throw new IllegalStateException("Failed to compute changelog checksum", e);
+        }
+    }
+
+    /**
+     * Настройки, от которых зависит, какие changeSet'ы и куда будут применены
+     */
+    private String settings() {
+        return String.join("\n",
+                "changeLog=" + getChangeLog(),
+                "contexts=" + getContexts(),
+                "labels=" + getLabelFilter(),
+                "defaultSchema=" + getDefaultSchema(),
+                "liquibaseSchema=" + getLiquibaseSchema(),
+                "databaseChangeLogTable=" + getDatabaseChangeLogTable(),
+                "parameters=" + changeLogParameters);
+    }
+}
@@ -0,0 +1,296 @@
+package oleborn.research_jooq.config;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.servlet.http.HttpServletRequest;
+import lombok.RequiredArgsConstructor;
+import oleborn.research_jooq.ResearchJooqApplication;
+import oleborn.research_jooq.dto.ConnectionHoldersReportDto;
+import org.springframework.stereotype.Component;
+import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.context.request.ServletRequestAttributes;
+import org.springframework.web.servlet.HandlerMapping;
+
+import java.sql.SQLTransientConnectionException;
+import java.time.Duration;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * УЧЕТ ОЖИДАНИЯ И УДЕРЖАНИЯ СОЕДИНЕНИЙ ПО МЕСТАМ ВЫЗОВА
+ * <p>
+ * Место вызова = эндпоинт (шаблон пути из Spring MVC) + метод сервиса, который взял соединение
+ * (ближайший к getConnection() кадр стека из пакета service; для @Transactional это прокси метода,
+ * открывший транзакцию). Для каждого места публикуются гистограммы:
+ * - db.connection.acquire - ожидание соединения в пуле с тегом outcome: success, timeout
+ *   (пул не выдал соединение за connection-timeout) или failure (ошибка открытия соединения)
+ * - db.connection.hold - от получения до возврата соединения в пул
+ * Суммы по местам вызова и текущие удержания отдает отчет connectionholders.
+ * <p>
+ * Обход стека на каждое getConnection() и по четыре гистограммы на место вызова - заметная цена,
+ * поэтому профилирование включается явно (app.connection-profiling.enabled). Выключенное - бин
+ * остается, но соединения через него не проходят, и отчет пуст.
+ */
+@Component
+@RequiredArgsConstructor
+public class ConnectionProfiler {
+
+    private static final String NONE = "none";
+    private static final String SERVICE_PACKAGE = ResearchJooqApplication.class.getPackageName() + ".service.";
+    private static final Pattern LAMBDA = Pattern.compile("lambda\\$(.+)\\$\\d+");
+    private static final StackWalker WALKER = StackWalker.getInstance();
+
+    private final MeterRegistry registry;
+
+    private final Map<Site, SiteStats> sites = new ConcurrentHashMap<>();
+    private final Set<Lease> held = ConcurrentHashMap.newKeySet();
+
+    // Окно для PoolAutosizer: сбрасывается при каждом чтении
+    private final LongAdder windowAcquires = new LongAdder();
+    private final LongAdder windowFailures = new LongAdder();
+    private final LongAdder windowAcquireNanos = new LongAdder();
+
+    private record Site(String endpoint, String method) {}
+
+    private enum Outcome {
+        SUCCESS, TIMEOUT, FAILURE;
+
+        static Outcome of(Throwable failure) {
+            if (failure == null) return SUCCESS;
+            // Так HikariPool сообщает об истечении connection-timeout
+            return failure instanceof SQLTransientConnectionException ? TIMEOUT : FAILURE;
+        }
+
+        String tag() {
+            return name().toLowerCase();
+        }
+    }
+
+    /**
+     * Ожидание соединений с момента предыдущего вызова
+     *
+     * @param acquisitions попытки взять соединение, включая неудачные
+     * @param failures     попытки, закончившиеся таймаутом или ошибкой
+     * @param totalWait    суммарное ожидание всех попыток
+     */
+    public record AcquireWindow(long acquisitions, long failures, Duration totalWait) {
+
+        public Duration meanWait() {
+            return acquisitions == 0 ? Duration.ZERO : totalWait.dividedBy(acquisitions);
+        }
+    }
+
+    /**
+     * ОДНО ВЗЯТИЕ СОЕДИНЕНИЯ ИЗ ПУЛА
+     * Создается до getConnection(), завершается attempted() в любом исходе getConnection()
+     * и released() при Connection.close() (повторное закрытие игнорируется)
+     */
+    public final class Lease {
+
+        private final Site site;
+        private final String thread = Thread.currentThread().getName();
+        private final long requestedAt = System.nanoTime();
+        private volatile long acquiredAt;
+        private final AtomicBoolean released = new AtomicBoolean();
+
+        private Lease(Site site) {
+            this.site = site;
+        }
+
+        /**
+         * @param failure исключение getConnection(), null - соединение получено
+         */
+        public void attempted(Throwable failure) {
+            long now = System.nanoTime();
+            long wait = now - requestedAt;
+            Outcome outcome = Outcome.of(failure);
+
+            windowAcquires.increment();
+            windowAcquireNanos.add(wait);
+            if (outcome != Outcome.SUCCESS) {
+                windowFailures.increment();
+            }
+            stats(site).recordAcquire(outcome, wait);
+
+            if (outcome == Outcome.SUCCESS) {
+                acquiredAt = now;
+                held.add(this);
+            }
+        }
+
+        public void released() {
+            if (acquiredAt == 0 || !released.compareAndSet(false, true)) return;
+            held.remove(this);
+            stats(site).recordHold(System.nanoTime() - acquiredAt);
+        }
+    }
+
+    public Lease begin() {
+        return new Lease(new Site(currentEndpoint(), currentServiceMethod()));
+    }
+
+    public AcquireWindow drainWindow() {
+        return new AcquireWindow(
+                windowAcquires.sumThenReset(),
+                windowFailures.sumThenReset(),
+                Duration.ofNanos(windowAcquireNanos.sumThenReset())
+        );
+    }
+
+    public ConnectionHoldersReportDto report(int poolSize, int limit) {
+        List<ConnectionHoldersReportDto.CallSite> top = sites.entrySet().stream()
+                .sorted(Comparator.comparingLong((Map.Entry<Site, SiteStats> e) -> e.getValue().holdNanos.sum()).reversed())
+                .limit(limit)
+                .map(e -> e.getValue().toDto(e.getKey()))
+                .toList();
+
+        long now = System.nanoTime();
+        List<ConnectionHoldersReportDto.HeldConnection> current = held.stream()
+                .sorted(Comparator.comparingLong(lease -> lease.acquiredAt))
+                .limit(limit)
+                .map(lease -> new ConnectionHoldersReportDto.HeldConnection(
+                        lease.site.endpoint(), lease.site.method(), lease.thread, millis(now - lease.acquiredAt)))
+                .toList();
+
+        return new ConnectionHoldersReportDto(poolSize, top, current);
+    }
+
+    /**
+     * Сброс накопленных сумм (гистограммы Micrometer не сбрасываются)
+     */
+    public void reset() {
+        sites.values().forEach(SiteStats::reset);
+    }
+
+    private SiteStats stats(Site site) {
+        return sites.computeIfAbsent(site, s -> {
+            Map<Outcome, Timer> acquireTimers = new EnumMap<>(Outcome.class);
+            for (Outcome outcome : Outcome.values()) {
+                acquireTimers.put(outcome, timer(Timer.builder("db.connection.acquire")
+                        .description("Ожидание соединения в пуле")
+                        .tag("outcome", outcome.tag()), s));
+            }
+            return new SiteStats(
+                    acquireTimers,
+                    timer(Timer.builder("db.connection.hold")
+                            .description("Удержание соединения от получения до возврата в пул"), s)
+            );
+        });
+    }
+
+    private Timer timer(Timer.Builder builder, Site site) {
+        return builder
+                .tag("endpoint", site.endpoint())
+                .tag("method", site.method())
+                .publishPercentileHistogram()
+                .minimumExpectedValue(Duration.ofNanos(100_000))
+                .maximumExpectedValue(Duration.ofMinutes(1))
+                .register(registry);
+    }
+
+    private static String currentEndpoint() {
+        if (!(RequestContextHolder.getRequestAttributes() instanceof ServletRequestAttributes attributes)) {
+            return NONE;
+        }
+        HttpServletRequest request = attributes.getRequest();
+        Object pattern = request.getAttribute(HandlerMapping.BEST_MATCHING_PATTERN_ATTRIBUTE);
+        return request.getMethod() + " " + (pattern != null ? pattern : "unmapped");
+    }
+
+    private static String currentServiceMethod() {
+        return WALKER.walk(frames -> frames
+                .filter(f -> f.getClassName().startsWith(SERVICE_PACKAGE))
+                .findFirst()
+                .map(f -> className(f.getClassName()) + "." + methodName(f.getMethodName()))
+                .orElse(NONE));
+    }
+
+    // UserService$$SpringCGLIB$$0 и BulkJobService$1 -> UserService, BulkJobService
+    private static String className(String name) {
+        String simple = name.substring(SERVICE_PACKAGE.length());
+        int nested = simple.indexOf('$');
+        return nested < 0 ? simple : simple.substring(0, nested);
+    }
+
+    // lambda$submitPurgeUsers$3 -> submitPurgeUsers
+    private static String methodName(String name) {
+        Matcher lambda = LAMBDA.matcher(name);
+        return lambda.matches() ? lambda.group(1) : name;
+    }
+
+    private static double millis(long nanos) {
+        return nanos / 1_000_000.0;
+    }
+
+    private static final class SiteStats {
+
+        private final Map<Outcome, Timer> acquireTimers;
+        private final Timer holdTimer;
+        private final LongAdder acquisitions = new LongAdder();
+        private final LongAdder failedAcquisitions = new LongAdder();
+        private final LongAdder acquireNanos = new LongAdder();
+        private final LongAdder holdNanos = new LongAdder();
+        private final LongAdder holds = new LongAdder();
+        private final LongAccumulator maxAcquireNanos = new LongAccumulator(Math::max, 0);
+        private final LongAccumulator maxHoldNanos = new LongAccumulator(Math::max, 0);
+
+        private SiteStats(Map<Outcome, Timer> acquireTimers, Timer holdTimer) {
+            this.acquireTimers = acquireTimers;
+            this.holdTimer = holdTimer;
+        }
+
+        void recordAcquire(Outcome outcome, long nanos) {
+            acquireTimers.get(outcome).record(nanos, TimeUnit.NANOSECONDS);
+            acquisitions.increment();
+            if (outcome != Outcome.SUCCESS) {
+                failedAcquisitions.increment();
+            }
+            acquireNanos.add(nanos);
+            maxAcquireNanos.accumulate(nanos);
+        }
+
+        void recordHold(long nanos) {
+            holdTimer.record(nanos, TimeUnit.NANOSECONDS);
+            holds.increment();
+            holdNanos.add(nanos);
+            maxHoldNanos.accumulate(nanos);
+        }
+
+        void reset() {
+            acquisitions.reset();
+            failedAcquisitions.reset();
+            acquireNanos.reset();
+            holdNanos.reset();
+            holds.reset();
+            maxAcquireNanos.reset();
+            maxHoldNanos.reset();
+        }
+
+        ConnectionHoldersReportDto.CallSite toDto(Site site) {
+            long acquired = acquisitions.sum();
+            long released = holds.sum();
+            long totalHold = holdNanos.sum();
+            return new ConnectionHoldersReportDto.CallSite(
+                    site.endpoint(),
+                    site.method(),
+                    acquired,
+                    failedAcquisitions.sum(),
+                    millis(totalHold),
+                    released == 0 ? 0 : millis(totalHold / released),
+                    millis(maxHoldNanos.get()),
+                    acquired == 0 ? 0 : millis(acquireNanos.sum() / acquired),
+                    millis(maxAcquireNanos.get())
+            );
+        }
+    }
+}
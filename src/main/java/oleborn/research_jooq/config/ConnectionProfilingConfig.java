@@ -0,0 +1,32 @@
+package oleborn.research_jooq.config;
+
+import com.zaxxer.hikari.HikariDataSource;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * ПОДКЛЮЧЕНИЕ ПРОФИЛИРОВАНИЯ СОЕДИНЕНИЙ К ОСНОВНОМУ ПУЛУ
+ * <p>
+ * Оборачивается только DataSource Spring Boot (HikariDataSource), пулы шардов ShardRouter
+ * создает сам и не профилирует. Выключено по умолчанию: включается app.connection-profiling.enabled=true.
+ */
+@Configuration
+@ConditionalOnProperty(prefix = "app.connection-profiling", name = "enabled", havingValue = "true")
+public class ConnectionProfilingConfig {
+
+    // static: BeanPostProcessor создается раньше остальных бинов конфигурации
+    @Bean
+    public static BeanPostProcessor profilingDataSourcePostProcessor(ObjectProvider<ConnectionProfiler> profiler) {
+        return new BeanPostProcessor() {
+            @Override
+            public Object postProcessAfterInitialization(Object bean, String beanName) {
+                return bean instanceof HikariDataSource dataSource
+                        ? new ProfilingDataSource(dataSource, profiler)
+                        : bean;
+            }
+        };
+    }
+}
@@ -0,0 +1,19 @@
+package oleborn.research_jooq.config;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.bind.DefaultValue;
+
+/**
+ * НАСТРОЙКИ ПРОФИЛИРОВАНИЯ СОЕДИНЕНИЙ ОСНОВНОГО ПУЛА (app.connection-profiling.*)
+ *
+ * @param enabled      оборачивать ли DataSource: время ожидания и удержания соединения
+ *                     по эндпоинтам и методам сервисов (обход стека на каждое getConnection(),
+ *                     гистограммы на каждое место вызова - поэтому выключено по умолчанию;
+ *                     нужно для app.pool-autosize)
+ * @param reportLimit  количество мест вызова в отчете connectionholders по умолчанию
+ */
+@ConfigurationProperties(prefix = "app.connection-profiling")
+public record ConnectionProfilingProperties(
+        @DefaultValue("false") boolean enabled,
+        @DefaultValue("20") int reportLimit
+) {}
@@ -0,0 +1,20 @@
+package oleborn.research_jooq.config;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.bind.DefaultValue;
+
+import java.time.Duration;
+
+/**
+ * НАСТРОЙКИ ОБРАБОТКИ Idempotency-Key (app.idempotency.*)
+ *
+ * @param ttl                 сколько хранится ответ на запрос с ключом
+ * @param lockTimeout         через сколько незавершенный запрос (упавший узел) перестает блокировать ключ
+ * @param maxCachedResponses  сколько ответов держать в памяти (остальные читаются из таблицы idempotency_key)
+ */
+@ConfigurationProperties(prefix = "app.idempotency")
+public record IdempotencyProperties(
+        @DefaultValue("24h") Duration ttl,
+        @DefaultValue("1m") Duration lockTimeout,
+        @DefaultValue("10000") int maxCachedResponses
+) {}
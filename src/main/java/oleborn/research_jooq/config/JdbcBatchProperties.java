@@ -0,0 +1,14 @@
+package oleborn.research_jooq.config;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.bind.DefaultValue;
+
+/**
+ * НАСТРОЙКИ ПАКЕТНЫХ INSERT (app.jdbc-batch.*)
+ *
+ * @param chunkSize сколько строк отправляется драйверу одним executeBatch()
+ */
+@ConfigurationProperties(prefix = "app.jdbc-batch")
+public record JdbcBatchProperties(
+        @DefaultValue("1000") int chunkSize
+) {}
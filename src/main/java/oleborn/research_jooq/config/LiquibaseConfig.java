@@ -0,0 +1,52 @@
+package oleborn.research_jooq.config;
+
+import liquibase.integration.spring.SpringLiquibase;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.liquibase.LiquibaseProperties;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import javax.sql.DataSource;
+
+/**
+ * КОНФИГУРАЦИЯ LIQUIBASE С ПРОПУСКОМ ПРИ АКТУАЛЬНОЙ СХЕМЕ
+ * <p>
+ * Собственный бин SpringLiquibase заменяет автоконфигурацию Spring Boot
+ * (LiquibaseAutoConfiguration отступает при наличии бина), настройки spring.liquibase.* сохраняются.
+ * Все переданные здесь настройки входят в контрольную сумму ChecksumSkippingLiquibase.
+ */
+@Configuration
+@EnableConfigurationProperties(LiquibaseProperties.class)
+@ConditionalOnProperty(prefix = "spring.liquibase", name = "enabled", matchIfMissing = true)
+public class LiquibaseConfig {
+
+    @Bean
+    public SpringLiquibase liquibase(
+            DataSource dataSource,
+            LiquibaseProperties liquibaseProperties,
+            StartupProperties startupProperties
+    ) {
+        SpringLiquibase liquibase = new ChecksumSkippingLiquibase(startupProperties.skipLiquibaseWhenCurrent());
+        liquibase.setDataSource(dataSource);
+        liquibase.setChangeLog(liquibaseProperties.getChangeLog());
+        liquibase.setShouldRun(liquibaseProperties.isEnabled());
+        liquibase.setDropFirst(liquibaseProperties.isDropFirst());
+        if (liquibaseProperties.getContexts() != null) {
+            liquibase.setContexts(String.join(",", liquibaseProperties.getContexts()));
+        }
+        if (liquibaseProperties.getLabelFilter() != null) {
+            liquibase.setLabelFilter(String.join(",", liquibaseProperties.getLabelFilter()));
+        }
+        if (liquibaseProperties.getDefaultSchema() != null) {
+            liquibase.setDefaultSchema(liquibaseProperties.getDefaultSchema());
+        }
+        if (liquibaseProperties.getLiquibaseSchema() != null) {
+            liquibase.setLiquibaseSchema(liquibaseProperties.getLiquibaseSchema());
+        }
+        if (liquibaseProperties.getParameters() != null) {
+            liquibase.setChangeLogParameters(liquibaseProperties.getParameters());
+        }
+        return liquibase;
+    }
+}
@@ -0,0 +1,20 @@
+package oleborn.research_jooq.config;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.bind.DefaultValue;
+
+/**
+ * НАСТРОЙКИ TRANSACTIONAL OUTBOX (app.outbox.*)
+ *
+ * @param batchSize     сколько событий публикатор забирает за одну транзакцию
+ * @param sink          куда доставлять события: memory или file
+ * @param filePath      файл для sink = file (одно событие JSON в строке)
+ * @param memoryCapacity сколько последних событий хранит sink = memory
+ */
+@ConfigurationProperties(prefix = "app.outbox")
+public record OutboxProperties(
+        @DefaultValue("500") int batchSize,
+        @DefaultValue("memory") String sink,
+        @DefaultValue("target/outbox-events.jsonl") String filePath,
+        @DefaultValue("10000") int memoryCapacity
+) {}
@@ -0,0 +1,15 @@
+package oleborn.research_jooq.config;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.bind.DefaultValue;
+
+/**
+ * НАСТРОЙКИ ПАГИНАЦИИ (app.pagination.*)
+ *
+ * @param exactCountThreshold до скольки строк (по оценке) общее количество считается точно
+ *                            через count(*) over() в запросе страницы; выше - отдается оценка
+ */
+@ConfigurationProperties(prefix = "app.pagination")
+public record PaginationProperties(
+        @DefaultValue("10000") long exactCountThreshold
+) {}
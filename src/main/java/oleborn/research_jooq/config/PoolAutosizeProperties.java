@@ -0,0 +1,32 @@
+package oleborn.research_jooq.config;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.bind.DefaultValue;
+
+import java.time.Duration;
+
+/**
+ * НАСТРОЙКИ АДАПТИВНОГО РАЗМЕРА ОСНОВНОГО ПУЛА (app.pool-autosize.*)
+ *
+ * @param enabled               менять ли maximum-pool-size во время работы
+ * @param minSize               нижняя граница размера пула
+ * @param maxSize               верхняя граница размера пула
+ * @param step                  на сколько соединений пул меняется за один шаг
+ * @param interval              период пересчета
+ * @param acquireWaitThreshold  среднее ожидание соединения за период, выше которого пул растет
+ * @param maxActiveBackends     активных запросов в PostgreSQL, при которых пул не растет
+ *                              (БД уже загружена, новые соединения только усилят конкуренцию),
+ *                              0 - половина max_connections сервера
+ * @param shrinkAfterIntervals  сколько спокойных периодов подряд нужно для уменьшения пула
+ */
+@ConfigurationProperties(prefix = "app.pool-autosize")
+public record PoolAutosizeProperties(
+        @DefaultValue("false") boolean enabled,
+        @DefaultValue("5") int minSize,
+        @DefaultValue("30") int maxSize,
+        @DefaultValue("2") int step,
+        @DefaultValue("PT15S") Duration interval,
+        @DefaultValue("10ms") Duration acquireWaitThreshold,
+        @DefaultValue("0") int maxActiveBackends,
+        @DefaultValue("4") int shrinkAfterIntervals
+) {}
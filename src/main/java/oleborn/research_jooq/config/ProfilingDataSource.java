@@ -0,0 +1,88 @@
+package oleborn.research_jooq.config;
+
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.jdbc.datasource.DelegatingDataSource;
+
+import javax.sql.DataSource;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+
+/**
+ * DataSource, ЗАМЕРЯЮЩИЙ ОЖИДАНИЕ И УДЕРЖАНИЕ СОЕДИНЕНИЯ
+ * <p>
+ * Соединение оборачивается в прокси, который перехватывает только close() - возврат в пул.
+ * unwrap() до HikariDataSource работает через DelegatingDataSource, поэтому метрики Hikari
+ * и PoolAutosizer видят исходный пул.
+ */
+public class ProfilingDataSource extends DelegatingDataSource implements AutoCloseable {
+
+    // Профайлер берется лениво: первое соединение запрашивает Liquibase во время старта контекста
+    private final ObjectProvider<ConnectionProfiler> profiler;
+
+    public ProfilingDataSource(DataSource target, ObjectProvider<ConnectionProfiler> profiler) {
+        super(target);
+        this.profiler = profiler;
+    }
+
+    @Override
+    public Connection getConnection() throws SQLException {
+        return acquire(() -> obtainTargetDataSource().getConnection());
+    }
+
+    @Override
+    public Connection getConnection(String username, String password) throws SQLException {
+        return acquire(() -> obtainTargetDataSource().getConnection(username, password));
+    }
+
+    /**
+     * Ожидание учитывается в finally: таймаут пула и ошибка открытия соединения - тоже ожидание,
+     * и именно оно нужно PoolAutosizer, чтобы увидеть нехватку соединений
+     */
+    private Connection acquire(ConnectionSource source) throws SQLException {
+        ConnectionProfiler.Lease lease = profiler.getObject().begin();
+        Throwable failure = null;
+        try {
+            return profiled(source.get(), lease);
+        } catch (SQLException | RuntimeException | Error e) {
+            failure = e;
+            throw e;
+        } finally {
+            lease.attempted(failure);
+        }
+    }
+
+    // Spring закрывает пул при остановке через AutoCloseable обертки
+    @Override
+    public void close() throws Exception {
+        if (obtainTargetDataSource() instanceof AutoCloseable target) {
+            target.close();
+        }
+    }
+
+    @FunctionalInterface
+    private interface ConnectionSource {
+        Connection get() throws SQLException;
+    }
+
+    private static Connection profiled(Connection target, ConnectionProfiler.Lease lease) {
+        return (Connection) Proxy.newProxyInstance(
+                ProfilingDataSource.class.getClassLoader(),
+                new Class<?>[]{Connection.class},
+                (proxy, method, args) -> switch (method.getName()) {
+                    case "equals" -> proxy == args[0];
+                    case "hashCode" -> System.identityHashCode(proxy);
+                    default -> {
+                        if (method.getName().equals("close")) {
+                            lease.released();
+                        }
+                        try {
+                            yield method.invoke(target, args);
+                        } catch (InvocationTargetException e) {
+                            throw e.getTargetException();
+                        }
+                    }
+                });
+    }
+}
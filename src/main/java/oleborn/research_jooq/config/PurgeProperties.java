@@ -0,0 +1,23 @@
+package oleborn.research_jooq.config;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.bind.DefaultValue;
+
+import java.time.Duration;
+
+/**
+ * НАСТРОЙКИ ОЧИСТКИ ПОЛЬЗОВАТЕЛЕЙ (app.jobs.purge.*)
+ *
+ * @param chunkSize           количество пользователей, удаляемых одним запросом
+ * @param rowsPerSecond       целевая скорость удаления пользователей, 0 - без ограничения
+ *                            (может быть переопределена в запросе)
+ * @param maxReplicationLag   при большем отставании реплик очистка приостанавливается, 0 - не проверять
+ * @param lagCheckInterval    как часто перепроверять отставание во время паузы
+ */
+@ConfigurationProperties(prefix = "app.jobs.purge")
+public record PurgeProperties(
+        @DefaultValue("1000") int chunkSize,
+        @DefaultValue("5000") int rowsPerSecond,
+        @DefaultValue("5s") Duration maxReplicationLag,
+        @DefaultValue("1s") Duration lagCheckInterval
+) {}
@@ -0,0 +1,21 @@
+package oleborn.research_jooq.config;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.bind.DefaultValue;
+
+/**
+ * НАСТРОЙКИ СОЗДАНИЯ ПОЛЬЗОВАТЕЛЯ СО СВЯЗЯМИ (app.relations-insert.*)
+ *
+ * @param mode BATCH - отдельные INSERT пользователя и адреса, bind batch машин и связей, повторное чтение;
+ *             SINGLE_STATEMENT - весь граф и ответ одним запросом с data-modifying CTE
+ */
+@ConfigurationProperties(prefix = "app.relations-insert")
+public record RelationsInsertProperties(
+        @DefaultValue("batch") Mode mode
+) {
+
+    public enum Mode {
+        BATCH,
+        SINGLE_STATEMENT
+    }
+}
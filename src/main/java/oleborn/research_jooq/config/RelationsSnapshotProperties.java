@@ -0,0 +1,16 @@
+package oleborn.research_jooq.config;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.bind.DefaultValue;
+
+/**
+ * НАСТРОЙКИ СНИМКА СВЯЗЕЙ ПОЛЬЗОВАТЕЛЯ (app.relations-snapshot.*)
+ *
+ * @param enabled читать ли пользователя со связями из снимка и восстанавливать ли в фоне
+ *                недостающие снимки; при записи снимок поддерживается всегда,
+ *                чтобы после включения он был актуален
+ */
+@ConfigurationProperties(prefix = "app.relations-snapshot")
+public record RelationsSnapshotProperties(
+        @DefaultValue("true") boolean enabled
+) {}
@@ -0,0 +1,16 @@
+package oleborn.research_jooq.config;
+
+import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.annotation.EnableScheduling;
+
+/**
+ * ВКЛЮЧЕНИЕ @Scheduled ЗАДАЧ (очистка ленты изменений и другие периодические задачи)
+ * <p>
+ * По умолчанию планировщик Spring Boot однопоточный, и все задачи ждали бы друг друга.
+ * Размер пула - spring.task.scheduling.pool.size в application.yml, по потоку на задачу:
+ * при добавлении новой @Scheduled задачи его нужно увеличить.
+ */
+@Configuration
+@EnableScheduling
+public class SchedulingConfig {
+}
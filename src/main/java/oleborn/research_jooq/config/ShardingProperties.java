@@ -0,0 +1,30 @@
+package oleborn.research_jooq.config;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.bind.DefaultValue;
+
+import java.util.List;
+
+/**
+ * НАСТРОЙКИ ШАРДИРОВАНИЯ ПО ID ПОЛЬЗОВАТЕЛЯ (app.sharding.*)
+ *
+ * @param enabled        false - единственный шард, это основная БД (spring.datasource)
+ * @param virtualNodes   точек на кольце консистентного хеширования на один шард
+ * @param poolSize       размер пула соединений каждого шарда
+ * @param scatterThreads потоки для параллельных запросов ко всем шардам
+ * @param shards         базы шардов; основная БД хранит только глобальный индекс username
+ */
+@ConfigurationProperties(prefix = "app.sharding")
+public record ShardingProperties(
+        @DefaultValue("false") boolean enabled,
+        @DefaultValue("128") int virtualNodes,
+        @DefaultValue("5") int poolSize,
+        @DefaultValue("8") int scatterThreads,
+        @DefaultValue List<Shard> shards
+) {
+
+    /**
+     * @param name имя шарда - входит в хеш-кольцо, поэтому после запуска не меняется
+     */
+    public record Shard(String name, String url, String username, String password) {}
+}
@@ -0,0 +1,15 @@
+package oleborn.research_jooq.config;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.bind.DefaultValue;
+
+/**
+ * НАСТРОЙКИ БЫСТРОГО СТАРТА (app.startup.*)
+ *
+ * @param skipLiquibaseWhenCurrent не запускать Liquibase, если контрольная сумма changelog
+ *                                 совпадает с уже примененной (профиль fast-startup)
+ */
+@ConfigurationProperties(prefix = "app.startup")
+public record StartupProperties(
+        @DefaultValue("false") boolean skipLiquibaseWhenCurrent
+) {}
@@ -0,0 +1,23 @@
+package oleborn.research_jooq.config;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.bind.DefaultValue;
+
+/**
+ * НАСТРОЙКИ BLOOM-ФИЛЬТРА ПО users.username (app.username-filter.*)
+ *
+ * @param enabled                  строить ли фильтр (без фильтра предварительного запроса нет,
+ *                                 дубликат username отсекает только UNIQUE-индекс при вставке)
+ * @param expectedInsertions       минимальная емкость фильтра
+ * @param falsePositiveProbability целевая доля ложноположительных ответов
+ * @param fetchSize                размер порции при потоковом чтении username во время перестроения
+ * @param maxDeletedRatio          доля удаленных username, после которой фильтр перестраивается
+ */
+@ConfigurationProperties(prefix = "app.username-filter")
+public record UsernameFilterProperties(
+        @DefaultValue("false") boolean enabled,
+        @DefaultValue("1000000") long expectedInsertions,
+        @DefaultValue("0.01") double falsePositiveProbability,
+        @DefaultValue("10000") int fetchSize,
+        @DefaultValue("0.2") double maxDeletedRatio
+) {}
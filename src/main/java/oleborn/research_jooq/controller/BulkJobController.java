@@ -0,0 +1,44 @@
+package oleborn.research_jooq.controller;
+
+import lombok.RequiredArgsConstructor;
+import oleborn.research_jooq.dto.*;
+import oleborn.research_jooq.service.BulkJobService;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+import java.util.List;
+import java.util.UUID;
+
+@RestController
+@RequestMapping("/api/jobs")
+@RequiredArgsConstructor
+public class BulkJobController {
+
+    private final BulkJobService bulkJobService;
+
+    @PostMapping("/import-users")
+    public ResponseEntity<BulkJobStatusDto> importUsers(@RequestBody List<CreateUserWithRelationsRequest> requests) {
+        return ResponseEntity.status(HttpStatus.ACCEPTED).body(bulkJobService.submitImportUsers(requests));
+    }
+
+    @PostMapping("/relink-cars")
+    public ResponseEntity<BulkJobStatusDto> relinkCars(@RequestBody RelinkCarsRequest request) {
+        return ResponseEntity.status(HttpStatus.ACCEPTED).body(bulkJobService.submitRelinkCars(request));
+    }
+
+    @PostMapping("/purge-users")
+    public ResponseEntity<BulkJobStatusDto> purgeUsers(@RequestBody PurgeUsersRequest request) {
+        return ResponseEntity.status(HttpStatus.ACCEPTED).body(bulkJobService.submitPurgeUsers(request));
+    }
+
+    @GetMapping("/{id}")
+    public ResponseEntity<BulkJobStatusDto> getStatus(@PathVariable UUID id) {
+        return ResponseEntity.ok(bulkJobService.getStatus(id));
+    }
+
+    @PostMapping("/{id}/cancel")
+    public ResponseEntity<BulkJobStatusDto> cancel(@PathVariable UUID id) {
+        return ResponseEntity.ok(bulkJobService.cancel(id));
+    }
+}
@@ -0,0 +1,30 @@
+package oleborn.research_jooq.controller;
+
+import lombok.RequiredArgsConstructor;
+import oleborn.research_jooq.service.ChangeFeedService;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.http.MediaType;
+import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+@RestController
+@RequestMapping("/api/changes")
+@RequiredArgsConstructor
+@ConditionalOnProperty(prefix = "app.change-feed", name = "enabled", havingValue = "true", matchIfMissing = true)
+public class ChangeFeedController {
+
+    private final ChangeFeedService changeFeedService;
+
+    /**
+     * ПОДПИСКА НА ИЗМЕНЕНИЯ users / address / car / users_car
+     * Браузерный EventSource сам присылает Last-Event-ID при переподключении,
+     * остальные клиенты могут передать его параметром since (формат "txid-seq")
+     */
+    @GetMapping(produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter stream(
+            @RequestHeader(name = "Last-Event-ID", required = false) String lastEventId,
+            @RequestParam(required = false) String since
+    ) {
+        return changeFeedService.subscribe(lastEventId != null ? lastEventId : since);
+    }
+}
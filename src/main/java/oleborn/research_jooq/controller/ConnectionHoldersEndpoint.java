@@ -0,0 +1,42 @@
+package oleborn.research_jooq.controller;
+
+import com.zaxxer.hikari.HikariDataSource;
+import lombok.RequiredArgsConstructor;
+import oleborn.research_jooq.config.ConnectionProfiler;
+import oleborn.research_jooq.config.ConnectionProfilingProperties;
+import oleborn.research_jooq.dto.ConnectionHoldersReportDto;
+import org.springframework.boot.actuate.endpoint.annotation.DeleteOperation;
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.lang.Nullable;
+import org.springframework.stereotype.Component;
+
+import javax.sql.DataSource;
+import java.sql.SQLException;
+
+/**
+ * ОТЧЕТ О МЕСТАХ ВЫЗОВА, ДОЛЬШЕ ВСЕХ ДЕРЖАЩИХ СОЕДИНЕНИЯ
+ * <p>
+ * GET /actuator/connectionholders?limit=N - топ по суммарному времени удержания и текущие удержания,
+ * DELETE /actuator/connectionholders - обнулить накопленные суммы (например, перед нагрузочным тестом)
+ */
+@Component
+@Endpoint(id = "connectionholders")
+@RequiredArgsConstructor
+public class ConnectionHoldersEndpoint {
+
+    private final ConnectionProfiler profiler;
+    private final ConnectionProfilingProperties properties;
+    private final DataSource dataSource;
+
+    @ReadOperation
+    public ConnectionHoldersReportDto report(@Nullable Integer limit) throws SQLException {
+        int poolSize = dataSource.unwrap(HikariDataSource.class).getMaximumPoolSize();
+        return profiler.report(poolSize, limit != null ? limit : properties.reportLimit());
+    }
+
+    @DeleteOperation
+    public void reset() {
+        profiler.reset();
+    }
+}
@@ -0,0 +1,28 @@
+package oleborn.research_jooq.controller;
+
+import oleborn.research_jooq.dto.PageResult;
+import org.springframework.http.ResponseEntity;
+
+import java.util.List;
+
+/**
+ * МЕТАДАННЫЕ ПАГИНАЦИИ В ЗАГОЛОВКАХ ОТВЕТА
+ * Тело ответа остается списком - клиенты, которым количество не нужно, ничего не замечают.
+ */
+final class PageHeaders {
+
+    static final String TOTAL_COUNT = "X-Total-Count";
+    static final String TOTAL_COUNT_ESTIMATED = "X-Total-Count-Estimated";
+
+    private PageHeaders() {
+    }
+
+    static <T> ResponseEntity<List<T>> ok(PageResult<T> page) {
+        ResponseEntity.BodyBuilder response = ResponseEntity.ok();
+        if (page.total() != null) {
+            response.header(TOTAL_COUNT, page.total().toString())
+                    .header(TOTAL_COUNT_ESTIMATED, String.valueOf(!page.exact()));
+        }
+        return response.body(page.content());
+    }
+}
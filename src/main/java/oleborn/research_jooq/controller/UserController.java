@@ -2,11 +2,18 @@ package oleborn.research_jooq.controller;
 
 import lombok.RequiredArgsConstructor;
 import oleborn.research_jooq.dto.CreateUserRequest;
+import oleborn.research_jooq.dto.CreateUserWithRelationsRequest;
+import oleborn.research_jooq.dto.PageResult;
+import oleborn.research_jooq.dto.UpsertResultDto;
 import oleborn.research_jooq.dto.UserResponseDto;
+import oleborn.research_jooq.dto.UserWithRelationsDto;
+import oleborn.research_jooq.service.IdempotencyService;
 import oleborn.research_jooq.service.UserService;
+import oleborn.research_jooq.service.UserUpsertService;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.server.ResponseStatusException;
 
 import java.util.List;
 import java.util.UUID;
@@ -17,11 +24,17 @@ import java.util.UUID;
 public class UserController {
 
     private final UserService userService;
+    private final IdempotencyService idempotencyService;
+    private final UserUpsertService userUpsertService;
 
     @PostMapping
-    public ResponseEntity<UserResponseDto> createUser(@RequestBody CreateUserRequest request) {
-        UserResponseDto createdUser = userService.createUser(request);
-        return ResponseEntity.status(HttpStatus.CREATED).body(createdUser);
+    public ResponseEntity<UserResponseDto> createUser(
+            @RequestHeader(name = IdempotencyService.HEADER, required = false) String idempotencyKey,
+            @RequestBody CreateUserRequest request) {
+        return idempotencyService.execute(idempotencyKey, "POST /api/users", request, UserResponseDto.class, () -> {
+            UserResponseDto createdUser = userService.createUser(request);
+            return ResponseEntity.status(HttpStatus.CREATED).body(createdUser);
+        });
     }
 
     @GetMapping("/{id}")
@@ -33,9 +46,10 @@ public class UserController {
     @GetMapping
     public ResponseEntity<List<UserResponseDto>> getUsersWithPagination(
             @RequestParam(defaultValue = "0") int page,
-            @RequestParam(defaultValue = "10") int size) {
-        List<UserResponseDto> users = userService.getUsersWithPagination(page, size);
-        return ResponseEntity.ok(users);
+            @RequestParam(defaultValue = "10") int size,
+            @RequestParam(defaultValue = "false") boolean withTotal) {
+        PageResult<UserResponseDto> users = userService.getUsersWithPagination(page, size, withTotal);
+        return PageHeaders.ok(users);
     }
 
     @PatchMapping("/{id}")
@@ -46,6 +60,29 @@ public class UserController {
         return ResponseEntity.ok(updatedUser);
     }
 
+    /**
+     * Создать или полностью заменить пользователя со связями по username - один запрос к БД
+     * 201 - пользователь создан, 200 - обновлен
+     */
+    @PutMapping("/by-username/{username}")
+    public ResponseEntity<UserWithRelationsDto> upsertUserByUsername(
+            @PathVariable String username,
+            @RequestBody CreateUserWithRelationsRequest request) {
+        UpsertResultDto result = userUpsertService.upsertUserWithRelations(username, request);
+        return ResponseEntity.status(result.created() ? HttpStatus.CREATED : HttpStatus.OK).body(result.user());
+    }
+
+    @PutMapping("/by-username")
+    public ResponseEntity<List<UpsertResultDto>> upsertUsersByUsername(
+            @RequestBody List<CreateUserWithRelationsRequest> requests) {
+        for (CreateUserWithRelationsRequest request : requests) {
+            if (request.user() == null || request.user().username() == null) {
+                throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Every user must have a username");
+            }
+        }
+        return ResponseEntity.ok(userUpsertService.upsertUsersWithRelations(requests));
+    }
+
     @DeleteMapping("/{id}")
     public ResponseEntity<Void> deleteUser(@PathVariable UUID id) {
         userService.deleteUser(id);
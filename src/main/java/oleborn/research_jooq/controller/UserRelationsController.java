@@ -2,6 +2,7 @@ package oleborn.research_jooq.controller;
 
 import lombok.RequiredArgsConstructor;
 import oleborn.research_jooq.dto.*;
+import oleborn.research_jooq.service.IdempotencyService;
 import oleborn.research_jooq.service.UserRelationsService;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
@@ -16,16 +17,18 @@ import java.util.stream.Collectors;
 public class UserRelationsController {
     
     private final UserRelationsService userRelationsService;
+    private final IdempotencyService idempotencyService;
     
 
     @GetMapping("/full")
     public ResponseEntity<List<UserWithRelationsDto>> getUsersWithFullRelations(
             @RequestParam(defaultValue = "0") int page,
-            @RequestParam(defaultValue = "10") int size
+            @RequestParam(defaultValue = "10") int size,
+            @RequestParam(defaultValue = "false") boolean withTotal
     ) {
 
-        List<UserWithRelationsDto> users = userRelationsService.getUsersWithFullRelations(page, size);
-        return ResponseEntity.ok(users);
+        PageResult<UserWithRelationsDto> users = userRelationsService.getUsersWithFullRelations(page, size, withTotal);
+        return PageHeaders.ok(users);
     }
 
 
@@ -46,16 +49,21 @@ public class UserRelationsController {
 
     @PostMapping
     public ResponseEntity<UserWithRelationsDto> createUserWithRelations(
+            @RequestHeader(name = IdempotencyService.HEADER, required = false) String idempotencyKey,
             @RequestBody CreateUserWithRelationsRequest request
     ) {
 
-        UserWithRelationsDto createdUser = userRelationsService.createUserWithRelations(
-            request.user(),
-            request.address(), 
-            request.cars() != null ? request.cars() : List.of()
-        );
-        
-        return ResponseEntity.status(HttpStatus.CREATED).body(createdUser);
+        // Повтор с тем же Idempotency-Key вернет сохраненный ответ без повторной вставки
+        return idempotencyService.execute(idempotencyKey, "POST /api/users/relations", request, UserWithRelationsDto.class, () -> {
+
+            UserWithRelationsDto createdUser = userRelationsService.createUserWithRelations(
+                request.user(),
+                request.address(),
+                request.cars() != null ? request.cars() : List.of()
+            );
+
+            return ResponseEntity.status(HttpStatus.CREATED).body(createdUser);
+        });
     }
 
 
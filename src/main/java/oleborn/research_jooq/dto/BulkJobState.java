@@ -0,0 +1,13 @@
+package oleborn.research_jooq.dto;
+
+public enum BulkJobState {
+    QUEUED,
+    RUNNING,
+    COMPLETED,
+    CANCELLED,
+    FAILED;
+
+    public boolean isFinal() {
+        return this == COMPLETED || this == CANCELLED || this == FAILED;
+    }
+}
@@ -0,0 +1,26 @@
+package oleborn.research_jooq.dto;
+
+import lombok.Builder;
+
+import java.time.LocalDateTime;
+import java.util.UUID;
+
+/**
+ * СОСТОЯНИЕ BULK-ЗАДАЧИ
+ * itemsPerSecond и etaSeconds вычисляются по фактическому прогрессу с момента старта
+ */
+@Builder
+public record BulkJobStatusDto(
+        UUID id,
+        BulkJobType type,
+        BulkJobState status,
+        long totalItems,
+        long processedItems,
+        long failedItems,
+        Double itemsPerSecond,
+        Long etaSeconds,
+        String lastError,
+        LocalDateTime createdAt,
+        LocalDateTime startedAt,
+        LocalDateTime finishedAt
+) {}
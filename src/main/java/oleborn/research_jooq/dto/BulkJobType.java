@@ -0,0 +1,7 @@
+package oleborn.research_jooq.dto;
+
+public enum BulkJobType {
+    IMPORT_USERS,
+    RELINK_CARS,
+    PURGE_USERS
+}
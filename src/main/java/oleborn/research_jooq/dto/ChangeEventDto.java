@@ -0,0 +1,19 @@
+package oleborn.research_jooq.dto;
+
+import java.time.LocalDateTime;
+import java.util.UUID;
+
+public record ChangeEventDto(
+        long txid,
+        long seq,
+        String table,
+        String operation,
+        UUID rowId,
+        UUID userId,
+        LocalDateTime createdAt
+) {
+
+    public ChangeFeedPosition position() {
+        return new ChangeFeedPosition(txid, seq);
+    }
+}
@@ -0,0 +1,42 @@
+package oleborn.research_jooq.dto;
+
+/**
+ * Позиция в ленте изменений: номер транзакции события и его seq.
+ * Передается клиенту как id SSE-события в виде "txid-seq"
+ */
+public record ChangeFeedPosition(
+        long txid,
+        long seq
+) implements Comparable<ChangeFeedPosition> {
+
+    public static final ChangeFeedPosition ZERO = new ChangeFeedPosition(0, 0);
+
+    /**
+     * @throws IllegalArgumentException если id не в формате "txid-seq"
+     */
+    public static ChangeFeedPosition parse(String id) {
+        int dash = id.indexOf('-');
+        if (dash <= 0) {
+            throw new IllegalArgumentException("Malformed change feed position: " + id);
+        }
+        try {
+            return new ChangeFeedPosition(
+                    Long.parseLong(id.substring(0, dash)),
+                    Long.parseLong(id.substring(dash + 1))
+            );
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Malformed change feed position: " + id, e);
+        }
+    }
+
+    @Override
+    public int compareTo(ChangeFeedPosition other) {
+        int byTxid = Long.compare(txid, other.txid);
+        return byTxid != 0 ? byTxid : Long.compare(seq, other.seq);
+    }
+
+    @Override
+    public String toString() {
+        return txid + "-" + seq;
+    }
+}
@@ -0,0 +1,42 @@
+package oleborn.research_jooq.dto;
+
+import java.util.List;
+
+/**
+ * ОТЧЕТ ПО УДЕРЖАНИЮ СОЕДИНЕНИЙ
+ *
+ * @param poolSize  текущий maximum-pool-size основного пула
+ * @param top       места вызова по суммарному времени удержания соединения, по убыванию
+ * @param held      соединения, которые удерживаются прямо сейчас, - самые долгие первыми
+ */
+public record ConnectionHoldersReportDto(
+    int poolSize,
+    List<CallSite> top,
+    List<HeldConnection> held
+) {
+
+    /**
+     * @param endpoint           HTTP-метод и шаблон пути, "none" - вне HTTP-запроса (фоновые задачи)
+     * @param method             метод сервиса, взявший соединение
+     * @param acquisitions       попытки взять соединение, включая неудачные
+     * @param failedAcquisitions попытки, закончившиеся таймаутом пула или ошибкой
+     */
+    public record CallSite(
+        String endpoint,
+        String method,
+        long acquisitions,
+        long failedAcquisitions,
+        double totalHoldMs,
+        double meanHoldMs,
+        double maxHoldMs,
+        double meanAcquireMs,
+        double maxAcquireMs
+    ) {}
+
+    public record HeldConnection(
+        String endpoint,
+        String method,
+        String thread,
+        double heldMs
+    ) {}
+}
@@ -0,0 +1,13 @@
+package oleborn.research_jooq.dto;
+
+import java.time.LocalDateTime;
+import java.util.UUID;
+
+public record OutboxEventDto(
+        long id,
+        String aggregateType,
+        UUID aggregateId,
+        String eventType,
+        String payload,
+        LocalDateTime createdAt
+) {}
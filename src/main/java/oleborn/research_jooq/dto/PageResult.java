@@ -0,0 +1,20 @@
+package oleborn.research_jooq.dto;
+
+import java.util.List;
+
+/**
+ * Страница результатов с общим количеством строк
+ *
+ * @param total общее количество (null - не запрашивалось или неизвестно)
+ * @param exact true - точное значение, false - оценка по статистике PostgreSQL
+ */
+public record PageResult<T>(
+    List<T> content,
+    Long total,
+    boolean exact
+) {
+
+    public static <T> PageResult<T> withoutTotal(List<T> content) {
+        return new PageResult<>(content, null, false);
+    }
+}
@@ -0,0 +1,16 @@
+package oleborn.research_jooq.dto;
+
+import java.time.LocalDateTime;
+
+/**
+ * @param createdBefore    удаляются пользователи, созданные раньше этого момента
+ * @param archive          скопировать пользователей, адреса и связи в *_archive перед удалением
+ * @param deleteOrphanCars удалить машины, у которых не осталось владельцев
+ * @param rowsPerSecond    целевая скорость (null - из app.jobs.purge.rows-per-second, 0 - без ограничения)
+ */
+public record PurgeUsersRequest(
+    LocalDateTime createdBefore,
+    boolean archive,
+    boolean deleteOrphanCars,
+    Integer rowsPerSecond
+) {}
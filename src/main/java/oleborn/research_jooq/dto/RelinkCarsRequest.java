@@ -0,0 +1,6 @@
+package oleborn.research_jooq.dto;
+
+public record RelinkCarsRequest(
+    String fromUsername,
+    String toUsername
+) {}
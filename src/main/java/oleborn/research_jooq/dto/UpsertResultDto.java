@@ -0,0 +1,11 @@
+package oleborn.research_jooq.dto;
+
+/**
+ * Результат upsert по username
+ *
+ * @param created true - пользователь создан, false - обновлен существующий
+ */
+public record UpsertResultDto(
+    UserWithRelationsDto user,
+    boolean created
+) {}
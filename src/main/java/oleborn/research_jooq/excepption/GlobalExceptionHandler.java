@@ -2,21 +2,87 @@ package oleborn.research_jooq.excepption;
 
 import jakarta.servlet.http.HttpServletRequest;
 import oleborn.research_jooq.dto.ErrorDto;
+import org.postgresql.util.PSQLException;
+import org.postgresql.util.ServerErrorMessage;
+import org.springframework.dao.DuplicateKeyException;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.ExceptionHandler;
 import org.springframework.web.bind.annotation.RestControllerAdvice;
 
+import java.util.Set;
+import java.util.concurrent.RejectedExecutionException;
+
 @RestControllerAdvice
 public class GlobalExceptionHandler {
 
-    @ExceptionHandler(UserNotFoundException.class)
+    // UNIQUE-ограничения username: в users (без шардирования) и в глобальном индексе (с шардированием)
+    static final Set<String> USERNAME_CONSTRAINTS = Set.of("users_username_key", "username_index_pkey");
+
+    @ExceptionHandler({UserNotFoundException.class, JobNotFoundException.class})
     public ResponseEntity<ErrorDto> handleEmailAlreadyExistsException(Exception ex, HttpServletRequest request) {
-        return ResponseEntity.status(HttpStatus.NOT_FOUND)
+        return buildError(HttpStatus.NOT_FOUND, ex, request);
+    }
+
+    // Очередь фоновых задач переполнена - клиент должен повторить запрос позже
+    @ExceptionHandler(RejectedExecutionException.class)
+    public ResponseEntity<ErrorDto> handleRejectedExecutionException(Exception ex, HttpServletRequest request) {
+        return buildError(HttpStatus.SERVICE_UNAVAILABLE, ex, request);
+    }
+
+    @ExceptionHandler(UsernameAlreadyExistsException.class)
+    public ResponseEntity<ErrorDto> handleUsernameAlreadyExistsException(Exception ex, HttpServletRequest request) {
+        return buildError(HttpStatus.CONFLICT, ex, request);
+    }
+
+    // UNIQUE-индекс отклонил username, который Bloom-фильтр этого узла не знал.
+    // Остальные нарушения уникальности - ошибка сервера, а не занятый username: они пробрасываются дальше (500)
+    @ExceptionHandler(DuplicateKeyException.class)
+    public ResponseEntity<ErrorDto> handleDuplicateKeyException(DuplicateKeyException ex, HttpServletRequest request) {
+        String constraint = violatedConstraint(ex);
+        if (constraint == null || !USERNAME_CONSTRAINTS.contains(constraint)) {
+            throw ex;
+        }
+        return buildError(HttpStatus.CONFLICT, new UsernameAlreadyExistsException("Username is already taken"), request);
+    }
+
+    /**
+     * Имя нарушенного ограничения из ответа PostgreSQL, null - если его нет в цепочке причин
+     */
+    private static String violatedConstraint(Throwable ex) {
+        for (Throwable cause = ex; cause != null; cause = cause.getCause()) {
+            if (cause instanceof PSQLException psql) {
+                ServerErrorMessage message = psql.getServerErrorMessage();
+                return message != null ? message.getConstraint() : null;
+            }
+        }
+        return null;
+    }
+
+    // Операция пока работает только с основной БД, а включено шардирование
+    @ExceptionHandler(NotSupportedWhenShardedException.class)
+    public ResponseEntity<ErrorDto> handleNotSupportedWhenShardedException(Exception ex, HttpServletRequest request) {
+        return buildError(HttpStatus.NOT_IMPLEMENTED, ex, request);
+    }
+
+    // Запрос с тем же Idempotency-Key еще выполняется на другом узле
+    @ExceptionHandler(IdempotencyKeyInProgressException.class)
+    public ResponseEntity<ErrorDto> handleIdempotencyKeyInProgressException(Exception ex, HttpServletRequest request) {
+        return buildError(HttpStatus.CONFLICT, ex, request);
+    }
+
+    // Тот же Idempotency-Key прислан с другим телом запроса
+    @ExceptionHandler(IdempotencyKeyMismatchException.class)
+    public ResponseEntity<ErrorDto> handleIdempotencyKeyMismatchException(Exception ex, HttpServletRequest request) {
+        return buildError(HttpStatus.UNPROCESSABLE_ENTITY, ex, request);
+    }
+
+    private ResponseEntity<ErrorDto> buildError(HttpStatus status, Exception ex, HttpServletRequest request) {
+        return ResponseEntity.status(status)
                 .body(
                         ErrorDto.builder()
                                 .uri(request.getRequestURI())
-                                .errorCode(HttpStatus.NOT_FOUND.value())
+                                .errorCode(status.value())
                                 .errorDescription(ex.getMessage())
                                 .nameMethod(request.getMethod())
                                 .build()
@@ -0,0 +1,7 @@
+package oleborn.research_jooq.excepption;
+
+public class IdempotencyKeyInProgressException extends RuntimeException {
+    public IdempotencyKeyInProgressException(String message) {
+        super(message);
+    }
+}
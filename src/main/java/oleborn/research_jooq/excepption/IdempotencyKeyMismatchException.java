@@ -0,0 +1,7 @@
+package oleborn.research_jooq.excepption;
+
+public class IdempotencyKeyMismatchException extends RuntimeException {
+    public IdempotencyKeyMismatchException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,7 @@
+package oleborn.research_jooq.excepption;
+
+public class JobNotFoundException extends RuntimeException {
+    public JobNotFoundException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,7 @@
+package oleborn.research_jooq.excepption;
+
+public class NotSupportedWhenShardedException extends RuntimeException {
+    public NotSupportedWhenShardedException(String message) {
+        super(message);
+    }
+}
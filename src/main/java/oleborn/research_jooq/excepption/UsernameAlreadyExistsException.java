@@ -0,0 +1,7 @@
+package oleborn.research_jooq.excepption;
+
+public class UsernameAlreadyExistsException extends RuntimeException {
+    public UsernameAlreadyExistsException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,400 @@
+package oleborn.research_jooq.service;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import oleborn.research_jooq.config.BulkJobProperties;
+import oleborn.research_jooq.dto.*;
+import oleborn.research_jooq.excepption.JobNotFoundException;
+import oleborn.research_jooq.excepption.NotSupportedWhenShardedException;
+import oleborn.research_jooq.excepption.UserNotFoundException;
+import oleborn.research_jooq.jooq.tables.UsersCar;
+import oleborn.research_jooq.jooq.tables.records.BulkJobRecord;
+import org.jooq.Condition;
+import org.jooq.DSLContext;
+import org.jooq.TableField;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.dao.DataAccessException;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static oleborn.research_jooq.jooq.tables.BulkJob.BULK_JOB;
+import static oleborn.research_jooq.jooq.tables.Users.USERS;
+import static oleborn.research_jooq.jooq.tables.UsersCar.USERS_CAR;
+import static org.jooq.impl.DSL.*;
+
+/**
+ * ФОНОВЫЕ BULK-ЗАДАЧИ: ИМПОРТ, ПЕРЕПРИВЯЗКА МАШИН, ОЧИСТКА ПОЛЬЗОВАТЕЛЕЙ
+ * <p>
+ * Задача выполняется в ограниченном пуле потоков (BulkJobConfig) и разбивается на чанки:
+ * каждый чанк - отдельная короткая транзакция, в которой вместе с данными
+ * обновляется и прогресс в таблице bulk_job. Поэтому поток Tomcat не блокируется,
+ * а блокировки и размер транзакции не зависят от объема всей операции.
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class BulkJobService {
+
+    private final DSLContext ctx;
+    private final UserRelationsService userRelationsService;
+    private final ThreadPoolExecutor bulkJobExecutor;
+    private final BulkJobProperties properties;
+    private final UsernameFilter usernameFilter;
+    private final RelationsSnapshotService relationsSnapshotService;
+    private final UserPurgeService userPurgeService;
+    private final ShardRouter shardRouter;
+
+    // Флаги отмены для задач, которые сейчас в очереди или выполняются
+    private final Map<UUID, AtomicBoolean> cancelFlags = new ConcurrentHashMap<>();
+
+    /**
+     * ОДИН ШАГ ЗАДАЧИ - обработка одного чанка внутри транзакции
+     */
+    private interface ChunkStep {
+
+        /**
+         * @return количество обработанных элементов, 0 - работы больше нет
+         */
+        int process();
+
+        /**
+         * Вызывается, если чанк упал и транзакция откатилась.
+         * По умолчанию ошибка завершает всю задачу.
+         *
+         * @return количество пропущенных (ошибочных) элементов
+         */
+        default int skipFailed(DataAccessException e) {
+            throw e;
+        }
+
+        /**
+         * Пауза после успешного чанка. После паузы спрашивается повторно (processed = 0),
+         * следующий чанк выполняется, только когда шаг вернет 0.
+         */
+        default Duration pause(int processed, Duration elapsed) {
+            return Duration.ZERO;
+        }
+    }
+
+    public BulkJobStatusDto submitImportUsers(List<CreateUserWithRelationsRequest> requests) {
+        List<CreateUserWithRelationsRequest> items = List.copyOf(requests);
+        int chunkSize = properties.chunkSize();
+
+        return submit(BulkJobType.IMPORT_USERS, items.size(), new ChunkStep() {
+
+            private int from = 0;
+
+            @Override
+            public int process() {
+                if (from >= items.size()) return 0;
+                int to = Math.min(from + chunkSize, items.size());
+                int created = userRelationsService.createUsersWithRelationsBatch(items.subList(from, to));
+                from = to;
+                return created;
+            }
+
+            // Ошибка в одном чанке (например, дубликат username) не останавливает импорт
+            @Override
+            public int skipFailed(DataAccessException e) {
+                int skipped = Math.min(chunkSize, items.size() - from);
+                from += skipped;
+                return skipped;
+            }
+        });
+    }
+
+    /**
+     * ПЕРЕПРИВЯЗКА МАШИН
+     * Только без шардирования: пользователи могут жить на разных шардах, а машины и связи -
+     * в БД своего шарда, перенос между ними одним UPDATE невозможен
+     */
+    public BulkJobStatusDto submitRelinkCars(RelinkCarsRequest request) {
+        if (shardRouter.isSharded()) {
+            throw new NotSupportedWhenShardedException("RELINK_CARS is not supported when sharding is enabled");
+        }
+
+        UUID fromUserId = findUserId(request.fromUsername());
+        UUID toUserId = findUserId(request.toUsername());
+
+        // Машины, которые уже привязаны к целевому пользователю, не переносим (UNIQUE(user_id, car_id))
+        UsersCar target = USERS_CAR.as("target");
+        Condition movable = USERS_CAR.USER_ID.eq(fromUserId)
+                .and(notExists(
+                        selectOne().from(target)
+                                .where(target.USER_ID.eq(toUserId))
+                                .and(target.CAR_ID.eq(USERS_CAR.CAR_ID))
+                ));
+
+        long total = ctx.fetchCount(USERS_CAR, movable);
+
+        return submit(BulkJobType.RELINK_CARS, total, () -> {
+            // Оба пользователя блокируются до переноса - иначе параллельная запись графа оставила бы устаревший снимок
+            relationsSnapshotService.lockUsers(ctx, USERS.ID.in(fromUserId, toUserId));
+
+            // UPDATE users_car SET user_id = :to WHERE id IN (SELECT id ... LIMIT :chunk)
+            int moved = ctx.update(USERS_CAR)
+                    .set(USERS_CAR.USER_ID, toUserId)
+                    .set(USERS_CAR.UPDATED_AT, currentLocalDateTime())
+                    .where(USERS_CAR.ID.in(
+                            select(USERS_CAR.ID).from(USERS_CAR).where(movable).limit(properties.chunkSize())
+                    ))
+                    .execute();
+            // Снимки связей обоих пользователей - в транзакции того же чанка
+            relationsSnapshotService.refresh(ctx, USERS.ID.in(fromUserId, toUserId));
+            return moved;
+        });
+    }
+
+    public BulkJobStatusDto submitPurgeUsers(PurgeUsersRequest request) {
+        long total = userPurgeService.countVictims(request.createdBefore());
+
+        return submit(BulkJobType.PURGE_USERS, total, new ChunkStep() {
+
+            @Override
+            public int process() {
+                int deleted = userPurgeService.purgeChunk(request);
+                usernameFilter.recordDeleted(deleted);
+                return deleted;
+            }
+
+            // Ограничение скорости и ожидание реплик
+            @Override
+            public Duration pause(int processed, Duration elapsed) {
+                return userPurgeService.pause(request, processed, elapsed);
+            }
+        });
+    }
+
+    public BulkJobStatusDto getStatus(UUID jobId) {
+        return toDto(findJob(jobId));
+    }
+
+    /**
+     * ОТМЕНА ЗАДАЧИ
+     * Задача в очереди отменяется сразу, выполняющаяся - после завершения текущего чанка
+     * (уже закоммиченные чанки не откатываются)
+     */
+    public BulkJobStatusDto cancel(UUID jobId) {
+        AtomicBoolean flag = cancelFlags.get(jobId);
+        if (flag != null) {
+            flag.set(true);
+        }
+
+        ctx.update(BULK_JOB)
+                .set(BULK_JOB.STATUS, BulkJobState.CANCELLED.name())
+                .set(BULK_JOB.FINISHED_AT, currentLocalDateTime())
+                .set(BULK_JOB.UPDATED_AT, currentLocalDateTime())
+                .where(BULK_JOB.ID.eq(jobId))
+                .and(BULK_JOB.STATUS.eq(BulkJobState.QUEUED.name()))
+                .execute();
+
+        return getStatus(jobId);
+    }
+
+    /**
+     * ЗАДАЧИ, ПРЕРВАННЫЕ ПЕРЕЗАПУСКОМ ПРИЛОЖЕНИЯ
+     * Очередь живет в памяти, поэтому после рестарта такие задачи помечаются как FAILED
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void failInterruptedJobs() {
+        int interrupted = ctx.update(BULK_JOB)
+                .set(BULK_JOB.STATUS, BulkJobState.FAILED.name())
+                .set(BULK_JOB.LAST_ERROR, "Interrupted by application restart")
+                .set(BULK_JOB.FINISHED_AT, currentLocalDateTime())
+                .set(BULK_JOB.UPDATED_AT, currentLocalDateTime())
+                .where(BULK_JOB.STATUS.in(BulkJobState.QUEUED.name(), BulkJobState.RUNNING.name()))
+                .execute();
+
+        if (interrupted > 0) {
+            log.warn("Marked {} interrupted bulk jobs as FAILED", interrupted);
+        }
+    }
+
+    private BulkJobStatusDto submit(BulkJobType type, long totalItems, ChunkStep step) {
+        UUID jobId = UUID.randomUUID();
+
+        ctx.insertInto(BULK_JOB)
+                .set(BULK_JOB.ID, jobId)
+                .set(BULK_JOB.JOB_TYPE, type.name())
+                .set(BULK_JOB.STATUS, BulkJobState.QUEUED.name())
+                .set(BULK_JOB.TOTAL_ITEMS, totalItems)
+                .execute();
+
+        cancelFlags.put(jobId, new AtomicBoolean());
+
+        try {
+            bulkJobExecutor.execute(() -> run(jobId, step));
+        } catch (RejectedExecutionException e) {
+            cancelFlags.remove(jobId);
+            finish(jobId, BulkJobState.FAILED, "Rejected: job queue is full");
+            throw new RejectedExecutionException("Bulk job queue is full, retry later", e);
+        }
+
+        return getStatus(jobId);
+    }
+
+    private void run(UUID jobId, ChunkStep step) {
+        AtomicBoolean cancelled = cancelFlags.get(jobId);
+        try {
+            // QUEUED -> RUNNING; если задачу успели отменить в очереди - ничего не делаем
+            int started = ctx.update(BULK_JOB)
+                    .set(BULK_JOB.STATUS, BulkJobState.RUNNING.name())
+                    .set(BULK_JOB.STARTED_AT, currentLocalDateTime())
+                    .set(BULK_JOB.UPDATED_AT, currentLocalDateTime())
+                    .where(BULK_JOB.ID.eq(jobId))
+                    .and(BULK_JOB.STATUS.eq(BulkJobState.QUEUED.name()))
+                    .execute();
+            if (started == 0) return;
+
+            while (!cancelled.get()) {
+                int processed;
+                long chunkStarted = System.nanoTime();
+                try {
+                    // ОДИН ЧАНК = ОДНА ТРАНЗАКЦИЯ: данные и прогресс коммитятся вместе
+                    processed = ctx.transactionResult(cfg -> {
+                        int count = step.process();
+                        if (count > 0) {
+                            addProgress(jobId, BULK_JOB.PROCESSED_ITEMS, count);
+                        }
+                        return count;
+                    });
+                } catch (DataAccessException e) {
+                    // Spring Boot транслирует ошибки jOOQ в DataAccessException из spring-tx
+                    int skipped = step.skipFailed(e);
+                    log.warn("Bulk job {}: chunk of {} items failed: {}", jobId, skipped, e.getMessage());
+                    addProgress(jobId, BULK_JOB.FAILED_ITEMS, skipped);
+                    ctx.update(BULK_JOB)
+                            .set(BULK_JOB.LAST_ERROR, abbreviate(e.getMessage()))
+                            .where(BULK_JOB.ID.eq(jobId))
+                            .execute();
+                    continue;
+                }
+
+                if (processed == 0) {
+                    finish(jobId, BulkJobState.COMPLETED, null);
+                    return;
+                }
+
+                Duration pause = step.pause(processed, Duration.ofNanos(System.nanoTime() - chunkStarted));
+                while (pause.isPositive() && !cancelled.get()) {
+                    sleep(pause, cancelled);
+                    pause = step.pause(0, Duration.ZERO);
+                }
+            }
+
+            finish(jobId, BulkJobState.CANCELLED, null);
+
+        } catch (RuntimeException e) {
+            log.error("Bulk job {} failed", jobId, e);
+            finish(jobId, BulkJobState.FAILED, e.getMessage());
+        } finally {
+            cancelFlags.remove(jobId);
+        }
+    }
+
+    /**
+     * Сон с проверкой флага отмены не реже раза в секунду
+     */
+    private static void sleep(Duration pause, AtomicBoolean cancelled) {
+        long deadline = System.nanoTime() + pause.toNanos();
+        try {
+            for (long left = pause.toNanos(); left > 0 && !cancelled.get(); left = deadline - System.nanoTime()) {
+                Thread.sleep(Duration.ofNanos(Math.min(left, 1_000_000_000L)));
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while pausing between chunks", e);
+        }
+    }
+
+    private void addProgress(UUID jobId, TableField<BulkJobRecord, Long> counter, int delta) {
+        ctx.update(BULK_JOB)
+                .set(counter, counter.plus((long) delta))
+                .set(BULK_JOB.UPDATED_AT, currentLocalDateTime())
+                .where(BULK_JOB.ID.eq(jobId))
+                .execute();
+    }
+
+    private void finish(UUID jobId, BulkJobState state, String error) {
+        ctx.update(BULK_JOB)
+                .set(BULK_JOB.STATUS, state.name())
+                .set(BULK_JOB.LAST_ERROR, coalesce(val(abbreviate(error)), BULK_JOB.LAST_ERROR))
+                .set(BULK_JOB.FINISHED_AT, currentLocalDateTime())
+                .set(BULK_JOB.UPDATED_AT, currentLocalDateTime())
+                .where(BULK_JOB.ID.eq(jobId))
+                .execute();
+    }
+
+    private BulkJobRecord findJob(UUID jobId) {
+        BulkJobRecord job = ctx.selectFrom(BULK_JOB)
+                .where(BULK_JOB.ID.eq(jobId))
+                .fetchOne();
+        if (job == null) {
+            throw new JobNotFoundException("Job with id " + jobId + " not found");
+        }
+        return job;
+    }
+
+    private UUID findUserId(String username) {
+        UUID userId = ctx.select(USERS.ID)
+                .from(USERS)
+                .where(USERS.USERNAME.eq(username))
+                .fetchOne(USERS.ID);
+        if (userId == null) {
+            throw new UserNotFoundException("User with username " + username + " not found");
+        }
+        return userId;
+    }
+
+    /**
+     * МЕТРИКИ ПРОГРЕССА: пропускная способность (элементов/сек) и оценка оставшегося времени
+     */
+    private BulkJobStatusDto toDto(BulkJobRecord job) {
+        BulkJobState state = BulkJobState.valueOf(job.getStatus());
+        long done = job.getProcessedItems() + job.getFailedItems();
+
+        Double itemsPerSecond = null;
+        Long etaSeconds = null;
+        if (job.getStartedAt() != null) {
+            LocalDateTime end = job.getFinishedAt() != null ? job.getFinishedAt() : LocalDateTime.now();
+            double elapsedSeconds = Duration.between(job.getStartedAt(), end).toMillis() / 1000.0;
+            if (elapsedSeconds > 0) {
+                itemsPerSecond = done / elapsedSeconds;
+            }
+            if (!state.isFinal() && itemsPerSecond != null && itemsPerSecond > 0) {
+                long remaining = Math.max(0, job.getTotalItems() - done);
+                etaSeconds = Math.round(remaining / itemsPerSecond);
+            }
+        }
+
+        return BulkJobStatusDto.builder()
+                .id(job.getId())
+                .type(BulkJobType.valueOf(job.getJobType()))
+                .status(state)
+                .totalItems(job.getTotalItems())
+                .processedItems(job.getProcessedItems())
+                .failedItems(job.getFailedItems())
+                .itemsPerSecond(itemsPerSecond)
+                .etaSeconds(etaSeconds)
+                .lastError(job.getLastError())
+                .createdAt(job.getCreatedAt())
+                .startedAt(job.getStartedAt())
+                .finishedAt(job.getFinishedAt())
+                .build();
+    }
+
+    private static String abbreviate(String message) {
+        if (message == null || message.length() <= 1000) return message;
+        return message.substring(0, 1000);
+    }
+}
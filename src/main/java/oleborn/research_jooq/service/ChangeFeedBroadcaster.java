@@ -0,0 +1,189 @@
+package oleborn.research_jooq.service;
+
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import oleborn.research_jooq.config.ChangeFeedProperties;
+import oleborn.research_jooq.dto.ChangeEventDto;
+import oleborn.research_jooq.dto.ChangeFeedPosition;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Component;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * РАССЫЛКА СОБЫТИЙ ЛЕНТЫ ИЗМЕНЕНИЙ ПО SSE-ПОДПИСЧИКАМ
+ * <p>
+ * publish() вызывается из единственного потока LISTEN и никогда не блокируется:
+ * - список подписчиков - CopyOnWriteArrayList (чтение без блокировок)
+ * - у каждого подписчика свой ограниченный буфер на ConcurrentLinkedQueue + счетчике
+ * - отправкой в сокет занимается пул senders, не более одной задачи на подписчика
+ * Медленный подписчик, переполнивший буфер, отключается: клиент переподключается
+ * с заголовком Last-Event-ID и получает пропущенное из таблицы change_feed.
+ */
+@Slf4j
+@Component
+@ConditionalOnProperty(prefix = "app.change-feed", name = "enabled", havingValue = "true", matchIfMissing = true)
+public class ChangeFeedBroadcaster {
+
+    private final List<Subscriber> subscribers = new CopyOnWriteArrayList<>();
+    private final ExecutorService senders;
+    private final int bufferSize;
+
+    public ChangeFeedBroadcaster(ChangeFeedProperties properties) {
+        this.bufferSize = properties.subscriberBufferSize();
+        this.senders = Executors.newFixedThreadPool(
+                properties.senderThreads(),
+                new CustomizableThreadFactory("change-feed-sse-")
+        );
+    }
+
+    public void publish(ChangeEventDto event) {
+        for (Subscriber subscriber : subscribers) {
+            subscriber.offer(event);
+        }
+    }
+
+    /**
+     * РЕГИСТРАЦИЯ ПОДПИСЧИКА
+     * Живые события сразу начинают копиться в буфере, но отправляются только после start():
+     * так досылка пропущенных событий не перемешивается с живыми
+     */
+    Subscriber register(SseEmitter emitter) {
+        Subscriber subscriber = new Subscriber(emitter);
+        subscribers.add(subscriber);
+        emitter.onCompletion(subscriber::close);
+        emitter.onTimeout(subscriber::close);
+        emitter.onError(e -> subscriber.close());
+        return subscriber;
+    }
+
+    public int subscriberCount() {
+        return subscribers.size();
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        subscribers.forEach(subscriber -> subscriber.emitter.complete());
+        subscribers.clear();
+        senders.shutdownNow();
+    }
+
+    final class Subscriber {
+
+        private final SseEmitter emitter;
+        private final Queue<ChangeEventDto> buffer = new ConcurrentLinkedQueue<>();
+        private final AtomicInteger buffered = new AtomicInteger();
+        private final AtomicBoolean draining = new AtomicBoolean();
+        private final AtomicBoolean closed = new AtomicBoolean();
+
+        private volatile boolean started;
+        private volatile ChangeFeedPosition skipUpTo = ChangeFeedPosition.ZERO;
+
+        private Subscriber(SseEmitter emitter) {
+            this.emitter = emitter;
+        }
+
+        /**
+         * Отправка напрямую, минуя буфер - только до start() (досылка из таблицы)
+         */
+        void sendNow(ChangeEventDto event) throws IOException {
+            emitter.send(SseEmitter.event()
+                    .id(event.position().toString())
+                    .name("change")
+                    .data(event));
+        }
+
+        void sendReset(String reason) throws IOException {
+            emitter.send(SseEmitter.event().name("reset").data(reason));
+        }
+
+        /**
+         * Начать отправку живых событий.
+         * События с позицией <= replayedUpTo уже досланы и пропускаются.
+         */
+        void start(ChangeFeedPosition replayedUpTo) {
+            this.skipUpTo = replayedUpTo;
+            this.started = true;
+            scheduleDrain();
+        }
+
+        private void offer(ChangeEventDto event) {
+            if (closed.get()) return;
+
+            if (buffered.incrementAndGet() > bufferSize) {
+                overflow();
+                return;
+            }
+            buffer.offer(event);
+            scheduleDrain();
+        }
+
+        private void scheduleDrain() {
+            if (started && !closed.get() && draining.compareAndSet(false, true)) {
+                try {
+                    senders.execute(this::drain);
+                } catch (RejectedExecutionException e) {
+                    close();
+                }
+            }
+        }
+
+        private void drain() {
+            try {
+                ChangeEventDto event;
+                while (!closed.get() && (event = buffer.poll()) != null) {
+                    buffered.decrementAndGet();
+                    if (event.position().compareTo(skipUpTo) <= 0) continue;
+                    sendNow(event);
+                }
+            } catch (IOException | IllegalStateException e) {
+                // Клиент отключился
+                close();
+            } finally {
+                draining.set(false);
+            }
+
+            // Событие могло прийти между последним poll() и сбросом флага
+            if (!buffer.isEmpty()) {
+                scheduleDrain();
+            }
+        }
+
+        private void overflow() {
+            if (!closed.compareAndSet(false, true)) return;
+            subscribers.remove(this);
+            log.debug("Change feed subscriber dropped: buffer of {} events overflowed", bufferSize);
+
+            try {
+                senders.execute(() -> {
+                    try {
+                        sendReset("overflow: reconnect with Last-Event-ID");
+                    } catch (IOException | IllegalStateException ignored) {
+                        // клиент уже отключился
+                    }
+                    emitter.complete();
+                });
+            } catch (RejectedExecutionException e) {
+                emitter.complete();
+            }
+        }
+
+        void close() {
+            if (closed.compareAndSet(false, true)) {
+                subscribers.remove(this);
+                buffer.clear();
+            }
+        }
+    }
+}
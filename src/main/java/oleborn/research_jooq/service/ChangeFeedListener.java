@@ -0,0 +1,135 @@
+package oleborn.research_jooq.service;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import oleborn.research_jooq.dto.ChangeEventDto;
+import oleborn.research_jooq.dto.ChangeFeedPosition;
+import org.postgresql.PGConnection;
+import org.postgresql.PGNotification;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceProperties;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.stereotype.Component;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.List;
+
+/**
+ * ЕДИНСТВЕННОЕ LISTEN-СОЕДИНЕНИЕ ДЛЯ ЛЕНТЫ ИЗМЕНЕНИЙ
+ * <p>
+ * Соединение открывается напрямую через DriverManager, а не берется из Hikari:
+ * оно живет все время работы приложения и не должно уменьшать пул.
+ * <p>
+ * Уведомление не несет данных: это сигнал, что в change_feed появились события. По нему
+ * журнал дочитывается с последней выданной позиции (см. ChangeFeedService о порядке выдачи).
+ * События транзакций выше горизонта пока не выдаются; если такие есть, журнал перечитывается
+ * раз в POLL_TIMEOUT_MILLIS и без уведомлений - их транзакции уже могли закоммитить свои NOTIFY.
+ * После обрыва соединение переоткрывается, и события за время простоя дочитываются тем же курсором.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+@ConditionalOnProperty(prefix = "app.change-feed", name = "enabled", havingValue = "true", matchIfMissing = true)
+public class ChangeFeedListener implements SmartLifecycle {
+
+    private static final String CHANNEL = "change_feed";
+    private static final int POLL_TIMEOUT_MILLIS = 1000;
+    private static final long RECONNECT_DELAY_MILLIS = 5000;
+    private static final int CATCH_UP_BATCH = 1000;
+
+    private final DataSourceProperties dataSourceProperties;
+    private final ChangeFeedService changeFeedService;
+    private final ChangeFeedBroadcaster broadcaster;
+
+    private volatile boolean running;
+    private volatile Thread thread;
+    private ChangeFeedPosition position;
+    private boolean withheld;
+
+    @Override
+    public void start() {
+        running = true;
+        thread = new Thread(this::listenLoop, "change-feed-listener");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    @Override
+    public void stop() {
+        running = false;
+        Thread current = thread;
+        if (current != null) {
+            current.interrupt();
+        }
+    }
+
+    @Override
+    public boolean isRunning() {
+        return running;
+    }
+
+    private void listenLoop() {
+        while (running) {
+            try (Connection connection = DriverManager.getConnection(
+                    dataSourceProperties.determineUrl(),
+                    dataSourceProperties.determineUsername(),
+                    dataSourceProperties.determinePassword())) {
+
+                try (Statement statement = connection.createStatement()) {
+                    statement.execute("LISTEN " + CHANNEL);
+                }
+                log.info("Listening for change feed notifications on channel '{}'", CHANNEL);
+
+                catchUp();
+
+                PGConnection pgConnection = connection.unwrap(PGConnection.class);
+                while (running) {
+                    PGNotification[] notifications = pgConnection.getNotifications(POLL_TIMEOUT_MILLIS);
+                    boolean notified = notifications != null && notifications.length > 0;
+                    if (notified || withheld) {
+                        drain();
+                    }
+                }
+            } catch (SQLException | RuntimeException e) {
+                if (!running) return;
+                log.warn("Change feed listener connection lost, reconnecting in {} ms: {}",
+                        RECONNECT_DELAY_MILLIS, e.getMessage());
+                try {
+                    Thread.sleep(RECONNECT_DELAY_MILLIS);
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Первый запуск - начинаем с текущего конца журнала,
+     * переподключение - досылаем все, что пришло после последней выданной позиции
+     */
+    private void catchUp() {
+        if (position == null) {
+            position = changeFeedService.currentPosition();
+            withheld = changeFeedService.hasWithheldSince(position);
+            return;
+        }
+        drain();
+    }
+
+    private void drain() {
+        List<ChangeEventDto> batch;
+        do {
+            batch = changeFeedService.fetchSince(position, CATCH_UP_BATCH);
+            for (ChangeEventDto event : batch) {
+                position = event.position();
+                broadcaster.publish(event);
+            }
+        } while (batch.size() == CATCH_UP_BATCH);
+
+        withheld = changeFeedService.hasWithheldSince(position);
+    }
+}
@@ -0,0 +1,186 @@
+package oleborn.research_jooq.service;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import oleborn.research_jooq.config.ChangeFeedProperties;
+import oleborn.research_jooq.dto.ChangeEventDto;
+import oleborn.research_jooq.dto.ChangeFeedPosition;
+import org.jooq.DSLContext;
+import org.jooq.Record;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.UUID;
+
+import static oleborn.research_jooq.jooq.tables.ChangeFeed.CHANGE_FEED;
+
+/**
+ * ЛЕНТА ИЗМЕНЕНИЙ: ПОДПИСКА ПО SSE С ДОСЫЛКОЙ ПРОПУЩЕННЫХ СОБЫТИЙ
+ * <p>
+ * События пишутся триггерами в таблицу change_feed (16_change_feed_commit_order.sql),
+ * ChangeFeedListener по уведомлению NOTIFY дочитывает журнал и раздает новые события подписчикам,
+ * а при переподключении клиент присылает Last-Event-ID и получает все события после него.
+ * <p>
+ * ПОРЯДОК ВЫДАЧИ
+ * seq выдается до COMMIT, поэтому параллельные транзакции коммитят события не по порядку seq,
+ * и курсор "seq > последнего" пропускал бы поздно закоммиченные события. Курсор здесь - пара
+ * (txid, seq), а читаются только события транзакций ниже горизонта pg_snapshot_xmin: такие
+ * транзакции уже завершены, и событие с меньшей позицией больше не появится.
+ * Цена - задержка: пока открыта хоть одна более старая пишущая транзакция (в том числе
+ * не трогающая эти таблицы), события более новых транзакций не выдаются.
+ * Столбца txid нет в H2-схеме кодогенерации, поэтому запросы с ним написаны plain SQL.
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+@ConditionalOnProperty(prefix = "app.change-feed", name = "enabled", havingValue = "true", matchIfMissing = true)
+public class ChangeFeedService {
+
+    private static final String STABLE_SINCE = """
+            SELECT txid::text::bigint, seq, table_name, operation, row_id, user_id, created_at
+            FROM change_feed
+            WHERE (txid, seq) > (?::xid8, ?)
+              AND txid < pg_snapshot_xmin(pg_current_snapshot())
+            ORDER BY txid, seq
+            LIMIT ?
+            """;
+
+    private static final String WITHHELD_SINCE = """
+            SELECT EXISTS (
+                SELECT 1
+                FROM change_feed
+                WHERE (txid, seq) > (?::xid8, ?)
+                  AND txid >= pg_snapshot_xmin(pg_current_snapshot())
+            )
+            """;
+
+    private static final String LAST_STABLE = """
+            SELECT txid::text::bigint, seq
+            FROM change_feed
+            WHERE txid < pg_snapshot_xmin(pg_current_snapshot())
+            ORDER BY txid DESC, seq DESC
+            LIMIT 1
+            """;
+
+    private static final String OLDEST = """
+            SELECT txid::text::bigint, seq
+            FROM change_feed
+            ORDER BY txid, seq
+            LIMIT 1
+            """;
+
+    private final DSLContext ctx;
+    private final ChangeFeedBroadcaster broadcaster;
+    private final ChangeFeedProperties properties;
+
+    public SseEmitter subscribe(String lastEventId) {
+        SseEmitter emitter = new SseEmitter(properties.emitterTimeout().toMillis());
+        ChangeFeedBroadcaster.Subscriber subscriber = broadcaster.register(emitter);
+
+        ChangeFeedPosition replayedUpTo = ChangeFeedPosition.ZERO;
+        try {
+            if (lastEventId != null) {
+                replayedUpTo = replay(subscriber, lastEventId);
+            }
+        } catch (IOException | IllegalStateException e) {
+            subscriber.close();
+            return emitter;
+        }
+
+        subscriber.start(replayedUpTo);
+        return emitter;
+    }
+
+    /**
+     * ДОСЫЛКА СОБЫТИЙ ПОСЛЕ lastEventId
+     * Если id не распознан (например, seq от старой версии ленты), события уже удалены по retention
+     * или их слишком много - клиенту отправляется reset (нужна полная пересинхронизация),
+     * и дальше он получает только живые события.
+     *
+     * @return позиция последнего досланного события
+     */
+    private ChangeFeedPosition replay(ChangeFeedBroadcaster.Subscriber subscriber, String lastEventId) throws IOException {
+        ChangeFeedPosition from;
+        try {
+            from = ChangeFeedPosition.parse(lastEventId);
+        } catch (IllegalArgumentException e) {
+            subscriber.sendReset("unknown event id " + lastEventId);
+            return ChangeFeedPosition.ZERO;
+        }
+
+        ChangeFeedPosition oldest = ctx.resultQuery(OLDEST).fetchOne(ChangeFeedService::toPosition);
+        if (oldest != null && oldest.compareTo(from) > 0) {
+            subscriber.sendReset("events after " + from + " are no longer retained");
+            return ChangeFeedPosition.ZERO;
+        }
+
+        List<ChangeEventDto> missed = fetchSince(from, properties.replayLimit() + 1);
+        if (missed.size() > properties.replayLimit()) {
+            subscriber.sendReset("too many events after " + from);
+            return ChangeFeedPosition.ZERO;
+        }
+
+        ChangeFeedPosition replayedUpTo = from;
+        for (ChangeEventDto event : missed) {
+            subscriber.sendNow(event);
+            replayedUpTo = event.position();
+        }
+        return replayedUpTo;
+    }
+
+    /**
+     * События завершенных транзакций после позиции from в порядке (txid, seq)
+     */
+    public List<ChangeEventDto> fetchSince(ChangeFeedPosition from, int limit) {
+        return ctx.resultQuery(STABLE_SINCE, String.valueOf(from.txid()), from.seq(), limit)
+                .fetch(r -> new ChangeEventDto(
+                        r.get(0, Long.class),
+                        r.get(1, Long.class),
+                        r.get(2, String.class),
+                        r.get(3, String.class),
+                        r.get(4, UUID.class),
+                        r.get(5, UUID.class),
+                        r.get(6, LocalDateTime.class)
+                ));
+    }
+
+    /**
+     * Есть ли после from события еще не завершенных транзакций (или транзакций,
+     * которые ждут завершения более старой) - их нужно перечитать позже без нового NOTIFY
+     */
+    public boolean hasWithheldSince(ChangeFeedPosition from) {
+        return Boolean.TRUE.equals(ctx.resultQuery(WITHHELD_SINCE, String.valueOf(from.txid()), from.seq())
+                .fetchOne(0, Boolean.class));
+    }
+
+    /**
+     * Позиция последнего события, которое уже можно выдать
+     */
+    public ChangeFeedPosition currentPosition() {
+        ChangeFeedPosition position = ctx.resultQuery(LAST_STABLE).fetchOne(ChangeFeedService::toPosition);
+        return position != null ? position : ChangeFeedPosition.ZERO;
+    }
+
+    /**
+     * ОЧИСТКА ЖУРНАЛА ПО RETENTION
+     */
+    @Scheduled(fixedDelayString = "PT10M", initialDelayString = "PT1M")
+    public void deleteExpiredEvents() {
+        int deleted = ctx.deleteFrom(CHANGE_FEED)
+                .where(CHANGE_FEED.CREATED_AT.lt(LocalDateTime.now().minus(properties.retention())))
+                .execute();
+
+        if (deleted > 0) {
+            log.debug("Deleted {} expired change feed events", deleted);
+        }
+    }
+
+    private static ChangeFeedPosition toPosition(Record r) {
+        return new ChangeFeedPosition(r.get(0, Long.class), r.get(1, Long.class));
+    }
+}
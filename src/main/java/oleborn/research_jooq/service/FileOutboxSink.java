@@ -0,0 +1,46 @@
+package oleborn.research_jooq.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import oleborn.research_jooq.config.OutboxProperties;
+import oleborn.research_jooq.dto.OutboxEventDto;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+/**
+ * SINK В ФАЙЛ - каждое событие дописывается отдельной JSON-строкой
+ */
+@Component
+@ConditionalOnProperty(prefix = "app.outbox", name = "sink", havingValue = "file")
+public class FileOutboxSink implements OutboxSink {
+
+    private final ObjectMapper objectMapper;
+    private final Path file;
+
+    public FileOutboxSink(ObjectMapper objectMapper, OutboxProperties properties) {
+        this.objectMapper = objectMapper;
+        this.file = Path.of(properties.filePath());
+    }
+
+    @Override
+    public synchronized void publish(List<OutboxEventDto> events) throws IOException {
+        if (file.getParent() != null) {
+            Files.createDirectories(file.getParent());
+        }
+
+        try (BufferedWriter writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8,
+                StandardOpenOption.CREATE, StandardOpenOption.APPEND)) {
+            for (OutboxEventDto event : events) {
+                writer.write(objectMapper.writeValueAsString(event));
+                writer.newLine();
+            }
+        }
+    }
+}
@@ -0,0 +1,326 @@
+package oleborn.research_jooq.service;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import oleborn.research_jooq.config.IdempotencyProperties;
+import oleborn.research_jooq.excepption.IdempotencyKeyInProgressException;
+import oleborn.research_jooq.excepption.IdempotencyKeyMismatchException;
+import oleborn.research_jooq.jooq.tables.records.IdempotencyKeyRecord;
+import org.jooq.Condition;
+import org.jooq.DSLContext;
+import org.springframework.http.ResponseEntity;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.HexFormat;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+import static oleborn.research_jooq.jooq.tables.IdempotencyKey.IDEMPOTENCY_KEY;
+
+/**
+ * ОБРАБОТКА ЗАГОЛОВКА Idempotency-Key ДЛЯ POST-ЗАПРОСОВ
+ * <p>
+ * Повтор запроса с тем же ключом возвращает сохраненный ответ и не трогает путь записи.
+ * Три уровня:
+ * 1. completed - ответы в памяти (ConcurrentHashMap сам разбит на независимо блокируемые сегменты),
+ *    не более maxCachedResponses: это лишь кэш, при переполнении ответ читается из БД
+ * 2. inFlight - одновременные дубликаты в этом процессе ждут одно выполнение, а не запускают свое
+ * 3. таблица idempotency_key - ответы переживают рестарт и видны всем узлам;
+ *    строка IN_PROGRESS вставляется до выполнения и не дает другому узлу выполнить запрос повторно
+ * Ответ записывается в idempotency_key в одной транзакции с самим запросом: если сохранить ответ
+ * не удалось, откатывается и запрос, и повтор после lockTimeout не выполнит его второй раз.
+ * Ответы хранятся ttl, после чего удаляются из памяти и БД.
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class IdempotencyService {
+
+    public static final String HEADER = "Idempotency-Key";
+    public static final String REPLAYED_HEADER = "Idempotent-Replayed";
+
+    private static final String IN_PROGRESS = "IN_PROGRESS";
+    private static final String COMPLETED = "COMPLETED";
+
+    private final DSLContext ctx;
+    private final ObjectMapper objectMapper;
+    private final IdempotencyProperties properties;
+
+    private final Map<String, StoredResponse> completed = new ConcurrentHashMap<>();
+    private final Map<String, CompletableFuture<StoredResponse>> inFlight = new ConcurrentHashMap<>();
+
+    private record StoredResponse(String requestHash, int status, String body, LocalDateTime expiresAt) {
+
+        boolean isExpired() {
+            return expiresAt.isBefore(LocalDateTime.now());
+        }
+    }
+
+    /**
+     * Ответ запроса и то, что из него сохранено (null - не 2xx, ключ освобожден)
+     */
+    private record Executed<T>(ResponseEntity<T> response, StoredResponse stored) {}
+
+    /**
+     * ВЫПОЛНЕНИЕ ЗАПРОСА НЕ БОЛЕЕ ОДНОГО РАЗА НА КЛЮЧ
+     * Сохраняются только успешные (2xx) ответы: после ошибки клиент может повторить запрос с тем же ключом.
+     *
+     * @param key          значение заголовка Idempotency-Key (null - обычное выполнение)
+     * @param scope        эндпоинт, в пределах которого ключ уникален
+     * @param request      тело запроса - повтор с другим телом отклоняется
+     * @param responseType тип тела ответа для восстановления из JSON
+     * @param action       само выполнение запроса
+     */
+    public <T> ResponseEntity<T> execute(
+            String key,
+            String scope,
+            Object request,
+            Class<T> responseType,
+            Supplier<ResponseEntity<T>> action
+    ) {
+        if (key == null || key.isBlank()) {
+            return action.get();
+        }
+
+        String cacheKey = scope + '\n' + key;
+        String requestHash = hash(request);
+
+        // 1. Ответ уже есть в памяти
+        StoredResponse cached = completed.get(cacheKey);
+        if (cached != null && !cached.isExpired()) {
+            return replay(cached, requestHash, key, responseType);
+        }
+
+        // 2. Такой же запрос прямо сейчас выполняется в этом процессе - ждем его результат
+        CompletableFuture<StoredResponse> mine = new CompletableFuture<>();
+        CompletableFuture<StoredResponse> running = inFlight.putIfAbsent(cacheKey, mine);
+        if (running != null) {
+            StoredResponse result = await(running);
+            return result != null
+                    ? replay(result, requestHash, key, responseType)
+                    : execute(key, scope, request, responseType, action);
+        }
+
+        try {
+            // 3. Ключ уже обработан другим узлом или до рестарта.
+            // Срок захвата - он же метка владельца: по нему сохраняется ответ и освобождается ключ
+            LocalDateTime claimedUntil = LocalDateTime.now().plus(properties.lockTimeout()).truncatedTo(ChronoUnit.MILLIS);
+            StoredResponse stored = claim(scope, key, requestHash, claimedUntil);
+            if (stored != null) {
+                remember(cacheKey, stored);
+                mine.complete(stored);
+                return replay(stored, requestHash, key, responseType);
+            }
+
+            // 4. Первое выполнение: запрос и его ответ коммитятся вместе
+            // (@Transactional методы сервисов присоединяются к этой транзакции)
+            Executed<T> executed;
+            try {
+                executed = ctx.transactionResult(cfg -> {
+                    ResponseEntity<T> response = action.get();
+                    return new Executed<>(response, store(scope, key, requestHash, claimedUntil, response));
+                });
+            } catch (RuntimeException e) {
+                release(scope, key, claimedUntil);
+                throw e;
+            }
+
+            if (executed.stored() != null) {
+                remember(cacheKey, executed.stored());
+            }
+            mine.complete(executed.stored());
+            return executed.response();
+
+        } catch (RuntimeException e) {
+            mine.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(cacheKey, mine);
+        }
+    }
+
+    /**
+     * ОЧИСТКА ПО TTL
+     */
+    @Scheduled(fixedDelayString = "PT5M", initialDelayString = "PT5M")
+    public void evictExpired() {
+        completed.values().removeIf(StoredResponse::isExpired);
+
+        int deleted = ctx.deleteFrom(IDEMPOTENCY_KEY)
+                .where(IDEMPOTENCY_KEY.EXPIRES_AT.lt(LocalDateTime.now()))
+                .execute();
+
+        if (deleted > 0) {
+            log.debug("Evicted {} expired idempotency keys", deleted);
+        }
+    }
+
+    /**
+     * ЗАХВАТ КЛЮЧА В БД
+     * INSERT ... ON CONFLICT DO NOTHING: если вставка прошла - запрос выполняем мы.
+     *
+     * @return сохраненный ответ, если ключ уже обработан; null - ключ захвачен, нужно выполнить запрос
+     */
+    private StoredResponse claim(String scope, String key, String requestHash, LocalDateTime claimedUntil) {
+        LocalDateTime now = LocalDateTime.now();
+
+        int inserted = ctx.insertInto(IDEMPOTENCY_KEY)
+                .set(IDEMPOTENCY_KEY.SCOPE, scope)
+                .set(IDEMPOTENCY_KEY.REQUEST_KEY, key)
+                .set(IDEMPOTENCY_KEY.REQUEST_HASH, requestHash)
+                .set(IDEMPOTENCY_KEY.STATUS, IN_PROGRESS)
+                .set(IDEMPOTENCY_KEY.EXPIRES_AT, claimedUntil)
+                .onConflictDoNothing()
+                .execute();
+
+        if (inserted == 1) return null;
+
+        IdempotencyKeyRecord existing = ctx.selectFrom(IDEMPOTENCY_KEY)
+                .where(keyCondition(scope, key))
+                .fetchOne();
+
+        // Строку успели удалить, либо она просрочена (в т.ч. IN_PROGRESS упавшего узла) - захватываем заново
+        if (existing == null || existing.getExpiresAt().isBefore(now)) {
+            if (existing != null) {
+                ctx.deleteFrom(IDEMPOTENCY_KEY)
+                        .where(keyCondition(scope, key))
+                        .and(IDEMPOTENCY_KEY.EXPIRES_AT.eq(existing.getExpiresAt()))
+                        .execute();
+            }
+            return claim(scope, key, requestHash, claimedUntil);
+        }
+
+        if (!existing.getRequestHash().equals(requestHash)) {
+            throw new IdempotencyKeyMismatchException(
+                    "Idempotency-Key " + key + " was already used with a different request body");
+        }
+
+        if (IN_PROGRESS.equals(existing.getStatus())) {
+            throw new IdempotencyKeyInProgressException(
+                    "Request with Idempotency-Key " + key + " is still in progress");
+        }
+
+        return new StoredResponse(
+                existing.getRequestHash(),
+                existing.getResponseStatus(),
+                existing.getResponseBody(),
+                existing.getExpiresAt()
+        );
+    }
+
+    /**
+     * СОХРАНЕНИЕ ОТВЕТА В ТРАНЗАКЦИИ ЗАПРОСА
+     * Любая ошибка откатывает и сам запрос - клиент получит ошибку и сможет безопасно повторить.
+     * Если за время выполнения захват истек и ключ перехватил другой запрос, откатываемся, чтобы
+     * не выполнить запрос дважды.
+     */
+    private StoredResponse store(
+            String scope,
+            String key,
+            String requestHash,
+            LocalDateTime claimedUntil,
+            ResponseEntity<?> response
+    ) {
+        if (!response.getStatusCode().is2xxSuccessful()) {
+            release(scope, key, claimedUntil);
+            return null;
+        }
+
+        StoredResponse stored;
+        try {
+            stored = new StoredResponse(
+                    requestHash,
+                    response.getStatusCode().value(),
+                    objectMapper.writeValueAsString(response.getBody()),
+                    LocalDateTime.now().plus(properties.ttl())
+            );
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("Failed to serialize response for Idempotency-Key " + key, e);
+        }
+
+        int updated = ctx.update(IDEMPOTENCY_KEY)
+                .set(IDEMPOTENCY_KEY.STATUS, COMPLETED)
+                .set(IDEMPOTENCY_KEY.RESPONSE_STATUS, stored.status())
+                .set(IDEMPOTENCY_KEY.RESPONSE_BODY, stored.body())
+                .set(IDEMPOTENCY_KEY.EXPIRES_AT, stored.expiresAt())
+                .where(ownClaim(scope, key, claimedUntil))
+                .execute();
+
+        if (updated == 0) {
+            throw new IdempotencyKeyInProgressException(
+                    "Request with Idempotency-Key " + key + " outlived its lock and was taken over by a retry");
+        }
+        return stored;
+    }
+
+    private void release(String scope, String key, LocalDateTime claimedUntil) {
+        ctx.deleteFrom(IDEMPOTENCY_KEY)
+                .where(ownClaim(scope, key, claimedUntil))
+                .execute();
+    }
+
+    /**
+     * Кэш ответов ограничен: при переполнении сначала выбрасываются просроченные,
+     * а если места все равно нет - ответ не кэшируется (повтор прочитает его из БД)
+     */
+    private void remember(String cacheKey, StoredResponse stored) {
+        if (completed.size() >= properties.maxCachedResponses()) {
+            completed.values().removeIf(StoredResponse::isExpired);
+            if (completed.size() >= properties.maxCachedResponses()) return;
+        }
+        completed.put(cacheKey, stored);
+    }
+
+    private <T> ResponseEntity<T> replay(StoredResponse stored, String requestHash, String key, Class<T> responseType) {
+        if (!stored.requestHash().equals(requestHash)) {
+            throw new IdempotencyKeyMismatchException(
+                    "Idempotency-Key " + key + " was already used with a different request body");
+        }
+
+        try {
+            return ResponseEntity.status(stored.status())
+                    .header(REPLAYED_HEADER, "true")
+                    .body(objectMapper.readValue(stored.body(), responseType));
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("Stored response for Idempotency-Key " + key + " is corrupted", e);
+        }
+    }
+
+    private static StoredResponse await(CompletableFuture<StoredResponse> running) {
+        try {
+            return running.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException cause) throw cause;
+            throw e;
+        }
+    }
+
+    private static Condition keyCondition(String scope, String key) {
+        return IDEMPOTENCY_KEY.SCOPE.eq(scope).and(IDEMPOTENCY_KEY.REQUEST_KEY.eq(key));
+    }
+
+    private static Condition ownClaim(String scope, String key, LocalDateTime claimedUntil) {
+        return keyCondition(scope, key)
+                .and(IDEMPOTENCY_KEY.STATUS.eq(IN_PROGRESS))
+                .and(IDEMPOTENCY_KEY.EXPIRES_AT.eq(claimedUntil));
+    }
+
+    private String hash(Object request) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            return HexFormat.of().formatHex(digest.digest(objectMapper.writeValueAsBytes(request)));
+        } catch (NoSuchAlgorithmException | JsonProcessingException e) {
+            throw new IllegalStateException("Failed to hash request body", e);
+        }
+    }
+}
@@ -0,0 +1,42 @@
+package oleborn.research_jooq.service;
+
+import oleborn.research_jooq.config.OutboxProperties;
+import oleborn.research_jooq.dto.OutboxEventDto;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * SINK ДЛЯ ЛОКАЛЬНОЙ РАЗРАБОТКИ - хранит последние memoryCapacity событий в памяти
+ */
+@Component
+@ConditionalOnProperty(prefix = "app.outbox", name = "sink", havingValue = "memory", matchIfMissing = true)
+public class InMemoryOutboxSink implements OutboxSink {
+
+    private final Deque<OutboxEventDto> events = new ConcurrentLinkedDeque<>();
+    private final AtomicInteger size = new AtomicInteger();
+    private final int capacity;
+
+    public InMemoryOutboxSink(OutboxProperties properties) {
+        this.capacity = properties.memoryCapacity();
+    }
+
+    @Override
+    public void publish(List<OutboxEventDto> batch) {
+        for (OutboxEventDto event : batch) {
+            events.addLast(event);
+            if (size.incrementAndGet() > capacity && events.pollFirst() != null) {
+                size.decrementAndGet();
+            }
+        }
+    }
+
+    public List<OutboxEventDto> recent() {
+        return new ArrayList<>(events);
+    }
+}
@@ -0,0 +1,71 @@
+package oleborn.research_jooq.service;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import oleborn.research_jooq.config.OutboxProperties;
+import oleborn.research_jooq.dto.OutboxEventDto;
+import org.jooq.DSLContext;
+import org.jooq.Records;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+
+import static oleborn.research_jooq.jooq.tables.OutboxEvent.OUTBOX_EVENT;
+
+/**
+ * ФОНОВАЯ ДОСТАВКА СОБЫТИЙ ИЗ OUTBOX
+ * <p>
+ * Каждая пачка обрабатывается в своей транзакции:
+ * SELECT ... ORDER BY id LIMIT n FOR UPDATE SKIP LOCKED -> sink.publish() -> DELETE ... WHERE id IN (...)
+ * SKIP LOCKED позволяет запускать несколько экземпляров приложения - они разбирают разные строки.
+ * Удаление происходит только после успешной доставки: при сбое пачка будет отправлена снова (at-least-once).
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class OutboxPublisher {
+
+    private final DSLContext ctx;
+    private final OutboxSink sink;
+    private final OutboxProperties properties;
+
+    @Scheduled(fixedDelayString = "${app.outbox.poll-interval:PT1S}")
+    public void publishPending() {
+        try {
+            int published;
+            do {
+                published = ctx.transactionResult(cfg -> publishBatch());
+            } while (published == properties.batchSize());
+        } catch (RuntimeException e) {
+            log.warn("Outbox publishing failed, will retry: {}", e.getMessage());
+        }
+    }
+
+    private int publishBatch() throws Exception {
+        List<OutboxEventDto> batch = ctx.select(
+                        OUTBOX_EVENT.ID,
+                        OUTBOX_EVENT.AGGREGATE_TYPE,
+                        OUTBOX_EVENT.AGGREGATE_ID,
+                        OUTBOX_EVENT.EVENT_TYPE,
+                        OUTBOX_EVENT.PAYLOAD,
+                        OUTBOX_EVENT.CREATED_AT
+                )
+                .from(OUTBOX_EVENT)
+                .orderBy(OUTBOX_EVENT.ID)
+                .limit(properties.batchSize())
+                .forUpdate()
+                .skipLocked()
+                .fetch(Records.mapping(OutboxEventDto::new));
+
+        if (batch.isEmpty()) return 0;
+
+        sink.publish(batch);
+
+        ctx.deleteFrom(OUTBOX_EVENT)
+                .where(OUTBOX_EVENT.ID.in(batch.stream().map(OutboxEventDto::id).toList()))
+                .execute();
+
+        return batch.size();
+    }
+}
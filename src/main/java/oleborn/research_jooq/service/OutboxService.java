@@ -0,0 +1,54 @@
+package oleborn.research_jooq.service;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.RequiredArgsConstructor;
+import org.jooq.DSLContext;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.UUID;
+
+import static oleborn.research_jooq.jooq.tables.OutboxEvent.OUTBOX_EVENT;
+
+/**
+ * ЗАПИСЬ ИНТЕГРАЦИОННЫХ СОБЫТИЙ В OUTBOX
+ * <p>
+ * Событие вставляется в той же транзакции, что и бизнес-данные:
+ * либо коммитятся оба, либо ни одно. Доставкой занимается OutboxPublisher в фоне,
+ * поэтому поток запроса платит только за один INSERT.
+ */
+@Service
+@RequiredArgsConstructor
+public class OutboxService {
+
+    public static final String AGGREGATE_USER = "USER";
+
+    public static final String USER_CREATED = "USER_CREATED";
+    public static final String USER_UPDATED = "USER_UPDATED";
+    public static final String USER_DELETED = "USER_DELETED";
+    public static final String USER_WITH_RELATIONS_CREATED = "USER_WITH_RELATIONS_CREATED";
+
+    private final DSLContext ctx;
+    private final ObjectMapper objectMapper;
+
+    // MANDATORY - событие без окружающей бизнес-транзакции теряет смысл outbox
+    @Transactional(propagation = Propagation.MANDATORY)
+    public void append(String aggregateType, UUID aggregateId, String eventType, Object payload) {
+        ctx.insertInto(OUTBOX_EVENT)
+                .set(OUTBOX_EVENT.AGGREGATE_TYPE, aggregateType)
+                .set(OUTBOX_EVENT.AGGREGATE_ID, aggregateId)
+                .set(OUTBOX_EVENT.EVENT_TYPE, eventType)
+                .set(OUTBOX_EVENT.PAYLOAD, toJson(payload))
+                .execute();
+    }
+
+    private String toJson(Object payload) {
+        try {
+            return objectMapper.writeValueAsString(payload);
+        } catch (JsonProcessingException e) {
+            throw new IllegalArgumentException("Failed to serialize outbox payload", e);
+        }
+    }
+}
@@ -0,0 +1,16 @@
+package oleborn.research_jooq.service;
+
+import oleborn.research_jooq.dto.OutboxEventDto;
+
+import java.util.List;
+
+/**
+ * ПОЛУЧАТЕЛЬ СОБЫТИЙ ИЗ OUTBOX (брокер, файл, память)
+ * <p>
+ * Если publish() бросает исключение - пачка не удаляется из outbox и будет доставлена повторно,
+ * поэтому реализация должна переносить повторы (at-least-once).
+ */
+public interface OutboxSink {
+
+    void publish(List<OutboxEventDto> events) throws Exception;
+}
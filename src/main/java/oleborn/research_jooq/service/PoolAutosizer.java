@@ -0,0 +1,159 @@
+package oleborn.research_jooq.service;
+
+import com.zaxxer.hikari.HikariConfigMXBean;
+import com.zaxxer.hikari.HikariDataSource;
+import com.zaxxer.hikari.HikariPoolMXBean;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import oleborn.research_jooq.config.ConnectionProfiler;
+import oleborn.research_jooq.config.ConnectionProfilingProperties;
+import oleborn.research_jooq.config.PoolAutosizeProperties;
+import org.jooq.DSLContext;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.dao.DataAccessException;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.sql.DataSource;
+import java.sql.SQLException;
+
+/**
+ * АДАПТИВНЫЙ РАЗМЕР ОСНОВНОГО ПУЛА СОЕДИНЕНИЙ
+ * <p>
+ * Раз в interval:
+ * - потоки ждали соединение дольше acquireWaitThreshold, ждут прямо сейчас или не дождались
+ *   (таймаут пула) - пул растет на step, но только если PostgreSQL не перегружен: при maxActiveBackends
+ *   активных запросах лишние соединения только увеличат конкуренцию за CPU и блокировки.
+ *   Если maxActiveBackends не задан, порог - половина max_connections сервера
+ * - ожидания нет и занято не больше половины пула shrinkAfterIntervals периодов подряд - пул уменьшается на step
+ * Размер меняется через HikariConfigMXBean в пределах [minSize, maxSize];
+ * лишние соединения Hikari закрывает сам по мере их возврата.
+ * Время ожидания берется из ConnectionProfiler, поэтому требует app.connection-profiling.enabled.
+ */
+@Slf4j
+@Component
+@ConditionalOnProperty(prefix = "app.pool-autosize", name = "enabled", havingValue = "true")
+public class PoolAutosizer {
+
+    private final DSLContext ctx;
+    private final ConnectionProfiler profiler;
+    private final PoolAutosizeProperties properties;
+    private final HikariConfigMXBean config;
+    private final HikariDataSource pool;
+    private final int maxActiveBackends;
+
+    private int quietIntervals;
+
+    public PoolAutosizer(
+            DSLContext ctx,
+            DataSource dataSource,
+            ConnectionProfiler profiler,
+            ConnectionProfilingProperties profilingProperties,
+            PoolAutosizeProperties properties,
+            MeterRegistry registry
+    ) throws SQLException {
+        // Ожидание соединений autosizer узнает только от профилирования - без него пул никогда не вырос бы
+        if (!profilingProperties.enabled()) {
+            throw new IllegalStateException(
+                    "app.pool-autosize.enabled requires app.connection-profiling.enabled=true");
+        }
+        this.ctx = ctx;
+        this.profiler = profiler;
+        this.properties = properties;
+        this.pool = dataSource.unwrap(HikariDataSource.class);
+        this.config = pool.getHikariConfigMXBean();
+        this.maxActiveBackends = properties.maxActiveBackends() > 0
+                ? properties.maxActiveBackends()
+                : defaultMaxActiveBackends(ctx);
+        log.info("Pool autosize enabled: size [{}, {}], growth stops at {} active database queries",
+                properties.minSize(), properties.maxSize(), maxActiveBackends);
+
+        Gauge.builder("db.pool.autosize.max", config, HikariConfigMXBean::getMaximumPoolSize)
+                .description("Текущий maximum-pool-size, выбранный PoolAutosizer")
+                .register(registry);
+    }
+
+    @Scheduled(fixedDelayString = "${app.pool-autosize.interval:PT15S}", initialDelayString = "${app.pool-autosize.interval:PT15S}")
+    public void resize() {
+        HikariPoolMXBean stats = pool.getHikariPoolMXBean();
+        if (stats == null) return;
+
+        ConnectionProfiler.AcquireWindow window = profiler.drainWindow();
+        int size = config.getMaximumPoolSize();
+        int waiting = stats.getThreadsAwaitingConnection();
+        boolean starved = waiting > 0
+                || window.failures() > 0
+                || window.meanWait().compareTo(properties.acquireWaitThreshold()) > 0;
+
+        if (starved) {
+            quietIntervals = 0;
+            if (size >= properties.maxSize()) return;
+
+            Integer backends = activeBackends();
+            if (backends != null && backends >= maxActiveBackends) {
+                log.info("Pool starved (mean wait {} ms, {} waiting) but database has {} active queries, keeping size {}",
+                        window.meanWait().toMillis(), waiting, backends, size);
+                return;
+            }
+            apply(Math.min(properties.maxSize(), size + properties.step()), window, waiting);
+            return;
+        }
+
+        if (stats.getActiveConnections() * 2 <= size) {
+            quietIntervals++;
+        } else {
+            quietIntervals = 0;
+        }
+
+        if (quietIntervals >= properties.shrinkAfterIntervals() && size > properties.minSize()) {
+            quietIntervals = 0;
+            apply(Math.max(properties.minSize(), size - properties.step()), window, waiting);
+        }
+    }
+
+    private void apply(int newSize, ConnectionProfiler.AcquireWindow window, int waiting) {
+        int oldSize = config.getMaximumPoolSize();
+        if (config.getMinimumIdle() > newSize) {
+            config.setMinimumIdle(newSize);
+        }
+        config.setMaximumPoolSize(newSize);
+        log.info("Resized connection pool {} -> {} (acquisitions {}, failed {}, mean wait {} ms, {} waiting)",
+                oldSize, newSize, window.acquisitions(), window.failures(), window.meanWait().toMillis(), waiting);
+    }
+
+    /**
+     * Без явного порога - половина max_connections: выше нее БД уже занята другими клиентами
+     * и рост пула только отнимет у них соединения. Ошибка чтения настройки останавливает старт,
+     * иначе автоподбор молча работал бы без учета нагрузки на БД
+     */
+    private static int defaultMaxActiveBackends(DSLContext ctx) {
+        Integer maxConnections = ctx.resultQuery("SELECT current_setting('max_connections')::int")
+                .fetchOne(0, Integer.class);
+        if (maxConnections == null || maxConnections <= 0) {
+            throw new IllegalStateException("Cannot derive app.pool-autosize.max-active-backends: max_connections = "
+                    + maxConnections);
+        }
+        return Math.max(1, maxConnections / 2);
+    }
+
+    /**
+     * Нагрузка на стороне БД: запросы, выполняющиеся прямо сейчас (от всех клиентов, не только этого пула)
+     *
+     * @return null - проверка не удалась
+     */
+    private Integer activeBackends() {
+        try {
+            return ctx.resultQuery("""
+                            SELECT count(*)
+                            FROM pg_stat_activity
+                            WHERE state = 'active'
+                              AND backend_type = 'client backend'
+                              AND pid <> pg_backend_pid()""")
+                    .fetchOne(0, Integer.class);
+        } catch (DataAccessException e) {
+            log.warn("Failed to read database load, resizing by wait time only: {}", e.getMessage());
+            return null;
+        }
+    }
+}
@@ -0,0 +1,219 @@
+package oleborn.research_jooq.service;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import oleborn.research_jooq.config.RelationsSnapshotProperties;
+import oleborn.research_jooq.dto.UserWithRelationsDto;
+import org.jooq.Condition;
+import org.jooq.DSLContext;
+import org.jooq.Field;
+import org.jooq.JSONB;
+import org.jooq.Record2;
+import org.springframework.dao.DataAccessException;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static oleborn.research_jooq.jooq.tables.Address.ADDRESS;
+import static oleborn.research_jooq.jooq.tables.Car.CAR;
+import static oleborn.research_jooq.jooq.tables.UserRelationsSnapshot.USER_RELATIONS_SNAPSHOT;
+import static oleborn.research_jooq.jooq.tables.Users.USERS;
+import static oleborn.research_jooq.jooq.tables.UsersCar.USERS_CAR;
+import static org.jooq.impl.DSL.*;
+
+/**
+ * ДЕНОРМАЛИЗОВАННЫЙ СНИМОК СВЯЗЕЙ ПОЛЬЗОВАТЕЛЯ (таблица user_relations_snapshot)
+ * <p>
+ * Пользователь с адресом и машинами хранится готовым JSONB в формате UserWithRelationsDto,
+ * с username в качестве первичного ключа: чтение - один поиск по PK без JOIN и multiset.
+ * <p>
+ * Снимок пересчитывается одним INSERT ... SELECT ... ON CONFLICT прямо в БД
+ * в той же транзакции, что и изменение графа, - каждый путь записи вызывает refresh().
+ * В READ COMMITTED этот INSERT ... SELECT ничего не блокирует в users / address / users_car:
+ * два писателя, закоммитившиеся в "неудобном" порядке, оставили бы снимок старшего из них.
+ * Поэтому путь записи существующего пользователя начинается с lockUsers() - писатели одного
+ * пользователя выполняются по очереди, и снимок последнего из них построен по последнему графу.
+ * Если снимка нет или он другого формата, чтение идет обычным запросом, а пользователь
+ * ставится в очередь на восстановление снимка (requestRepair): GET сам ничего не пишет,
+ * снимки досчитываются фоновой задачей пачками.
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class RelationsSnapshotService {
+
+    /**
+     * Версия формата JSON - увеличивается при изменении UserWithRelationsDto,
+     * старые снимки при этом перестают читаться и пересчитываются при обращении
+     */
+    static final int FORMAT_VERSION = 1;
+
+    private static final int REPAIR_BATCH = 500;
+    private static final int MAX_PENDING_REPAIRS = 10_000;
+
+    private final ObjectMapper objectMapper;
+    private final RelationsSnapshotProperties properties;
+    private final ShardRouter shardRouter;
+
+    // username -> шард; переполненная очередь отбрасывает новые запросы, их повторит следующее чтение
+    private final Map<String, String> pendingRepairs = new ConcurrentHashMap<>();
+
+    /**
+     * ЧТЕНИЕ СНИМКА ПО username
+     *
+     * @return пусто - снимка нет или он не подходит, нужен обычный запрос
+     */
+    public Optional<UserWithRelationsDto> read(DSLContext db, String username) {
+        if (!properties.enabled()) return Optional.empty();
+
+        Record2<JSONB, Integer> stored = db.select(USER_RELATIONS_SNAPSHOT.SNAPSHOT, USER_RELATIONS_SNAPSHOT.FORMAT_VERSION)
+                .from(USER_RELATIONS_SNAPSHOT)
+                .where(USER_RELATIONS_SNAPSHOT.USERNAME.eq(username))
+                .fetchOne();
+
+        if (stored == null || stored.value2() != FORMAT_VERSION) return Optional.empty();
+
+        try {
+            UserWithRelationsDto snapshot = objectMapper.readValue(stored.value1().data(), UserWithRelationsDto.class);
+            if (snapshot.user() == null || !username.equals(snapshot.user().username())) {
+                return Optional.empty();
+            }
+            return Optional.of(snapshot);
+        } catch (JsonProcessingException e) {
+            log.warn("Unreadable relations snapshot for {}: {}", username, e.getMessage());
+            return Optional.empty();
+        }
+    }
+
+    /**
+     * ПОСТАВИТЬ СНИМОК В ОЧЕРЕДЬ НА ВОССТАНОВЛЕНИЕ
+     * Вызывается чтением, не нашедшим подходящего снимка; при выключенном снимке ничего не делает
+     */
+    public void requestRepair(String shard, String username) {
+        if (!properties.enabled() || pendingRepairs.size() >= MAX_PENDING_REPAIRS) return;
+        pendingRepairs.putIfAbsent(username, shard);
+    }
+
+    /**
+     * ФОНОВОЕ ВОССТАНОВЛЕНИЕ СНИМКОВ
+     * Своя транзакция на шард; пользователи блокируются, как и путями записи, а снимок текущего
+     * формата не перезаписывается - его уже записал путь записи
+     */
+    @Scheduled(fixedDelayString = "PT5S", initialDelayString = "PT5S")
+    public void repairSnapshots() {
+        if (pendingRepairs.isEmpty()) return;
+
+        Map<String, List<String>> byShard = new HashMap<>();
+        Iterator<Map.Entry<String, String>> pending = pendingRepairs.entrySet().iterator();
+        for (int taken = 0; taken < REPAIR_BATCH && pending.hasNext(); taken++) {
+            Map.Entry<String, String> entry = pending.next();
+            pending.remove();
+            byShard.computeIfAbsent(entry.getValue(), shard -> new ArrayList<>()).add(entry.getKey());
+        }
+
+        byShard.forEach((shard, usernames) -> {
+            try {
+                shardRouter.shard(shard).transaction(cfg -> {
+                    lockUsers(cfg.dsl(), USERS.USERNAME.in(usernames));
+                    upsert(cfg.dsl(), USERS.USERNAME.in(usernames), false);
+                });
+                log.debug("Repaired {} relations snapshots on {}", usernames.size(), shard);
+            } catch (DataAccessException e) {
+                log.warn("Failed to repair {} relations snapshots on {}: {}", usernames.size(), shard, e.getMessage());
+            }
+        });
+    }
+
+    /**
+     * БЛОКИРОВКА СТРОК users ПЕРЕД ИЗМЕНЕНИЕМ ГРАФА
+     * Вызывается первым оператором транзакции записи, до изменений и refresh(): следующий писатель
+     * того же пользователя ждет COMMIT, а его операторы видят уже закоммиченный граф.
+     * Порядок по id одинаков у всех писателей - без взаимных блокировок.
+     * Только что вставленного пользователя другие транзакции не видят до COMMIT - его блокировать не нужно
+     */
+    public void lockUsers(DSLContext db, Condition users) {
+        db.select(USERS.ID)
+                .from(USERS)
+                .where(users)
+                .orderBy(USERS.ID)
+                .forUpdate()
+                .fetch();
+    }
+
+    /**
+     * ПЕРЕСЧЕТ СНИМКОВ ПОЛЬЗОВАТЕЛЕЙ, ПОДХОДЯЩИХ ПОД УСЛОВИЕ
+     * Один запрос на любое количество пользователей; вызывается внутри транзакции записи,
+     * для существующих пользователей - после lockUsers()
+     */
+    public void refresh(DSLContext db, Condition users) {
+        upsert(db, users, true);
+    }
+
+    /**
+     * @param overwriteCurrent false - существующий снимок текущего формата не трогать
+     */
+    private void upsert(DSLContext db, Condition users, boolean overwriteCurrent) {
+        db.insertInto(USER_RELATIONS_SNAPSHOT,
+                        USER_RELATIONS_SNAPSHOT.USERNAME,
+                        USER_RELATIONS_SNAPSHOT.USER_ID,
+                        USER_RELATIONS_SNAPSHOT.SNAPSHOT,
+                        USER_RELATIONS_SNAPSHOT.FORMAT_VERSION,
+                        USER_RELATIONS_SNAPSHOT.UPDATED_AT)
+                .select(select(USERS.USERNAME, USERS.ID, snapshotJson(), inline(FORMAT_VERSION), currentLocalDateTime())
+                        .from(USERS)
+                        .where(users))
+                .onConflict(USER_RELATIONS_SNAPSHOT.USER_ID)
+                .doUpdate()
+                .set(USER_RELATIONS_SNAPSHOT.USERNAME, excluded(USER_RELATIONS_SNAPSHOT.USERNAME))
+                .set(USER_RELATIONS_SNAPSHOT.SNAPSHOT, excluded(USER_RELATIONS_SNAPSHOT.SNAPSHOT))
+                .set(USER_RELATIONS_SNAPSHOT.FORMAT_VERSION, excluded(USER_RELATIONS_SNAPSHOT.FORMAT_VERSION))
+                .set(USER_RELATIONS_SNAPSHOT.UPDATED_AT, excluded(USER_RELATIONS_SNAPSHOT.UPDATED_AT))
+                .where(overwriteCurrent
+                        ? noCondition()
+                        : USER_RELATIONS_SNAPSHOT.FORMAT_VERSION.ne(excluded(USER_RELATIONS_SNAPSHOT.FORMAT_VERSION)))
+                .execute();
+    }
+
+    /**
+     * JSON В ФОРМАТЕ UserWithRelationsDto, СОБРАННЫЙ В БД
+     * Ключи совпадают с именами компонентов записей - Jackson читает снимок без настроек
+     */
+    private static Field<JSONB> snapshotJson() {
+        Field<JSONB> address = field(
+                select(jsonbObject(
+                        key("city").value(ADDRESS.CITY),
+                        key("build").value(ADDRESS.BUILD),
+                        key("apartment").value(ADDRESS.APARTMENT)))
+                        .from(ADDRESS)
+                        .where(ADDRESS.USER_ID.eq(USERS.ID))
+                        .limit(1)
+        );
+
+        Field<JSONB> cars = coalesce(
+                field(select(jsonbArrayAgg(jsonbObject(
+                        key("model").value(CAR.MODEL),
+                        key("carYear").value(CAR.RELEASE_YEAR))))
+                        .from(CAR)
+                        .join(USERS_CAR).on(CAR.ID.eq(USERS_CAR.CAR_ID))
+                        .where(USERS_CAR.USER_ID.eq(USERS.ID))),
+                jsonbArray()
+        );
+
+        return jsonbObject(
+                key("user").value(jsonbObject(
+                        key("username").value(USERS.USERNAME),
+                        key("age").value(USERS.AGE))),
+                key("address").value(address),
+                key("cars").value(cars)
+        );
+    }
+}
@@ -0,0 +1,328 @@
+package oleborn.research_jooq.service;
+
+import com.zaxxer.hikari.HikariDataSource;
+import liquibase.exception.LiquibaseException;
+import lombok.extern.slf4j.Slf4j;
+import oleborn.research_jooq.config.ChecksumSkippingLiquibase;
+import oleborn.research_jooq.config.ShardingProperties;
+import oleborn.research_jooq.config.StartupProperties;
+import org.jooq.DSLContext;
+import org.jooq.impl.DSL;
+import org.jooq.impl.DefaultConfiguration;
+import org.jooq.impl.DefaultExecuteListenerProvider;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.jooq.ExceptionTranslatorExecuteListener;
+import org.springframework.boot.jdbc.DataSourceBuilder;
+import org.springframework.core.io.ResourceLoader;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.PriorityQueue;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.BiFunction;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * МАРШРУТИЗАЦИЯ ЗАПРОСОВ ПО ШАРДАМ
+ * <p>
+ * Шард пользователя выбирается консистентным хешированием его UUID: у каждого шарда
+ * virtualNodes точек на кольце, пользователь принадлежит первой точке по часовой стрелке.
+ * При добавлении шарда переезжает лишь ~1/N пользователей, а не почти все, как при hash % N.
+ * address и users_car пишутся в шард своего пользователя, поэтому multiset-запросы
+ * со связями выполняются внутри одной БД.
+ * <p>
+ * Без app.sharding.enabled шард один - основная БД со Spring-транзакциями,
+ * и поведение сервисов не меняется. С шардированием у каждого шарда свой пул Hikari
+ * и своя схема (changelog применяется при старте, кроме ленты изменений - она ведется только
+ * в основной БД), транзакции - через ctx.transaction().
+ * Ошибки шардов переводятся в DataAccessException Spring, как и у основного DSLContext.
+ */
+@Slf4j
+@Component
+public class ShardRouter implements DisposableBean {
+
+    public static final String PRIMARY = "primary";
+
+    private static final String SHARD_CHANGELOG_PARAMETER = "shard";
+
+    private final boolean sharded;
+    private final Map<String, DSLContext> shards = new LinkedHashMap<>();
+    private final HashRing ring;
+    private final List<HikariDataSource> dataSources = new ArrayList<>();
+    private final ExecutorService scatterExecutor;
+
+    public ShardRouter(
+            DSLContext ctx,
+            ShardingProperties properties,
+            StartupProperties startupProperties,
+            ResourceLoader resourceLoader,
+            @Value("${spring.liquibase.change-log:classpath:/db/changelog-master.yaml}") String changeLog
+    ) {
+        this.sharded = properties.enabled() && !properties.shards().isEmpty();
+
+        if (!sharded) {
+            shards.put(PRIMARY, ctx);
+            ring = new HashRing(List.of(PRIMARY), 1);
+            scatterExecutor = null;
+            return;
+        }
+
+        for (ShardingProperties.Shard shard : properties.shards()) {
+            HikariDataSource dataSource = DataSourceBuilder.create()
+                    .type(HikariDataSource.class)
+                    .url(shard.url())
+                    .username(shard.username())
+                    .password(shard.password())
+                    .build();
+            dataSource.setPoolName("shard-" + shard.name());
+            dataSource.setMaximumPoolSize(properties.poolSize());
+            dataSource.addDataSourceProperty("reWriteBatchedInserts", "true");
+            dataSources.add(dataSource);
+
+            migrate(shard.name(), dataSource, changeLog, resourceLoader, startupProperties);
+
+            // Те же настройки рендеринга, что и у основного DSLContext, и тот же перевод SQLException
+            // в DataAccessException Spring (на него рассчитаны обработчики, например BulkJobService.skipFailed)
+            shards.put(shard.name(), DSL.using(new DefaultConfiguration()
+                    .set(dataSource)
+                    .set(ctx.dialect())
+                    .set(ctx.settings())
+                    .set(new DefaultExecuteListenerProvider(ExceptionTranslatorExecuteListener.DEFAULT))));
+        }
+        ring = new HashRing(shards.keySet(), properties.virtualNodes());
+
+        scatterExecutor = Executors.newFixedThreadPool(
+                properties.scatterThreads(), new CustomizableThreadFactory("shard-scatter-"));
+
+        log.info("Sharding enabled: {} shards, {} virtual nodes each", shards.size(), properties.virtualNodes());
+    }
+
+    public boolean isSharded() {
+        return sharded;
+    }
+
+    /**
+     * @return имя шарда, которому принадлежит пользователь
+     */
+    public String shardOf(UUID userId) {
+        if (!sharded) return PRIMARY;
+        return ring.shardOf(userId);
+    }
+
+    public DSLContext forUser(UUID userId) {
+        return shard(shardOf(userId));
+    }
+
+    public DSLContext shard(String name) {
+        DSLContext shard = shards.get(name);
+        if (shard == null) {
+            throw new IllegalStateException("Unknown shard " + name);
+        }
+        return shard;
+    }
+
+    /**
+     * @return имена шардов в порядке конфигурации
+     */
+    public Collection<String> names() {
+        return Collections.unmodifiableCollection(shards.keySet());
+    }
+
+    public Collection<DSLContext> all() {
+        return Collections.unmodifiableCollection(shards.values());
+    }
+
+    /**
+     * ЗАПИСЬ В ШАРД ИЗ ТРАНЗАКЦИИ ОСНОВНОЙ БД
+     * <p>
+     * Без шардирования shard - основной DSLContext, и work просто выполняется в текущей Spring-транзакции.
+     * С шардированием work выполняется отдельной транзакцией шарда, которая коммитится сразу,
+     * а записи основной БД (индекс username, outbox) - при коммите вызывающего метода. Если основная
+     * транзакция после этого откатится (ошибка следующего шага или самого COMMIT), выполняется undo
+     * отдельной транзакцией шарда. Ошибка undo только логируется: строки шарда остаются
+     * без записи в индексе и требуют ручной сверки.
+     *
+     * @param action описание записи для лога
+     * @param undo   обратное действие; null - запись необратима, откат основной БД только логируется
+     */
+    public <T> T writeInShard(String action, DSLContext shard, Function<DSLContext, T> work, Consumer<DSLContext> undo) {
+        if (!sharded) {
+            return work.apply(shard);
+        }
+
+        T result = shard.transactionResult(cfg -> work.apply(cfg.dsl()));
+
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCompletion(int status) {
+                    if (status == STATUS_COMMITTED) return;
+
+                    if (undo == null) {
+                        log.error("Primary transaction rolled back after irreversible shard write: {}", action);
+                        return;
+                    }
+                    try {
+                        shard.transaction(cfg -> undo.accept(cfg.dsl()));
+                        log.warn("Primary transaction rolled back, shard write undone: {}", action);
+                    } catch (RuntimeException e) {
+                        log.error("Primary transaction rolled back and shard write could not be undone: {}", action, e);
+                    }
+                }
+            });
+        }
+        return result;
+    }
+
+    /**
+     * SCATTER: ОДИН И ТОТ ЖЕ ЗАПРОС ПАРАЛЛЕЛЬНО НА ВСЕХ ШАРДАХ
+     *
+     * @return результаты в порядке шардов
+     */
+    public <T> List<T> scatter(Function<DSLContext, T> query) {
+        if (!sharded) {
+            return Collections.singletonList(query.apply(shards.get(PRIMARY)));
+        }
+
+        List<CompletableFuture<T>> futures = shards.values().stream()
+                .map(shard -> CompletableFuture.supplyAsync(() -> query.apply(shard), scatterExecutor))
+                .toList();
+
+        return futures.stream().map(CompletableFuture::join).toList();
+    }
+
+    /**
+     * СТРАНИЦА, УПОРЯДОЧЕННАЯ ПО created_at DESC, ПОВЕРХ ВСЕХ ШАРДОВ
+     * <p>
+     * Строки страницы page могут лежать на любом шарде, поэтому каждый шард отдает
+     * первые (page + 1) * size строк в том же порядке, а результаты сливаются k-way merge
+     * и от слитого списка берется нужное окно. Глубокие страницы дорожают пропорционально
+     * номеру страницы и числу шардов - для них нужна keyset-пагинация по created_at.
+     *
+     * @param query запрос к одному шарду: (шард, limit) -> строки, отсортированные по created_at DESC
+     */
+    public <T> List<T> scatterPage(int page, int size, BiFunction<DSLContext, Integer, List<Ranked<T>>> query) {
+        int offset = page * size;
+        List<List<Ranked<T>>> perShard = scatter(shard -> query.apply(shard, offset + size));
+
+        return mergePage(perShard, offset, size);
+    }
+
+    /**
+     * k-way merge списков шардов, каждый отсортирован по created_at DESC (null - в конце),
+     * и окно [offset, offset + size) от слитого списка
+     */
+    static <T> List<T> mergePage(List<List<Ranked<T>>> perShard, int offset, int size) {
+        Comparator<Ranked<T>> order = Comparator.comparing(
+                Ranked<T>::createdAt, Comparator.nullsLast(Comparator.<LocalDateTime>reverseOrder()));
+
+        // Курсор = {номер шарда, позиция в его списке}
+        PriorityQueue<int[]> heads = new PriorityQueue<>(
+                (a, b) -> order.compare(perShard.get(a[0]).get(a[1]), perShard.get(b[0]).get(b[1])));
+        for (int i = 0; i < perShard.size(); i++) {
+            if (!perShard.get(i).isEmpty()) heads.add(new int[]{i, 0});
+        }
+
+        List<T> pageRows = new ArrayList<>(size);
+        for (int position = 0; !heads.isEmpty() && position < offset + size; position++) {
+            int[] head = heads.poll();
+            List<Ranked<T>> rows = perShard.get(head[0]);
+            if (position >= offset) {
+                pageRows.add(rows.get(head[1]).value());
+            }
+            if (head[1] + 1 < rows.size()) {
+                heads.add(new int[]{head[0], head[1] + 1});
+            }
+        }
+        return pageRows;
+    }
+
+    /**
+     * Строка шарда вместе с ключом сортировки для слияния
+     */
+    public record Ranked<T>(LocalDateTime createdAt, T value) {}
+
+    @Override
+    public void destroy() {
+        if (scatterExecutor != null) {
+            scatterExecutor.shutdownNow();
+        }
+        dataSources.forEach(HikariDataSource::close);
+    }
+
+    private static void migrate(
+            String name,
+            HikariDataSource dataSource,
+            String changeLog,
+            ResourceLoader resourceLoader,
+            StartupProperties startupProperties
+    ) {
+        ChecksumSkippingLiquibase liquibase = new ChecksumSkippingLiquibase(startupProperties.skipLiquibaseWhenCurrent());
+        liquibase.setDataSource(dataSource);
+        liquibase.setChangeLog(changeLog);
+        liquibase.setResourceLoader(resourceLoader);
+        // По этому параметру changelog пропускает на шардах то, что нужно только основной БД (лента изменений)
+        liquibase.setChangeLogParameters(Map.of(SHARD_CHANGELOG_PARAMETER, name));
+        try {
+            liquibase.afterPropertiesSet();
+        } catch (LiquibaseException e) {
+            throw new IllegalStateException("Failed to migrate shard " + name, e);
+        }
+    }
+
+    /**
+     * КОЛЬЦО КОНСИСТЕНТНОГО ХЕШИРОВАНИЯ
+     * virtualNodes точек на шард, ключ принадлежит первой точке по часовой стрелке
+     */
+    static final class HashRing {
+
+        private final NavigableMap<Long, String> points = new TreeMap<>();
+
+        HashRing(Collection<String> shards, int virtualNodes) {
+            for (String shard : shards) {
+                for (int i = 0; i < virtualNodes; i++) {
+                    points.put(position(shard + "#" + i), shard);
+                }
+            }
+        }
+
+        String shardOf(UUID userId) {
+            Map.Entry<Long, String> node = points.ceilingEntry(position(userId.toString()));
+            return node != null ? node.getValue() : points.firstEntry().getValue();
+        }
+    }
+
+    // Первые 8 байт MD5: равномерно и стабильно между запусками (в отличие от String.hashCode)
+    private static long position(String key) {
+        try {
+            byte[] digest = MessageDigest.getInstance("MD5").digest(key.getBytes(StandardCharsets.UTF_8));
+            long value = 0;
+            for (int i = 0; i < 8; i++) {
+                value = (value << 8) | (digest[i] & 0xff);
+            }
+            return value;
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,79 @@
+package oleborn.research_jooq.service;
+
+import lombok.RequiredArgsConstructor;
+import oleborn.research_jooq.config.PaginationProperties;
+import org.jooq.DSLContext;
+import org.jooq.Field;
+import org.jooq.Record2;
+import org.jooq.Table;
+import org.springframework.stereotype.Service;
+
+import java.util.List;
+
+import static org.jooq.impl.DSL.field;
+import static org.jooq.impl.DSL.name;
+
+/**
+ * ДЕШЕВОЕ ОБЩЕЕ КОЛИЧЕСТВО СТРОК ДЛЯ ПАГИНАЦИИ
+ * <p>
+ * Отдельный SELECT COUNT(*) на каждый запрос страницы - это полный проход по таблице.
+ * Вместо него:
+ * - оценка из статистики: pg_stat_user_tables.n_live_tup (счетчик живых строк, который PostgreSQL
+ *   ведет сам) и pg_class.reltuples (результат последнего ANALYZE) - чтение одной строки каталога.
+ *   Берется большее из двух: после сброса статистики, восстановления после сбоя и на свежей реплике
+ *   n_live_tup равен 0 (а не NULL), и большая таблица выглядела бы пустой - а значит, считалась бы точно
+ * - если по оценке таблица маленькая, точное значение считается окном count(*) over()
+ *   прямо в запросе страницы - без второго запроса
+ */
+@Service
+@RequiredArgsConstructor
+public class TotalCountService {
+
+    private static final Field<Long> LIVE_TUPLES = field(name("n_live_tup"), Long.class);
+    private static final Field<Long> RELTUPLES = field(name("reltuples"), Long.class);
+
+    private final PaginationProperties properties;
+    private final ShardRouter shardRouter;
+
+    /**
+     * @return оценка количества строк (сумма по шардам) или null, если статистики еще нет
+     */
+    public Long estimate(Table<?> table) {
+        List<Long> estimates = shardRouter.scatter(shard -> estimate(shard, table));
+        if (estimates.contains(null)) return null;
+
+        return estimates.stream().mapToLong(Long::longValue).sum();
+    }
+
+    /**
+     * Точный подсчет окном имеет смысл только для небольшой таблицы на одной БД:
+     * count(*) over() все равно перебирает все строки, подходящие под запрос.
+     * Статистики нет только у только что созданной таблицы - она считается маленькой.
+     */
+    public boolean useExact(Long estimate) {
+        return !shardRouter.isSharded()
+                && (estimate == null || estimate <= properties.exactCountThreshold());
+    }
+
+    private static Long estimate(DSLContext db, Table<?> table) {
+        Record2<Long, Long> stats = db.resultQuery("""
+                        SELECT s.n_live_tup, NULLIF(c.reltuples, -1)::bigint AS reltuples
+                        FROM pg_class c
+                                 LEFT JOIN pg_stat_user_tables s ON s.relid = c.oid
+                        WHERE c.oid = to_regclass(?)""", table.getName())
+                .coerce(LIVE_TUPLES, RELTUPLES)
+                .fetchOne();
+        return stats == null ? null : combine(stats.value1(), stats.value2());
+    }
+
+    /**
+     * Большее из двух значений статистики, null - нет ни одного.
+     * Завышенная оценка (reltuples до ANALYZE после массового удаления) лишь выбирает оценку
+     * вместо точного подсчета, заниженная - полный проход на каждый запрос страницы
+     */
+    static Long combine(Long liveTuples, Long reltuples) {
+        if (liveTuples == null) return reltuples;
+        if (reltuples == null) return liveTuples;
+        return Math.max(liveTuples, reltuples);
+    }
+}
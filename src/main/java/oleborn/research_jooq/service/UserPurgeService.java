@@ -0,0 +1,223 @@
+package oleborn.research_jooq.service;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import oleborn.research_jooq.config.PurgeProperties;
+import oleborn.research_jooq.dto.PurgeUsersRequest;
+import org.jooq.DSLContext;
+import org.springframework.dao.DataAccessException;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.Map;
+import java.util.UUID;
+
+import static oleborn.research_jooq.jooq.tables.UsernameIndex.USERNAME_INDEX;
+import static oleborn.research_jooq.jooq.tables.Users.USERS;
+import static org.jooq.impl.DSL.row;
+
+/**
+ * ОЧИСТКА СТАРЫХ ПОЛЬЗОВАТЕЛЕЙ ЧАНКАМИ С ОГРАНИЧЕНИЕМ СКОРОСТИ
+ * <p>
+ * Один чанк - один запрос:
+ * - жертвы выбираются через SELECT ... LIMIT n FOR UPDATE SKIP LOCKED: строки, занятые
+ *   другими транзакциями, пропускаются, а не ждутся - очистка не выстраивает очереди блокировок
+ * - address и users_car удаляются явно в том же запросе (а не каскадом), при archive = true
+ *   удаленные строки тем же запросом копируются в *_archive
+ * - при deleteOrphanCars удаляются машины, у которых не осталось других владельцев
+ * - записи username_index удаленных пользователей удаляются тем же запросом
+ * <p>
+ * При шардировании чанк выполняется на каждом шарде отдельной транзакцией шарда
+ * (ShardRouter.writeInShard), а записи глобального индекса username удаляются в основной БД
+ * транзакцией чанка. Удаление на шарде необратимо: если транзакция чанка затем откатится,
+ * username удаленных пользователей останутся занятыми до ручной сверки (это логируется).
+ * <p>
+ * Между чанками выдерживается пауза: до целевой скорости rowsPerSecond и,
+ * если реплики отстают больше maxReplicationLag, до их догона.
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class UserPurgeService {
+
+    private static final String VICTIMS = """
+            WITH victims AS (
+                SELECT id
+                FROM users
+                WHERE created_at < ?
+                ORDER BY created_at
+                LIMIT ?
+                FOR UPDATE SKIP LOCKED
+            ),
+            links AS (
+                DELETE FROM users_car uc
+                USING victims v
+                WHERE uc.user_id = v.id
+                RETURNING uc.id, uc.user_id, uc.car_id, uc.created_at
+            ),
+            addresses AS (
+                DELETE FROM address a
+                USING victims v
+                WHERE a.user_id = v.id
+                RETURNING a.id, a.user_id, a.city, a.build, a.apartment, a.created_at, a.updated_at
+            ),
+            purged AS (
+                DELETE FROM users u
+                USING victims v
+                WHERE u.id = v.id
+                RETURNING u.id, u.username, u.age, u.created_at, u.updated_at
+            ),
+            unindexed AS (
+                DELETE FROM username_index i
+                USING purged p
+                WHERE i.username = p.username
+                  AND i.user_id = p.id
+            )
+            """;
+
+    // Все CTE видят состояние до запроса, поэтому удаляемые в links связи исключаются явно
+    private static final String ORPHAN_CARS = """
+            , orphan_cars AS (
+                DELETE FROM car c
+                WHERE c.id IN (SELECT car_id FROM links)
+                  AND NOT EXISTS (SELECT 1
+                                  FROM users_car other
+                                  WHERE other.car_id = c.id
+                                    AND other.user_id NOT IN (SELECT id FROM victims))
+            )
+            """;
+
+    // Модель машины берется из car - удаление orphan_cars в том же запросе этого не видит
+    private static final String ARCHIVE = """
+            , users_archived AS (
+                INSERT INTO users_archive (id, username, age, created_at, updated_at)
+                SELECT id, username, age, created_at, updated_at
+                FROM purged
+                ON CONFLICT (id) DO NOTHING
+            ),
+            address_archived AS (
+                INSERT INTO address_archive (id, user_id, city, build, apartment, created_at, updated_at)
+                SELECT id, user_id, city, build, apartment, created_at, updated_at
+                FROM addresses
+                ON CONFLICT (id) DO NOTHING
+            ),
+            links_archived AS (
+                INSERT INTO users_car_archive (id, user_id, car_id, model, release_year, created_at)
+                SELECT l.id, l.user_id, l.car_id, c.model, c.release_year, l.created_at
+                FROM links l
+                         LEFT JOIN car c ON c.id = l.car_id
+                ON CONFLICT (id) DO NOTHING
+            )
+            """;
+
+    private static final String RESULT = """
+            SELECT username, id FROM purged
+            """;
+
+    private final DSLContext ctx;
+    private final PurgeProperties properties;
+    private final ShardRouter shardRouter;
+
+    public long countVictims(LocalDateTime createdBefore) {
+        return shardRouter.scatter(db -> db.fetchCount(USERS, USERS.CREATED_AT.lt(createdBefore)))
+                .stream()
+                .mapToLong(Integer::longValue)
+                .sum();
+    }
+
+    /**
+     * ОДИН ЧАНК ОЧИСТКИ - выполняется в транзакции вызывающего
+     * При шардировании - по чанку на каждом шарде, так что за вызов удаляется до chunkSize * число шардов
+     *
+     * @return количество удаленных пользователей, 0 - подходящих незаблокированных пользователей не осталось
+     */
+    public int purgeChunk(PurgeUsersRequest request) {
+        if (!shardRouter.isSharded()) {
+            return purge(ctx, request).size();
+        }
+
+        int purged = 0;
+        for (String shard : shardRouter.names()) {
+            Map<String, UUID> users = shardRouter.writeInShard(
+                    "purge chunk on shard " + shard, shardRouter.shard(shard), db -> purge(db, request), null);
+            if (users.isEmpty()) continue;
+
+            // На шардах username_index пуст - записи глобального индекса лежат в основной БД
+            ctx.deleteFrom(USERNAME_INDEX)
+                    .where(row(USERNAME_INDEX.USERNAME, USERNAME_INDEX.USER_ID).in(
+                            users.entrySet().stream().map(user -> row(user.getKey(), user.getValue())).toList()))
+                    .execute();
+            purged += users.size();
+        }
+        return purged;
+    }
+
+    /**
+     * @return username -> id удаленных пользователей
+     */
+    private Map<String, UUID> purge(DSLContext db, PurgeUsersRequest request) {
+        String sql = VICTIMS
+                + (request.deleteOrphanCars() ? ORPHAN_CARS : "")
+                + (request.archive() ? ARCHIVE : "")
+                + RESULT;
+
+        return db.resultQuery(sql, request.createdBefore(), properties.chunkSize())
+                .fetchMap(r -> r.get(0, String.class), r -> r.get(1, UUID.class));
+    }
+
+    /**
+     * ПАУЗА ПЕРЕД СЛЕДУЮЩИМ ЧАНКОМ
+     * Время чанка вычитается из бюджета: при rowsPerSecond = 5000 чанк из 1000 пользователей
+     * занимает 200 мс вместе с паузой. Пока реплики отстают, пауза не короче lagCheckInterval.
+     *
+     * @param purged  удалено в последнем чанке (0 - повторная проверка после паузы)
+     * @param elapsed время выполнения последнего чанка
+     */
+    public Duration pause(PurgeUsersRequest request, int purged, Duration elapsed) {
+        int rowsPerSecond = request.rowsPerSecond() != null ? request.rowsPerSecond() : properties.rowsPerSecond();
+
+        Duration pause = Duration.ZERO;
+        if (rowsPerSecond > 0 && purged > 0) {
+            pause = Duration.ofNanos(purged * 1_000_000_000L / rowsPerSecond).minus(elapsed);
+        }
+
+        if (replicasLagging()) {
+            log.debug("Replication lag exceeds {}, purge paused", properties.maxReplicationLag());
+            pause = pause.compareTo(properties.lagCheckInterval()) > 0 ? pause : properties.lagCheckInterval();
+        }
+
+        return pause.isNegative() ? Duration.ZERO : pause;
+    }
+
+    private boolean replicasLagging() {
+        Duration max = properties.maxReplicationLag();
+        return !max.isZero() && replicationLag().compareTo(max) > 0;
+    }
+
+    /**
+     * НАИБОЛЬШЕЕ ОТСТАВАНИЕ РЕПЛИК ПО ВСЕМ ШАРДАМ
+     */
+    private Duration replicationLag() {
+        return shardRouter.scatter(this::replicationLag).stream()
+                .max(Duration::compareTo)
+                .orElse(Duration.ZERO);
+    }
+
+    /**
+     * НАИБОЛЬШЕЕ ОТСТАВАНИЕ РЕПЛИК ПО ВОСПРОИЗВЕДЕНИЮ WAL
+     * Без реплик (или без прав pg_monitor на replay_lag) отставание считается нулевым.
+     */
+    private Duration replicationLag(DSLContext db) {
+        try {
+            Long millis = db.resultQuery("""
+                            SELECT (EXTRACT(EPOCH FROM MAX(replay_lag)) * 1000)::bigint
+                            FROM pg_stat_replication""")
+                    .fetchOne(0, Long.class);
+            return millis != null ? Duration.ofMillis(millis) : Duration.ZERO;
+        } catch (DataAccessException e) {
+            log.warn("Failed to read replication lag, pacing by rate only: {}", e.getMessage());
+            return Duration.ZERO;
+        }
+    }
+}
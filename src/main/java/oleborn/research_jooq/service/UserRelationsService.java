@@ -1,20 +1,32 @@
 package oleborn.research_jooq.service;
 
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import lombok.RequiredArgsConstructor;
+import oleborn.research_jooq.config.JdbcBatchProperties;
+import oleborn.research_jooq.config.RelationsInsertProperties;
 import oleborn.research_jooq.dto.*;
 import oleborn.research_jooq.excepption.UserNotFoundException;
 import oleborn.research_jooq.jooq.tables.records.CarRecord;
 import oleborn.research_jooq.jooq.tables.records.UsersCarRecord;
+import org.jooq.BatchBindStep;
 import org.jooq.DSLContext;
-import org.jooq.Insert;
+import org.jooq.Field;
 import org.jooq.InsertSetMoreStep;
+import org.jooq.Query;
+import org.jooq.Record4;
 import org.jooq.Records;
-import org.jooq.exception.DataAccessException;
+import org.jooq.Result;
+import org.jooq.SelectOnConditionStep;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
+import java.time.LocalDateTime;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.UUID;
 import java.util.stream.IntStream;
@@ -22,6 +34,7 @@ import java.util.stream.IntStream;
 // СТАТИЧЕСКИЕ ИМПОРТЫ ТАБЛИЦ JOOQ:
 import static oleborn.research_jooq.jooq.tables.Address.ADDRESS;
 import static oleborn.research_jooq.jooq.tables.Car.CAR;
+import static oleborn.research_jooq.jooq.tables.UsernameIndex.USERNAME_INDEX;
 import static oleborn.research_jooq.jooq.tables.Users.USERS;
 import static oleborn.research_jooq.jooq.tables.UsersCar.USERS_CAR;
 // ИМПОРТ DSL ФУНКЦИЙ (row, multiset, select и т.д.)
@@ -31,7 +44,84 @@ import static org.jooq.impl.DSL.*;
 @RequiredArgsConstructor
 public class UserRelationsService {
 
+    /**
+     * ВЕСЬ ГРАФ ПОЛЬЗОВАТЕЛЯ ОДНИМ ЗАПРОСОМ (app.relations-insert.mode = single-statement)
+     * Каждый INSERT - data-modifying CTE, внешние ключи проверяются в конце запроса,
+     * поэтому адрес и связи видят пользователя из u. Машины приходят двумя массивами (unnest),
+     * ответ - JSON в формате снимка связей, он же пишется в снимок.
+     */
+    private static final String INSERT_GRAPH = """
+            WITH u AS (
+                INSERT INTO users (id, username, age)
+                VALUES (?::uuid, ?::varchar, ?::int)
+                RETURNING id, username, age
+            ),
+            a AS (
+                INSERT INTO address (id, user_id, city, build, apartment)
+                SELECT gen_random_uuid(), u.id, ?::varchar, ?::int, ?::int
+                FROM u
+                WHERE ?::boolean
+                RETURNING city, build, apartment
+            ),
+            input_cars AS (
+                SELECT gen_random_uuid() AS car_id, i.model, i.release_year, i.ord
+                FROM unnest(?::text[], ?::int[]) WITH ORDINALITY AS i(model, release_year, ord)
+            ),
+            c AS (
+                INSERT INTO car (id, model, release_year)
+                SELECT car_id, model, release_year
+                FROM input_cars
+                RETURNING id
+            ),
+            l AS (
+                INSERT INTO users_car (id, user_id, car_id)
+                SELECT gen_random_uuid(), u.id, c.id
+                FROM u, c
+            ),
+            doc AS (
+                SELECT u.id AS user_id,
+                       u.username,
+                       jsonb_build_object(
+                               'user', jsonb_build_object('username', u.username, 'age', u.age),
+                               'address', (SELECT jsonb_build_object('city', city, 'build', build, 'apartment', apartment)
+                                           FROM a),
+                               'cars', COALESCE((SELECT jsonb_agg(jsonb_build_object('model', model, 'carYear', release_year)
+                                                                  ORDER BY ord)
+                                                 FROM input_cars), '[]'::jsonb)
+                       ) AS document
+                FROM u
+            ),
+            snapshot AS (
+                INSERT INTO user_relations_snapshot (username, user_id, snapshot, format_version, updated_at)
+                SELECT username, user_id, document, ?, NOW()
+                FROM doc
+            )
+            """;
+
+    // Без шардирования событие outbox пишется тем же запросом
+    private static final String INSERT_GRAPH_OUTBOX = """
+            , outbox AS (
+                INSERT INTO outbox_event (aggregate_type, aggregate_id, event_type, payload)
+                SELECT ?, user_id, ?, document::text
+                FROM doc
+            )
+            """;
+
+    private static final String INSERT_GRAPH_RESULT = """
+            SELECT document::text
+            FROM doc
+            """;
+
     private final DSLContext ctx;
+    private final OutboxService outboxService;
+    private final UsernameFilter usernameFilter;
+    private final JdbcBatchProperties jdbcBatchProperties;
+    private final ShardRouter shardRouter;
+    private final UsernameIndex usernameIndex;
+    private final TotalCountService totalCountService;
+    private final RelationsSnapshotService relationsSnapshotService;
+    private final RelationsInsertProperties relationsInsertProperties;
+    private final ObjectMapper objectMapper;
 
     /**
      * ПОЛУЧЕНИЕ ПОЛЬЗОВАТЕЛЕЙ С ПОЛНОЙ ИНФОРМАЦИЕЙ О СВЯЗЯХ
@@ -42,6 +132,15 @@ public class UserRelationsService {
      */
     @Transactional(readOnly = true) // Только для чтения, оптимизация для БД
     public List<UserWithRelationsDto> getUsersWithFullRelations(int page, int size) {
+
+        // Шардов несколько - каждый отдает свою верхушку, страница собирается слиянием по created_at
+        if (shardRouter.isSharded()) {
+            return shardRouter.scatterPage(page, size, (shard, limit) -> selectRelations(shard)
+                    .orderBy(USERS.CREATED_AT.desc())
+                    .limit(limit)
+                    .fetch(r -> new ShardRouter.Ranked<>(r.value1(), toRelationsDto(r))));
+        }
+
         return ctx.select(
                         //
                         // ROW() - СОЗДАНИЕ ВЛОЖЕННОГО ОБЪЕКТА UserResponseDto:
@@ -113,12 +212,63 @@ public class UserRelationsService {
                 );
     }
 
+    /**
+     * ПАГИНАЦИЯ СО СВЯЗЯМИ И ОБЩИМ КОЛИЧЕСТВОМ ПОЛЬЗОВАТЕЛЕЙ
+     * Адрес присоединяется один-к-одному, поэтому количество строк равно количеству пользователей
+     */
+    @Transactional(readOnly = true)
+    public PageResult<UserWithRelationsDto> getUsersWithFullRelations(int page, int size, boolean withTotal) {
+        if (!withTotal) {
+            return PageResult.withoutTotal(getUsersWithFullRelations(page, size));
+        }
+
+        Long estimate = totalCountService.estimate(USERS);
+        if (!totalCountService.useExact(estimate)) {
+            return new PageResult<>(getUsersWithFullRelations(page, size), estimate, false);
+        }
+
+        // count(*) over() в том же запросе - без отдельного SELECT COUNT(*)
+        Field<Integer> total = count().over();
+        Result<Record4<UserResponseDto, AddressDto, List<CarDto>, Integer>> rows = ctx.select(
+                        row(USERS.USERNAME, USERS.AGE).mapping(UserResponseDto::new),
+                        row(ADDRESS.CITY, ADDRESS.BUILD, ADDRESS.APARTMENT).mapping(AddressDto::new),
+                        carsMultiset(),
+                        total
+                )
+                .from(USERS)
+                .leftJoin(ADDRESS).on(USERS.ID.eq(ADDRESS.USER_ID))
+                .orderBy(USERS.CREATED_AT.desc())
+                .limit(size)
+                .offset(page * size)
+                .fetch();
+
+        List<UserWithRelationsDto> content = rows.map(r -> new UserWithRelationsDto(r.value1(), r.value2(), r.value3()));
+
+        return rows.isEmpty()
+                ? new PageResult<>(content, estimate, false)
+                : new PageResult<>(content, rows.get(0).value4().longValue(), true);
+    }
+
     /**
      * ПОЛУЧЕНИЕ ОДНОГО ПОЛЬЗОВАТЕЛЯ СО ВСЕМИ СВЯЗЯМИ
      * Аналогично предыдущему методу, но для одного пользователя
      */
     public UserWithRelationsDto getUserWithRelations(String username) {
-        return Optional.ofNullable(ctx.select(
+
+        // Шард пользователя находится через глобальный индекс, а не опросом всех шардов
+        if (shardRouter.isSharded()) {
+            return usernameIndex.lookup(username)
+                    .map(entry -> readRelations(entry.shard(), username))
+                    .orElseThrow(() -> new UserNotFoundException("User with username " + username + " not found"));
+        }
+
+        // Снимок связей - один поиск по первичному ключу вместо JOIN и multiset
+        Optional<UserWithRelationsDto> snapshot = relationsSnapshotService.read(ctx, username);
+        if (snapshot.isPresent()) {
+            return snapshot.get();
+        }
+
+        UserWithRelationsDto live = Optional.ofNullable(ctx.select(
                                         row(USERS.USERNAME, USERS.AGE).mapping(UserResponseDto::new),
                                         row(ADDRESS.CITY, ADDRESS.BUILD, ADDRESS.APARTMENT).mapping(AddressDto::new),
                                         multiset(
@@ -150,9 +300,30 @@ public class UserRelationsService {
                                         Records.mapping(UserWithRelationsDto::new)
                                 )
                 )
-                .orElseThrow(
-                        () -> new UserNotFoundException("User with username " + username + " not found")
-                );
+                .orElseThrow(() -> new UserNotFoundException("User with username " + username + " not found"));
+
+        // Снимка не было или он устарел - его пересчитает фоновая задача, сам GET ничего не пишет
+        relationsSnapshotService.requestRepair(ShardRouter.PRIMARY, username);
+
+        return live;
+    }
+
+    /**
+     * ЧТЕНИЕ ПОЛЬЗОВАТЕЛЯ СО СВЯЗЯМИ НА ШАРДЕ: снимок, а при его отсутствии - обычный запрос
+     *
+     * @return null - пользователя на шарде нет
+     */
+    private UserWithRelationsDto readRelations(String shard, String username) {
+        DSLContext db = shardRouter.shard(shard);
+        return relationsSnapshotService.read(db, username).orElseGet(() -> {
+            UserWithRelationsDto live = selectRelations(db)
+                    .where(USERS.USERNAME.eq(username))
+                    .fetchOne(this::toRelationsDto);
+            if (live != null) {
+                relationsSnapshotService.requestRepair(shard, username);
+            }
+            return live;
+        });
     }
 
     /*
@@ -214,6 +385,8 @@ public class UserRelationsService {
     /**
      * ОПТИМИЗИРОВАННОЕ СОЗДАНИЕ ПОЛЬЗОВАТЕЛЯ СО СВЯЗЯМИ
      * Использует BATCH вставку для улучшения производительности
+     * Ошибки БД не перехватываются: jOOQ-исключения к этому моменту уже переведены в DataAccessException
+     * Spring (дубликат username - DuplicateKeyException), @Transactional откатывает по ним транзакцию
      */
     @Transactional
     public UserWithRelationsDto createUserWithRelations(
@@ -221,49 +394,165 @@ public class UserRelationsService {
             CreateAddressRequest addressRequest,
             List<CreateCarRequest> carRequests) {
 
+        // Дубликат username отсекается до начала вставок (409 вместо отката после всей работы)
+        usernameFilter.ensureAvailable(userRequest.username());
+
         UUID userId = UUID.randomUUID();
 
-        try {
-            // 1. СОЗДАНИЕ ПОЛЬЗОВАТЕЛЯ - один запрос
-            ctx.insertInto(USERS)
+        if (shardRouter.isSharded()) {
+            return createUserWithRelationsOnShard(userId, userRequest, addressRequest, carRequests);
+        }
+
+        // Один запрос вместо пяти: соединение держится на время одного round trip и COMMIT
+        if (singleStatement()) {
+            UserWithRelationsDto created = insertGraph(ctx, userId, userRequest, addressRequest, carRequests, true);
+            usernameFilter.add(userRequest.username());
+            return created;
+        }
+
+        // 1. СОЗДАНИЕ ПОЛЬЗОВАТЕЛЯ - один запрос
+        ctx.insertInto(USERS)
+                .set(USERS.ID, userId)
+                .set(USERS.USERNAME, userRequest.username())
+                .set(USERS.AGE, userRequest.age())
+                .execute();
+        usernameFilter.add(userRequest.username());
+
+        // 2. СОЗДАНИЕ АДРЕСА - один запрос
+        /**
+         * INSERTINTO() - НАЧАЛО INSERT ЗАПРОСА:
+         * - Указывает таблицу для вставки
+         * - Возвращает InsertSetStep для цепочки .set() методов
+         * - Альтернатива: ctx.insertInto(TABLE, FIELD1, FIELD2).values(...)
+         */
+        ctx.insertInto(ADDRESS)
+                .set(ADDRESS.ID, UUID.randomUUID())
+                .set(ADDRESS.USER_ID, userId)
+                .set(ADDRESS.CITY, addressRequest.city())
+                .set(ADDRESS.BUILD, addressRequest.build())
+                .set(ADDRESS.APARTMENT, addressRequest.apartment())
+                /**
+                 * EXECUTE() - ВЫПОЛНЕНИЕ DML ЗАПРОСА:
+                 * - Выполняет INSERT, UPDATE, DELETE
+                 * - Возвращает количество затронутых строк (int)
+                 * - Для SELECT используйте fetch(), для DML - execute()
+                 */
+                .execute();
+
+        // 3. ПАКЕТНАЯ ВСТАВКА МАШИН И СВЯЗЕЙ - всего 2 batch запроса
+        if (!carRequests.isEmpty()) {
+            createUserCarsBatch(ctx, userId, carRequests);
+        }
+        relationsSnapshotService.refresh(ctx, USERS.ID.eq(userId));
+
+        // 4. Получаем результат с связями
+        UserWithRelationsDto created = getUserWithRelations(userRequest.username());
+
+        // 5. СОБЫТИЕ В OUTBOX - в той же транзакции, доставит OutboxPublisher
+        outboxService.append(
+                OutboxService.AGGREGATE_USER, userId, OutboxService.USER_WITH_RELATIONS_CREATED, created
+        );
+
+        return created;
+    }
+
+    /**
+     * СОЗДАНИЕ ПОЛЬЗОВАТЕЛЯ СО СВЯЗЯМИ НА ЕГО ШАРДЕ
+     * Индекс username и outbox пишутся в основную БД (транзакция вызывающего метода),
+     * пользователь, адрес и машины - одной транзакцией шарда. Шард коммитится раньше основной БД:
+     * если основная транзакция затем откатится, пользователь на шарде удаляется (адрес и связи - каскадом,
+     * строки car остаются без владельца и убираются очисткой PURGE_USERS с deleteOrphanCars).
+     */
+    private UserWithRelationsDto createUserWithRelationsOnShard(
+            UUID userId,
+            CreateUserRequest userRequest,
+            CreateAddressRequest addressRequest,
+            List<CreateCarRequest> carRequests) {
+
+        String shard = shardRouter.shardOf(userId);
+        usernameIndex.register(userRequest.username(), userId, shard);
+
+        UserWithRelationsDto created = shardRouter.writeInShard("create user with relations " + userId, shardRouter.shard(shard), db -> {
+            if (singleStatement()) {
+                return insertGraph(db, userId, userRequest, addressRequest, carRequests, false);
+            }
+
+            db.insertInto(USERS)
                     .set(USERS.ID, userId)
                     .set(USERS.USERNAME, userRequest.username())
                     .set(USERS.AGE, userRequest.age())
                     .execute();
 
-            // 2. СОЗДАНИЕ АДРЕСА - один запрос
-            /**
-             * INSERTINTO() - НАЧАЛО INSERT ЗАПРОСА:
-             * - Указывает таблицу для вставки
-             * - Возвращает InsertSetStep для цепочки .set() методов
-             * - Альтернатива: ctx.insertInto(TABLE, FIELD1, FIELD2).values(...)
-             */
-            ctx.insertInto(ADDRESS)
+            db.insertInto(ADDRESS)
                     .set(ADDRESS.ID, UUID.randomUUID())
                     .set(ADDRESS.USER_ID, userId)
                     .set(ADDRESS.CITY, addressRequest.city())
                     .set(ADDRESS.BUILD, addressRequest.build())
                     .set(ADDRESS.APARTMENT, addressRequest.apartment())
-                    /**
-                     * EXECUTE() - ВЫПОЛНЕНИЕ DML ЗАПРОСА:
-                     * - Выполняет INSERT, UPDATE, DELETE
-                     * - Возвращает количество затронутых строк (int)
-                     * - Для SELECT используйте fetch(), для DML - execute()
-                     */
                     .execute();
 
-            // 3. ПАКЕТНАЯ ВСТАВКА МАШИН И СВЯЗЕЙ - всего 2 batch запроса
             if (!carRequests.isEmpty()) {
-                createUserCarsBatch(userId, carRequests);
+                createUserCarsBatch(db, userId, carRequests);
             }
+            relationsSnapshotService.refresh(db, USERS.ID.eq(userId));
+
+            return selectRelations(db)
+                    .where(USERS.ID.eq(userId))
+                    .fetchOne(this::toRelationsDto);
+        }, db -> db.deleteFrom(USERS).where(USERS.ID.eq(userId)).execute());
 
-            // 4. Получаем результат с связями
-            return getUserWithRelations(userRequest.username());
+        usernameFilter.add(userRequest.username());
+        outboxService.append(
+                OutboxService.AGGREGATE_USER, userId, OutboxService.USER_WITH_RELATIONS_CREATED, created
+        );
 
-        } catch (DataAccessException e) {
-            // Обработка возможных ошибок (например, duplicate username)
-            // @Transactional откатит всю транзакцию при исключении
-            throw new RuntimeException("Failed to create user with relations: " + e.getMessage(), e);
+        return created;
+    }
+
+    private boolean singleStatement() {
+        return relationsInsertProperties.mode() == RelationsInsertProperties.Mode.SINGLE_STATEMENT;
+    }
+
+    /**
+     * ВСТАВКА ГРАФА ОДНИМ ЗАПРОСОМ (см. INSERT_GRAPH)
+     *
+     * @param withOutbox писать ли событие outbox тем же запросом (outbox живет только в основной БД)
+     */
+    private UserWithRelationsDto insertGraph(
+            DSLContext db,
+            UUID userId,
+            CreateUserRequest userRequest,
+            CreateAddressRequest addressRequest,
+            List<CreateCarRequest> carRequests,
+            boolean withOutbox) {
+
+        List<CreateCarRequest> cars = carRequests != null ? carRequests : List.of();
+        boolean hasAddress = addressRequest != null;
+
+        List<Object> bindings = new ArrayList<>(Arrays.asList(
+                userId, userRequest.username(), userRequest.age(),
+                hasAddress ? addressRequest.city() : null,
+                hasAddress ? addressRequest.build() : null,
+                hasAddress ? addressRequest.apartment() : null,
+                hasAddress,
+                cars.stream().map(CreateCarRequest::model).toArray(String[]::new),
+                cars.stream().map(CreateCarRequest::carYear).toArray(Integer[]::new),
+                RelationsSnapshotService.FORMAT_VERSION
+        ));
+
+        String sql = INSERT_GRAPH;
+        if (withOutbox) {
+            sql += INSERT_GRAPH_OUTBOX;
+            bindings.add(OutboxService.AGGREGATE_USER);
+            bindings.add(OutboxService.USER_WITH_RELATIONS_CREATED);
+        }
+        sql += INSERT_GRAPH_RESULT;
+
+        String document = db.resultQuery(sql, bindings.toArray()).fetchOne(0, String.class);
+        try {
+            return objectMapper.readValue(document, UserWithRelationsDto.class);
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("Failed to read created user " + userRequest.username(), e);
         }
     }
 
@@ -271,65 +560,210 @@ public class UserRelationsService {
      * ПАКЕТНАЯ ВСТАВКА МАШИН И СВЯЗЕЙ ПОЛЬЗОВАТЕЛЯ
      * Значительно эффективнее последовательной вставки
      */
-    private void createUserCarsBatch(UUID userId, List<CreateCarRequest> carRequests) {
-
-        // Генерация ID для всех машин заранее
-        List<UUID> carIds = new ArrayList<>();
-        for (int i = 0; i < carRequests.size(); i++) {
-            carIds.add(UUID.randomUUID());
-        }
+    private void createUserCarsBatch(DSLContext db, UUID userId, List<CreateCarRequest> carRequests) {
 
         //
-        // BATCH INSERT ДЛЯ МАШИН:
-        // - Создаем список INSERT запросов
-        // - Выполняем одним batch запросом
-        // - Вместо N запросов - всего 1 batch запрос
+        // ПОДГОТОВКА ЗНАЧЕНИЙ ДЛЯ BIND BATCH:
+        // - ID машин генерируются заранее, чтобы сразу построить и связи
+        // - Каждая строка - массив значений в порядке столбцов запроса
         //
-        /**
-         * INSERT<?> - ТИПИЗИРОВАННЫЙ INSERT ЗАПРОС:
-         * - Generic тип указывает на тип Record (Insert<CarRecord>)
-         * - <?> используется когда тип Record не важен или смешанный
-         * - В batch можно смешивать разные типы Insert запросов
-         */
+        List<Object[]> cars = new ArrayList<>(carRequests.size());
+        List<Object[]> links = new ArrayList<>(carRequests.size());
+        for (CreateCarRequest carRequest : carRequests) {
+            UUID carId = UUID.randomUUID();
+            cars.add(new Object[]{carId, carRequest.model(), carRequest.carYear()});
+            links.add(new Object[]{UUID.randomUUID(), userId, carId});
+        }
+
+        executeBindBatch(db, insertCarQuery(db), cars);
+        executeBindBatch(db, insertUserCarQuery(db), links);
+
+        /*
+        ЗАКОММЕНТИРОВАННЫЙ ВАРИАНТ - BATCH ИЗ ГОТОВЫХ ЗАПРОСОВ:
+        ctx.batch(List<Insert<?>>) выполняется как статический batch (Statement.addBatch(sql)):
+            - каждое значение встраивается в текст SQL (inline)
+            - драйвер и БД разбирают N разных строк SQL
+            - pgjdbc не может применить reWriteBatchedInserts
+
         List<Insert<?>> carInserts = new ArrayList<>();
-        for (int i = 0; i < carRequests.size(); i++) {
+        for (...) {
+            carInserts.add(ctx.insertInto(CAR).set(CAR.ID, carId).set(CAR.MODEL, ...));
+        }
+        ctx.batch(carInserts).execute();
+        */
+    }
+
+    /**
+     * ПАКЕТНОЕ СОЗДАНИЕ НЕСКОЛЬКИХ ПОЛЬЗОВАТЕЛЕЙ СО СВЯЗЯМИ
+     * Используется фоновым импортом (BulkJobService): весь чанк уходит в БД
+     * четырьмя batch-запросами (пользователи, адреса, машины, связи) вместо 4 * N запросов.
+     * Транзакцию открывает вызывающий код - один чанк = одна транзакция.
+     * При шардировании строки группируются по шардам, и каждый шард пишется своей транзакцией;
+     * записи глобального индекса username идут в транзакцию вызывающего кода. Если она откатится
+     * (например, следующий шард не записался), уже записанные шарды удаляют своих пользователей.
+     *
+     * @return количество созданных пользователей
+     */
+    public int createUsersWithRelationsBatch(List<CreateUserWithRelationsRequest> requests) {
+
+        Map<String, GraphRows> byShard = new LinkedHashMap<>();
+        List<Object[]> index = new ArrayList<>(requests.size());
 
-            CreateCarRequest carRequest = carRequests.get(i);
+        for (CreateUserWithRelationsRequest request : requests) {
 
-            UUID carId = carIds.get(i);
+            UUID userId = UUID.randomUUID();
+            String shard = shardRouter.shardOf(userId);
+            GraphRows rows = byShard.computeIfAbsent(shard, s -> new GraphRows());
 
-            carInserts.add(
-                    ctx.insertInto(CAR)
-                            .set(CAR.ID, carId)
-                            .set(CAR.MODEL, carRequest.model())
-                            .set(CAR.RELEASE_YEAR, carRequest.carYear())
+            index.add(new Object[]{request.user().username(), userId, shard});
+            rows.users().add(new Object[]{userId, request.user().username(), request.user().age()});
+
+            if (request.address() != null) {
+                rows.addresses().add(new Object[]{
+                        UUID.randomUUID(),
+                        userId,
+                        request.address().city(),
+                        request.address().build(),
+                        request.address().apartment()
+                });
+            }
+
+            if (request.cars() != null) {
+                for (CreateCarRequest carRequest : request.cars()) {
+                    UUID carId = UUID.randomUUID();
+                    rows.cars().add(new Object[]{carId, carRequest.model(), carRequest.carYear()});
+                    rows.links().add(new Object[]{UUID.randomUUID(), userId, carId});
+                }
+            }
+        }
+
+        if (shardRouter.isSharded()) {
+            // Дубликат username роняет весь чанк - так же, как UNIQUE-индекс users без шардирования
+            executeBindBatch(
+                    ctx,
+                    ctx.insertInto(USERNAME_INDEX, USERNAME_INDEX.USERNAME, USERNAME_INDEX.USER_ID, USERNAME_INDEX.SHARD)
+                            .values((String) null, (UUID) null, (String) null),
+                    index
             );
+            byShard.forEach((shard, rows) -> {
+                List<UUID> userIds = rows.users().stream().map(row -> (UUID) row[0]).toList();
+                shardRouter.writeInShard(
+                        "create " + userIds.size() + " users with relations on shard " + shard,
+                        shardRouter.shard(shard),
+                        db -> {
+                            insertGraphRows(db, rows);
+                            return userIds.size();
+                        },
+                        db -> db.deleteFrom(USERS).where(USERS.ID.in(userIds)).execute()
+                );
+            });
+        } else {
+            byShard.values().forEach(rows -> insertGraphRows(ctx, rows));
         }
 
-        // ВЫПОЛНЕНИЕ BATCH ЗАПРОСА - все INSERT выполняются одним пакетом
-        /**
-         * BATCH() - ПАКЕТНОЕ ВЫПОЛНЕНИЕ ЗАПРОСОВ:
-         * - Выполняет несколько запросов одним пакетом
-         * - Значительно быстрее отдельных execute()
-         * - Возвращает массив int[] с результатами каждого запроса
-         */
-        ctx.batch(carInserts).execute();
+        requests.forEach(request -> usernameFilter.add(request.user().username()));
 
-        //
-        // BATCH INSERT ДЛЯ СВЯЗЕЙ ПОЛЬЗОВАТЕЛЬ-МАШИНА:
-        // - Аналогично создаем batch для связующей таблицы
-        //
-        List<Insert<?>> linkInserts = new ArrayList<>();
-        for (UUID carId : carIds) {
-            linkInserts.add(
-                    ctx.insertInto(USERS_CAR)
-                            .set(USERS_CAR.ID, UUID.randomUUID())
-                            .set(USERS_CAR.USER_ID, userId)
-                            .set(USERS_CAR.CAR_ID, carId)
-            );
+        return requests.size();
+    }
+
+    /**
+     * Строки одного шарда для пакетной вставки, каждая строка - значения в порядке столбцов запроса
+     */
+    private record GraphRows(List<Object[]> users, List<Object[]> addresses, List<Object[]> cars, List<Object[]> links) {
+
+        GraphRows() {
+            this(new ArrayList<>(), new ArrayList<>(), new ArrayList<>(), new ArrayList<>());
         }
+    }
 
-        // ВЫПОЛНЕНИЕ BATCH ДЛЯ СВЯЗЕЙ
-        ctx.batch(linkInserts).execute();
+    private void insertGraphRows(DSLContext db, GraphRows rows) {
+        // Порядок важен: сначала родительские строки, затем строки с внешними ключами
+        executeBindBatch(
+                db,
+                db.insertInto(USERS, USERS.ID, USERS.USERNAME, USERS.AGE)
+                        .values((UUID) null, (String) null, (Integer) null),
+                rows.users()
+        );
+        executeBindBatch(
+                db,
+                db.insertInto(ADDRESS, ADDRESS.ID, ADDRESS.USER_ID, ADDRESS.CITY, ADDRESS.BUILD, ADDRESS.APARTMENT)
+                        .values((UUID) null, (UUID) null, (String) null, (Integer) null, (Integer) null),
+                rows.addresses()
+        );
+        executeBindBatch(db, insertCarQuery(db), rows.cars());
+        executeBindBatch(db, insertUserCarQuery(db), rows.links());
+
+        // Снимки всей пачки - одним INSERT ... SELECT
+        List<UUID> userIds = rows.users().stream().map(row -> (UUID) row[0]).toList();
+        relationsSnapshotService.refresh(db, USERS.ID.in(userIds));
+    }
+
+    /**
+     * ВЫБОРКА ПОЛЬЗОВАТЕЛЯ СО СВЯЗЯМИ ДЛЯ ЗАПРОСОВ К ШАРДУ
+     * То же, что в getUsersWithFullRelations, плюс created_at - ключ слияния результатов шардов
+     */
+    private SelectOnConditionStep<Record4<LocalDateTime, UserResponseDto, AddressDto, List<CarDto>>> selectRelations(
+            DSLContext db) {
+        return db.select(
+                        USERS.CREATED_AT,
+                        row(USERS.USERNAME, USERS.AGE).mapping(UserResponseDto::new),
+                        row(ADDRESS.CITY, ADDRESS.BUILD, ADDRESS.APARTMENT).mapping(AddressDto::new),
+                        carsMultiset()
+                )
+                .from(USERS)
+                .leftJoin(ADDRESS).on(USERS.ID.eq(ADDRESS.USER_ID));
+    }
+
+    /**
+     * MULTISET МАШИН ПОЛЬЗОВАТЕЛЯ - коррелирован с USERS внешнего запроса
+     */
+    private Field<List<CarDto>> carsMultiset() {
+        return multiset(
+                select(CAR.MODEL, CAR.RELEASE_YEAR)
+                        .from(CAR)
+                        .join(USERS_CAR).on(CAR.ID.eq(USERS_CAR.CAR_ID))
+                        .where(USERS_CAR.USER_ID.eq(USERS.ID))
+        ).convertFrom(r -> r.map(Records.mapping(CarDto::new)));
+    }
+
+    private UserWithRelationsDto toRelationsDto(Record4<LocalDateTime, UserResponseDto, AddressDto, List<CarDto>> r) {
+        return new UserWithRelationsDto(r.value2(), r.value3(), r.value4());
+    }
+
+    /**
+     * ШАБЛОН INSERT ДЛЯ МАШИН - значения подставляются через bind()
+     */
+    private Query insertCarQuery(DSLContext db) {
+        return db.insertInto(CAR, CAR.ID, CAR.MODEL, CAR.RELEASE_YEAR)
+                .values((UUID) null, (String) null, (Integer) null);
+    }
+
+    /**
+     * ШАБЛОН INSERT ДЛЯ СВЯЗЕЙ ПОЛЬЗОВАТЕЛЬ-МАШИНА
+     */
+    private Query insertUserCarQuery(DSLContext db) {
+        return db.insertInto(USERS_CAR, USERS_CAR.ID, USERS_CAR.USER_ID, USERS_CAR.CAR_ID)
+                .values((UUID) null, (UUID) null, (UUID) null);
+    }
+
+    /**
+     * BIND BATCH - ОДИН PREPARED STATEMENT НА ВЕСЬ ПАКЕТ
+     * <p>
+     * ctx.batch(query).bind(...) выполняется как PreparedStatement.addBatch():
+     * SQL разбирается один раз, меняются только параметры. С reWriteBatchedInserts=true
+     * pgjdbc дополнительно склеивает пакет в многострочные INSERT ... VALUES (...), (...).
+     * Пакет режется на чанки app.jdbc-batch.chunk-size, чтобы не держать в памяти
+     * и не отправлять драйверу сотни тысяч строк за раз.
+     */
+    private void executeBindBatch(DSLContext db, Query query, List<Object[]> rows) {
+        int chunkSize = jdbcBatchProperties.chunkSize();
+
+        for (int from = 0; from < rows.size(); from += chunkSize) {
+            BatchBindStep batch = db.batch(query);
+            for (Object[] row : rows.subList(from, Math.min(from + chunkSize, rows.size()))) {
+                batch = batch.bind(row);
+            }
+            batch.execute();
+        }
     }
 }
\ No newline at end of file
@@ -2,35 +2,78 @@ package oleborn.research_jooq.service;
 
 import lombok.RequiredArgsConstructor;
 import oleborn.research_jooq.dto.CreateUserRequest;
+import oleborn.research_jooq.dto.PageResult;
 import oleborn.research_jooq.dto.UserResponseDto;
 import oleborn.research_jooq.excepption.UserNotFoundException;
 import oleborn.research_jooq.jooq.tables.daos.UsersDao;
 import oleborn.research_jooq.jooq.tables.pojos.Users;
 import oleborn.research_jooq.jooq.tables.records.UsersRecord;
 import org.jooq.DSLContext;
+import org.jooq.Field;
+import org.jooq.Record3;
 import org.jooq.Records;
+import org.jooq.Result;
+import org.jooq.UpdateConditionStep;
 import org.jooq.UpdateSetFirstStep;
 import org.jooq.UpdateSetMoreStep;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
 
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 import java.util.UUID;
 
 import static oleborn.research_jooq.jooq.tables.Users.USERS;
+import static org.jooq.impl.DSL.count;
 
 @Service
 @RequiredArgsConstructor
 public class UserService {
 
     private final DSLContext ctx;
+    private final OutboxService outboxService;
+    private final UsernameFilter usernameFilter;
+    private final ShardRouter shardRouter;
+    private final UsernameIndex usernameIndex;
+    private final TotalCountService totalCountService;
+    private final RelationsSnapshotService relationsSnapshotService;
 
     /**
      * СОЗДАНИЕ ПОЛЬЗОВАТЕЛЯ - ДЕМОНСТРАЦИЯ DSL API vs RECORD API
      * Показаны два подхода с комментариями когда какой использовать
+     * Транзакция нужна, чтобы событие в outbox коммитилось вместе с пользователем.
+     * При шардировании пользователь пишется отдельной транзакцией шарда (ShardRouter.writeInShard):
+     * если основная транзакция затем откатится, строка на шарде удаляется.
      */
+    @Transactional
     public UserResponseDto createUser(CreateUserRequest request) {
 
+        // Дубликат username, известный фильтру, отсекается до INSERT; остальные - UNIQUE-индексом
+        usernameFilter.ensureAvailable(request.username());
+
+        UUID userId = UUID.randomUUID();
+
+        // При шардировании username сначала занимается в глобальном индексе (в этой же транзакции)
+        String shard = shardRouter.shardOf(userId);
+        if (shardRouter.isSharded()) {
+            usernameIndex.register(request.username(), userId, shard);
+        }
+        UserResponseDto user = shardRouter.writeInShard(
+                "create user " + userId,
+                shardRouter.shard(shard),
+                db -> insertUser(db, userId, request),
+                db -> db.deleteFrom(USERS).where(USERS.ID.eq(userId)).execute()
+        );
+
+        outboxService.append(OutboxService.AGGREGATE_USER, userId, OutboxService.USER_CREATED, user);
+        usernameFilter.add(request.username());
+
+        return user;
+    }
+
+    private UserResponseDto insertUser(DSLContext db, UUID userId, CreateUserRequest request) {
+
         /*
         DSL API ПОДХОД - ИСПОЛЬЗУЕТСЯ В ДАННОМ СЛУЧАЕ:
         Используй DSL API когда:
@@ -39,8 +82,8 @@ public class UserService {
             - Возвращаешь вычисляемые поля
             - Нужен точный контроль над SQL
         */
-        UserResponseDto user = Objects.requireNonNull(ctx.insertInto(USERS)
-                        .set(USERS.ID, UUID.randomUUID())
+        UserResponseDto user = Objects.requireNonNull(db.insertInto(USERS)
+                        .set(USERS.ID, userId)
                         .set(USERS.USERNAME, request.username())
                         .set(USERS.AGE, request.age())
                         // .returningResult() - возвращает указанные столбцы после вставки
@@ -55,6 +98,8 @@ public class UserService {
                                 .build()
                 );
 
+        relationsSnapshotService.refresh(db, USERS.ID.eq(userId));
+
         return user;
 
         /*
@@ -87,7 +132,7 @@ public class UserService {
     public UserResponseDto getUserById(UUID id) {
 
         // DSL API ПОДХОД - ТИПИЧНЫЙ ДЛЯ SELECT ЗАПРОСОВ
-        return ctx.select(USERS.USERNAME, USERS.AGE)
+        return shardRouter.forUser(id).select(USERS.USERNAME, USERS.AGE)
                 .from(USERS)
                 .where(USERS.ID.eq(id))
                 .fetchOne( // Получаем одну запись или null
@@ -128,6 +173,15 @@ public class UserService {
      * Демонстрация пагинации и преобразования результатов
      */
     public List<UserResponseDto> getUsersWithPagination(int page, int size) {
+
+        // Шардов несколько - страница собирается со всех шардов слиянием по created_at
+        if (shardRouter.isSharded()) {
+            return shardRouter.scatterPage(page, size, (shard, limit) -> shard.selectFrom(USERS)
+                    .orderBy(USERS.CREATED_AT.desc())
+                    .limit(limit)
+                    .fetch(r -> new ShardRouter.Ranked<>(r.getCreatedAt(), toDto(r))));
+        }
+
         return ctx.selectFrom(USERS) // SELECT * FROM users
                 .orderBy(USERS.CREATED_AT.desc()) // Сортировка по дате создания (новые first)
                 .limit(size) // Ограничение количества записей
@@ -136,28 +190,80 @@ public class UserService {
                 .map(this::toDto); // Преобразуем каждую запись в DTO
     }
 
+    /**
+     * ПАГИНАЦИЯ С ОБЩИМ КОЛИЧЕСТВОМ ПОЛЬЗОВАТЕЛЕЙ
+     * Маленькая таблица - точное значение окном count(*) over() в том же запросе,
+     * большая - оценка по статистике PostgreSQL (см. TotalCountService)
+     */
+    public PageResult<UserResponseDto> getUsersWithPagination(int page, int size, boolean withTotal) {
+        if (!withTotal) {
+            return PageResult.withoutTotal(getUsersWithPagination(page, size));
+        }
+
+        Long estimate = totalCountService.estimate(USERS);
+        if (!totalCountService.useExact(estimate)) {
+            return new PageResult<>(getUsersWithPagination(page, size), estimate, false);
+        }
+
+        // Окно считается до LIMIT/OFFSET - в каждой строке страницы общее количество строк
+        Field<Integer> total = count().over();
+        Result<Record3<String, Integer, Integer>> rows = ctx.select(USERS.USERNAME, USERS.AGE, total)
+                .from(USERS)
+                .orderBy(USERS.CREATED_AT.desc())
+                .limit(size)
+                .offset(page * size)
+                .fetch();
+
+        List<UserResponseDto> content = rows.map(r -> new UserResponseDto(r.value1(), r.value2()));
+
+        // Страница за пределами данных - строк нет, а значит нет и значения окна
+        return rows.isEmpty()
+                ? new PageResult<>(content, estimate, false)
+                : new PageResult<>(content, rows.get(0).value3().longValue(), true);
+    }
+
     /**
      * ЧАСТИЧНОЕ ОБНОВЛЕНИЕ ПОЛЬЗОВАТЕЛЯ
      * Демонстрация динамического построения UPDATE запроса
+     * При шардировании UPDATE выполняется отдельной транзакцией шарда: если основная транзакция
+     * (индекс username, outbox) затем откатится, на шарде восстанавливаются прежние username и age.
      */
+    @Transactional
     public UserResponseDto updateUserPartial(UUID id, CreateUserRequest request) {
 
+        DSLContext db = shardRouter.forUser(id);
+
         // ПРОВЕРКА СУЩЕСТВОВАНИЯ ПОЛЬЗОВАТЕЛЯ
         // fetchExists выполняет SELECT EXISTS(...) для проверки наличия записи
-        if (!ctx.fetchExists(USERS, USERS.ID.eq(id))) {
+        if (!db.fetchExists(USERS, USERS.ID.eq(id))) {
             throw new UserNotFoundException("User with id " + id + " not found"); // 404 - пользователь не найден
         }
 
         // ДИНАМИЧЕСКОЕ ПОСТРОЕНИЕ UPDATE ЗАПРОСА:
         // Позволяет обновлять только переданные поля (частичное обновление)
 
-        UpdateSetFirstStep<UsersRecord> update = ctx.update(USERS); // Начало UPDATE запроса
+        UpdateSetFirstStep<UsersRecord> update = db.update(USERS); // Начало UPDATE запроса
+        String previousUsername = null;
+
+        // Прежние значения нужны для отката записи в шард
+        UsersRecord previous = shardRouter.isSharded()
+                ? db.selectFrom(USERS).where(USERS.ID.eq(id)).fetchOne()
+                : null;
 
         UpdateSetMoreStep<UsersRecord> set = null;
 
         // Динамически добавляем SET clauses только для non-null полей
         if (request.username() != null) {
+            if (shardRouter.isSharded()) {
+                // Новый username занимается в глобальном индексе, старый освобождается после UPDATE
+                previousUsername = previous != null ? previous.getUsername() : null;
+                if (!request.username().equals(previousUsername)) {
+                    usernameIndex.register(request.username(), id, shardRouter.shardOf(id));
+                }
+            }
             set = update.set(USERS.USERNAME, request.username());
+            // Старый username остается в фильтре - это лишь возможное ложное срабатывание
+            usernameFilter.add(request.username());
         }
         if (request.age() != null) {
             // Используем тернарный оператор для цепочки SET clauses
@@ -168,28 +274,77 @@ public class UserService {
         if (set == null) return getUserById(id);
 
         // Выполняем UPDATE только если есть что обновлять
-        set.where(USERS.ID.eq(id)).execute();
+        UpdateConditionStep<UsersRecord> query = set.where(USERS.ID.eq(id));
+        shardRouter.writeInShard(
+                "update user " + id,
+                db,
+                shardDb -> {
+                    relationsSnapshotService.lockUsers(shardDb, USERS.ID.eq(id));
+                    // Запрос построен на db - переносим его в контекст транзакции шарда
+                    query.attach(shardDb.configuration());
+                    int updated = query.execute();
+                    relationsSnapshotService.refresh(shardDb, USERS.ID.eq(id));
+                    return updated;
+                },
+                previous == null ? null : shardDb -> {
+                    relationsSnapshotService.lockUsers(shardDb, USERS.ID.eq(id));
+                    shardDb.update(USERS)
+                            .set(USERS.USERNAME, previous.getUsername())
+                            .set(USERS.AGE, previous.getAge())
+                            .where(USERS.ID.eq(id))
+                            .execute();
+                    relationsSnapshotService.refresh(shardDb, USERS.ID.eq(id));
+                }
+        );
+        if (previousUsername != null && !previousUsername.equals(request.username())) {
+            usernameIndex.remove(previousUsername);
+        }
 
-        // Возвращаем обновленные данные
-        return getUserById(id);
+        // Возвращаем обновленные данные и фиксируем их в outbox в той же транзакции
+        UserResponseDto updatedUser = getUserById(id);
+        outboxService.append(OutboxService.AGGREGATE_USER, id, OutboxService.USER_UPDATED, updatedUser);
+
+        return updatedUser;
     }
 
     /**
      * УДАЛЕНИЕ ПОЛЬЗОВАТЕЛЯ
      * Демонстрация DELETE запроса с предварительной проверкой
+     * При шардировании удаление на шарде необратимо, поэтому оно выполняется последним шагом:
+     * откатить основную транзакцию после него может только сбой самого COMMIT. Тогда запись
+     * индекса username остается у удаленного пользователя (username занят, поиск по нему - 404),
+     * это логируется ShardRouter.writeInShard и исправляется удалением записи из username_index.
      */
+    @Transactional
     public void deleteUser(UUID id) {
 
+        DSLContext db = shardRouter.forUser(id);
+
         // ПРЕДВАРИТЕЛЬНАЯ ПРОВЕРКА СУЩЕСТВОВАНИЯ
-        // Можно также использовать ON DELETE CASCADE в БД вместо этой проверки
-        if (!ctx.fetchExists(USERS, USERS.ID.eq(id))) {
+        // username нужен, чтобы освободить его в глобальном индексе до удаления на шарде
+        String username = db.select(USERS.USERNAME)
+                .from(USERS)
+                .where(USERS.ID.eq(id))
+                .fetchOne(USERS.USERNAME);
+        if (username == null) {
             throw new UserNotFoundException("User with id " + id + " not found");
         }
 
+        if (shardRouter.isSharded()) {
+            usernameIndex.remove(username);
+        }
+        outboxService.append(OutboxService.AGGREGATE_USER, id, OutboxService.USER_DELETED, Map.of("id", id));
+
         // ВЫПОЛНЕНИЕ DELETE ЗАПРОСА
-        ctx.deleteFrom(USERS)
-                .where(USERS.ID.eq(id))
-                .execute();
+        // address, users_car и снимок связей удаляются каскадом (ON DELETE CASCADE)
+        shardRouter.writeInShard(
+                "delete user " + id,
+                db,
+                shardDb -> shardDb.deleteFrom(USERS).where(USERS.ID.eq(id)).execute(),
+                null
+        );
+
+        usernameFilter.recordDeleted(1);
     }
 
     /**
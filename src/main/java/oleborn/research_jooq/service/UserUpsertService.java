@@ -0,0 +1,365 @@
+package oleborn.research_jooq.service;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.RequiredArgsConstructor;
+import oleborn.research_jooq.dto.*;
+import org.jooq.DSLContext;
+import org.jooq.Record;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import static oleborn.research_jooq.jooq.tables.Users.USERS;
+
+/**
+ * UPSERT ПОЛЬЗОВАТЕЛЯ СО СВЯЗЯМИ ПО username - ОДИН ЗАПРОС НА ПАЧКУ
+ * <p>
+ * Для синхронизации вместо GET + POST/PATCH на каждого пользователя. Вся пачка уходит
+ * одним SQL-запросом с data-modifying CTE:
+ * - users: INSERT ... ON CONFLICT (username) DO UPDATE ... RETURNING (xmax = 0 - строка вставлена)
+ * - address: UPDATE существующего, INSERT недостающего, DELETE если адрес не передан
+ * - машины: сравнение мультимножеств (model, release_year) с текущими - удаляются только лишние,
+ *   вставляются только недостающие, совпадающие машины не трогаются
+ * - снимок связей и событие outbox - в том же запросе
+ * <p>
+ * Семантика PUT - полная замена: адрес null удаляет адрес, cars null или [] удаляет все машины.
+ * Итоговое состояние известно заранее (это сам запрос), поэтому снимок и событие строятся из него.
+ * <p>
+ * Все CTE видят один снимок данных, взятый в начале запроса: два параллельных PUT одного username
+ * оба не нашли бы адрес и недостающие машины и вставили бы их дважды. Поэтому перед запросом
+ * отдельным оператором берутся блокировки (см. LOCK_USERNAMES) - второй PUT ждет COMMIT первого,
+ * и его запрос, начатый уже после ожидания, видит результат первого.
+ */
+@Service
+@RequiredArgsConstructor
+public class UserUpsertService {
+
+    /**
+     * Транзакционные advisory-блокировки по username: покрывают и еще не созданных пользователей,
+     * строки которых нечем заблокировать. Порядок по хешу одинаков у всех транзакций - без взаимных
+     * блокировок; OFFSET 0 не дает планировщику поднять подзапрос, и функция вызывается после сортировки
+     */
+    private static final String LOCK_USERNAMES = """
+            SELECT count(pg_advisory_xact_lock('users'::regclass::oid::int, hashtext(username)))
+            FROM (SELECT username
+                  FROM unnest(?::varchar[]) AS u(username)
+                  ORDER BY hashtext(username)
+                  OFFSET 0) ordered
+            """;
+
+    private static final String UPSERT_CTE = """
+            WITH input AS (
+                SELECT *
+                FROM unnest(?::uuid[], ?::varchar[], ?::int[], ?::boolean[], ?::varchar[], ?::int[], ?::int[], ?::text[])
+                         AS i(new_id, username, age, has_address, city, build, apartment, document)
+            ),
+            car_input AS (
+                SELECT *
+                FROM unnest(?::varchar[], ?::varchar[], ?::int[]) AS c(username, model, release_year)
+            ),
+            upserted AS (
+                INSERT INTO users (id, username, age)
+                SELECT new_id, username, age
+                FROM input
+                ON CONFLICT (username) DO UPDATE SET age = EXCLUDED.age, updated_at = NOW()
+                RETURNING id, username, (xmax = 0) AS inserted
+            ),
+            target AS (
+                SELECT u.id AS user_id, u.inserted, i.*
+                FROM upserted u
+                         JOIN input i ON i.username = u.username
+            ),
+            address_updated AS (
+                UPDATE address a
+                SET city = t.city, build = t.build, apartment = t.apartment, updated_at = NOW()
+                FROM target t
+                WHERE a.user_id = t.user_id AND t.has_address
+                RETURNING a.user_id
+            ),
+            address_inserted AS (
+                INSERT INTO address (id, user_id, city, build, apartment)
+                SELECT gen_random_uuid(), t.user_id, t.city, t.build, t.apartment
+                FROM target t
+                WHERE t.has_address
+                  AND NOT EXISTS (SELECT 1 FROM address_updated au WHERE au.user_id = t.user_id)
+            ),
+            address_deleted AS (
+                DELETE FROM address a
+                USING target t
+                WHERE a.user_id = t.user_id AND NOT t.has_address
+            ),
+            desired AS (
+                SELECT t.user_id, c.model, c.release_year,
+                       row_number() OVER (PARTITION BY t.user_id, c.model, c.release_year) AS n
+                FROM car_input c
+                         JOIN target t ON t.username = c.username
+            ),
+            current_cars AS (
+                SELECT uc.id AS link_id, uc.user_id, c.id AS car_id, c.model, c.release_year,
+                       row_number() OVER (PARTITION BY uc.user_id, c.model, c.release_year ORDER BY c.id) AS n
+                FROM target t
+                         JOIN users_car uc ON uc.user_id = t.user_id
+                         JOIN car c ON c.id = uc.car_id
+            ),
+            links_deleted AS (
+                DELETE FROM users_car uc
+                USING current_cars cur
+                WHERE uc.id = cur.link_id AND uc.user_id = cur.user_id
+                  AND NOT EXISTS (SELECT 1
+                                  FROM desired d
+                                  WHERE d.user_id = cur.user_id
+                                    AND d.model IS NOT DISTINCT FROM cur.model
+                                    AND d.release_year IS NOT DISTINCT FROM cur.release_year
+                                    AND d.n = cur.n)
+                RETURNING uc.car_id, uc.user_id
+            ),
+            cars_deleted AS (
+                DELETE FROM car c
+                USING links_deleted ld
+                WHERE c.id = ld.car_id
+                  AND NOT EXISTS (SELECT 1 FROM users_car other WHERE other.car_id = c.id AND other.user_id <> ld.user_id)
+            ),
+            new_cars AS MATERIALIZED (
+                SELECT gen_random_uuid() AS car_id, d.user_id, d.model, d.release_year
+                FROM desired d
+                WHERE NOT EXISTS (SELECT 1
+                                  FROM current_cars cur
+                                  WHERE cur.user_id = d.user_id
+                                    AND cur.model IS NOT DISTINCT FROM d.model
+                                    AND cur.release_year IS NOT DISTINCT FROM d.release_year
+                                    AND cur.n = d.n)
+            ),
+            cars_inserted AS (
+                INSERT INTO car (id, model, release_year)
+                SELECT car_id, model, release_year
+                FROM new_cars
+            ),
+            links_inserted AS (
+                INSERT INTO users_car (id, user_id, car_id)
+                SELECT gen_random_uuid(), user_id, car_id
+                FROM new_cars
+            ),
+            snapshots AS (
+                INSERT INTO user_relations_snapshot (username, user_id, snapshot, format_version, updated_at)
+                SELECT t.username, t.user_id, t.document::jsonb, ?, NOW()
+                FROM target t
+                ON CONFLICT (user_id) DO UPDATE SET snapshot       = EXCLUDED.snapshot,
+                                                    format_version = EXCLUDED.format_version,
+                                                    updated_at     = EXCLUDED.updated_at
+            )
+            """;
+
+    // Без шардирования событие outbox пишется тем же запросом
+    private static final String OUTBOX_CTE = """
+            , outbox AS (
+                INSERT INTO outbox_event (aggregate_type, aggregate_id, event_type, payload)
+                SELECT ?, t.user_id, CASE WHEN t.inserted THEN ? ELSE ? END, t.document
+                FROM target t
+            )
+            """;
+
+    private static final String RESULT = """
+            SELECT t.user_id, t.username, t.inserted
+            FROM target t
+            """;
+
+    private final DSLContext ctx;
+    private final ShardRouter shardRouter;
+    private final UsernameIndex usernameIndex;
+    private final UsernameFilter usernameFilter;
+    private final OutboxService outboxService;
+    private final ObjectMapper objectMapper;
+
+    @Transactional
+    public UpsertResultDto upsertUserWithRelations(String username, CreateUserWithRelationsRequest request) {
+        CreateUserRequest user = request.user();
+        CreateUserWithRelationsRequest keyed = new CreateUserWithRelationsRequest(
+                new CreateUserRequest(username, user != null ? user.email() : null,
+                        user != null ? user.firstName() : null, user != null ? user.age() : null),
+                request.address(),
+                request.cars()
+        );
+        return upsertUsersWithRelations(List.of(keyed)).get(0);
+    }
+
+    /**
+     * ПАКЕТНЫЙ UPSERT
+     * Повторы одного username в пачке схлопываются (побеждает последний):
+     * ON CONFLICT DO UPDATE не может изменить одну строку дважды за запрос.
+     *
+     * @return результаты в порядке первого появления username
+     */
+    @Transactional
+    public List<UpsertResultDto> upsertUsersWithRelations(List<CreateUserWithRelationsRequest> requests) {
+
+        Map<String, UserWithRelationsDto> documents = new LinkedHashMap<>();
+        for (CreateUserWithRelationsRequest request : requests) {
+            documents.put(request.user().username(), toDocument(request));
+        }
+        if (documents.isEmpty()) return List.of();
+
+        Map<String, Boolean> created = shardRouter.isSharded()
+                ? upsertSharded(documents)
+                : execute(ctx, documents, new HashMap<>(), true);
+
+        List<UpsertResultDto> results = new ArrayList<>(documents.size());
+        documents.forEach((username, document) -> {
+            usernameFilter.add(username);
+            results.add(new UpsertResultDto(document, created.get(username)));
+        });
+        return results;
+    }
+
+    /**
+     * ШАРДИРОВАННЫЙ ВАРИАНТ
+     * Существующие пользователи находятся одним запросом к глобальному индексу,
+     * новые занимают username в индексе; затем по запросу на каждый затронутый шард.
+     * Outbox живет в основной БД, поэтому события пишутся отдельно.
+     * Каждый шард пишется своей транзакцией и коммитится раньше основной БД. Если основная транзакция
+     * затем откатится, созданные на шардах пользователи удаляются, а обновленные сохраняют новые значения
+     * без события в outbox - повтор того же запроса приводит к тому же состоянию и пишет события.
+     */
+    private Map<String, Boolean> upsertSharded(Map<String, UserWithRelationsDto> documents) {
+        Map<String, UsernameIndex.Entry> known = usernameIndex.lookupAll(documents.keySet());
+
+        Map<String, Map<String, UserWithRelationsDto>> byShard = new LinkedHashMap<>();
+        Map<String, UUID> ids = new HashMap<>();
+        documents.forEach((username, document) -> {
+            UsernameIndex.Entry entry = known.get(username);
+            UUID userId = entry != null ? entry.userId() : UUID.randomUUID();
+            String shard = entry != null ? entry.shard() : shardRouter.shardOf(userId);
+            if (entry == null) {
+                usernameIndex.register(username, userId, shard);
+            }
+            ids.put(username, userId);
+            byShard.computeIfAbsent(shard, s -> new LinkedHashMap<>()).put(username, document);
+        });
+
+        Map<String, Boolean> created = new HashMap<>();
+        byShard.forEach((shard, shardDocuments) -> {
+            List<UUID> newIds = shardDocuments.keySet().stream()
+                    .filter(username -> !known.containsKey(username))
+                    .map(ids::get)
+                    .toList();
+            created.putAll(shardRouter.writeInShard(
+                    "upsert " + shardDocuments.size() + " users on shard " + shard,
+                    shardRouter.shard(shard),
+                    db -> execute(db, shardDocuments, ids, false),
+                    db -> db.deleteFrom(USERS).where(USERS.ID.in(newIds)).execute()
+            ));
+        });
+
+        created.forEach((username, inserted) -> outboxService.append(
+                OutboxService.AGGREGATE_USER,
+                ids.get(username),
+                inserted ? OutboxService.USER_CREATED : OutboxService.USER_UPDATED,
+                documents.get(username)
+        ));
+        return created;
+    }
+
+    /**
+     * @param ids заранее известные id (шардирование); для остальных генерируются новые -
+     *            при конфликте по username используется id существующей строки
+     * @return username -> true, если пользователь создан
+     */
+    private Map<String, Boolean> execute(
+            DSLContext db,
+            Map<String, UserWithRelationsDto> documents,
+            Map<String, UUID> ids,
+            boolean withOutbox
+    ) {
+        int size = documents.size();
+        UUID[] newIds = new UUID[size];
+        String[] usernames = new String[size];
+        Integer[] ages = new Integer[size];
+        Boolean[] hasAddress = new Boolean[size];
+        String[] cities = new String[size];
+        Integer[] builds = new Integer[size];
+        Integer[] apartments = new Integer[size];
+        String[] json = new String[size];
+
+        List<String> carOwners = new ArrayList<>();
+        List<String> carModels = new ArrayList<>();
+        List<Integer> carYears = new ArrayList<>();
+
+        int i = 0;
+        for (Map.Entry<String, UserWithRelationsDto> entry : documents.entrySet()) {
+            UserWithRelationsDto document = entry.getValue();
+            AddressDto address = document.address();
+
+            newIds[i] = ids.getOrDefault(entry.getKey(), UUID.randomUUID());
+            usernames[i] = entry.getKey();
+            ages[i] = document.user().age();
+            hasAddress[i] = address != null;
+            cities[i] = address != null ? address.city() : null;
+            builds[i] = address != null ? address.build() : null;
+            apartments[i] = address != null ? address.apartment() : null;
+            json[i] = toJson(document);
+
+            for (CarDto car : document.cars()) {
+                carOwners.add(entry.getKey());
+                carModels.add(car.model());
+                carYears.add(car.carYear());
+            }
+            i++;
+        }
+
+        // Блокировки - до запроса: его снимок данных берется уже после ожидания параллельных PUT.
+        // Строки существующих пользователей блокируются и от других путей записи графа
+        db.resultQuery(LOCK_USERNAMES, (Object) usernames).fetch();
+        db.select(USERS.ID)
+                .from(USERS)
+                .where(USERS.USERNAME.in(usernames))
+                .orderBy(USERS.ID)
+                .forUpdate()
+                .fetch();
+
+        List<Object> bindings = new ArrayList<>(List.of(
+                newIds, usernames, ages, hasAddress, cities, builds, apartments, json,
+                carOwners.toArray(String[]::new), carModels.toArray(String[]::new), carYears.toArray(Integer[]::new),
+                RelationsSnapshotService.FORMAT_VERSION
+        ));
+        String sql = UPSERT_CTE;
+        if (withOutbox) {
+            sql += OUTBOX_CTE;
+            bindings.addAll(List.of(
+                    OutboxService.AGGREGATE_USER, OutboxService.USER_CREATED, OutboxService.USER_UPDATED));
+        }
+        sql += RESULT;
+
+        Map<String, Boolean> created = new HashMap<>();
+        for (Record r : db.resultQuery(sql, bindings.toArray()).fetch()) {
+            created.put(r.get("username", String.class), r.get("inserted", Boolean.class));
+        }
+        return created;
+    }
+
+    private static UserWithRelationsDto toDocument(CreateUserWithRelationsRequest request) {
+        CreateAddressRequest address = request.address();
+        List<CarDto> cars = request.cars() == null
+                ? List.of()
+                : request.cars().stream().map(car -> new CarDto(car.model(), car.carYear())).toList();
+
+        return new UserWithRelationsDto(
+                new UserResponseDto(request.user().username(), request.user().age()),
+                address != null ? new AddressDto(address.city(), address.build(), address.apartment()) : null,
+                cars
+        );
+    }
+
+    private String toJson(UserWithRelationsDto document) {
+        try {
+            return objectMapper.writeValueAsString(document);
+        } catch (JsonProcessingException e) {
+            throw new IllegalArgumentException("Failed to serialize user " + document.user().username(), e);
+        }
+    }
+}
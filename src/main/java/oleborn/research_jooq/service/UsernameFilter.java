@@ -0,0 +1,334 @@
+package oleborn.research_jooq.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import oleborn.research_jooq.config.UsernameFilterProperties;
+import oleborn.research_jooq.excepption.UsernameAlreadyExistsException;
+import org.jooq.DSLContext;
+import org.jooq.Field;
+import org.jooq.Record1;
+import org.jooq.Table;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.stream.Stream;
+
+import static oleborn.research_jooq.jooq.tables.UsernameIndex.USERNAME_INDEX;
+import static oleborn.research_jooq.jooq.tables.Users.USERS;
+
+/**
+ * BLOOM-ФИЛЬТР ПО users.username
+ * <p>
+ * Только подсказка для проверки перед созданием пользователя:
+ * - "точно нет" - предварительный запрос существования пропускается, дубликат все равно
+ *   отсечет UNIQUE-индекс (DuplicateKeyException по users_username_key -> 409)
+ * - "может быть" - выполняется запрос, и дубликат отклоняется до вставки
+ * - фильтр выключен или еще не построен - запроса нет, как и без фильтра: проверяет только UNIQUE-индекс
+ * Фильтр живет в памяти одного процесса и не видит строки, записанные другими узлами,
+ * миграциями или напрямую в БД, поэтому его ответ никогда не считается доказательством
+ * отсутствия пользователя: чтение всегда идет в БД.
+ * <p>
+ * Фильтр строится при старте потоковым чтением username (fetchSize + курсор), дополняется
+ * после коммита создания пользователей. Удалять из Bloom-фильтра нельзя, поэтому удаления только
+ * считаются, и при большой доле удаленных фильтр перестраивается заново.
+ * Пока фильтр не построен (или выключен), definitelyAbsent() отвечает "может быть".
+ * Построение и перестроение выполняются в собственном потоке, а не в общем потоке @Scheduled задач.
+ * При шардировании источник username - глобальный индекс username_index в основной БД.
+ */
+@Slf4j
+@Component
+public class UsernameFilter {
+
+    private final DSLContext ctx;
+    private final UsernameFilterProperties properties;
+    private final ShardRouter shardRouter;
+
+    // "точно нет" - для Bloom-фильтра это истинно отрицательные ответы
+    private final Counter negativeChecks;
+    private final Counter positiveChecks;
+    private final Counter falsePositives;
+
+    // null - фильтр еще не построен
+    private volatile BloomBits current;
+    // Фильтр, который сейчас перестраивается: новые username пишутся в оба
+    private volatile BloomBits building;
+
+    private final AtomicLong deletedSinceRebuild = new AtomicLong();
+    private final AtomicBoolean rebuilding = new AtomicBoolean();
+
+    // Полное чтение username может идти минутами - не занимаем им поток планировщика
+    private final ExecutorService rebuildExecutor;
+
+    public UsernameFilter(
+            DSLContext ctx,
+            UsernameFilterProperties properties,
+            ShardRouter shardRouter,
+            MeterRegistry registry
+    ) {
+        this.ctx = ctx;
+        this.properties = properties;
+        this.shardRouter = shardRouter;
+
+        CustomizableThreadFactory threads = new CustomizableThreadFactory("username-filter-build-");
+        threads.setDaemon(true);
+        this.rebuildExecutor = Executors.newSingleThreadExecutor(threads);
+
+        this.negativeChecks = Counter.builder("username.filter.checks").tag("result", "absent").register(registry);
+        this.positiveChecks = Counter.builder("username.filter.checks").tag("result", "maybe").register(registry);
+        this.falsePositives = Counter.builder("username.filter.false.positives").register(registry);
+
+        Gauge.builder("username.filter.false.positive.rate", this, UsernameFilter::observedFalsePositiveRate)
+                .description("Доля ложных 'может быть' среди username, которых нет в БД: FP / (FP + TN)")
+                .register(registry);
+        Gauge.builder("username.filter.expected.false.positive.rate", this, UsernameFilter::expectedFalsePositiveRate)
+                .description("Теоретическая вероятность ложного срабатывания при текущем заполнении")
+                .register(registry);
+    }
+
+    /**
+     * @return true - username не добавлялся в фильтр этого процесса (в БД он все равно может быть)
+     */
+    public boolean definitelyAbsent(String username) {
+        BloomBits bits = current;
+        if (bits == null || username == null) return false;
+
+        boolean absent = !bits.mightContain(username);
+        (absent ? negativeChecks : positiveChecks).increment();
+        return absent;
+    }
+
+    /**
+     * ПРОВЕРКА ПЕРЕД СОЗДАНИЕМ ПОЛЬЗОВАТЕЛЯ
+     * Известный фильтру username проверяется запросом, и дубликат отклоняется до вставки.
+     * Для неизвестного фильтру username, а также пока фильтр выключен или не построен, запрос
+     * пропускается: окончательную проверку выполняет UNIQUE-индекс при вставке,
+     * и создание не делает лишнего обращения к БД по сравнению с работой без фильтра.
+     */
+    public void ensureAvailable(String username) {
+        if (current == null || definitelyAbsent(username)) return;
+
+        if (ctx.fetchExists(source(), usernameField().eq(username))) {
+            throw new UsernameAlreadyExistsException("User with username " + username + " already exists");
+        }
+        recordFalsePositive();
+    }
+
+    /**
+     * Фильтр ответил "может быть", а БД пользователя не нашла
+     */
+    public void recordFalsePositive() {
+        if (current != null) {
+            falsePositives.increment();
+        }
+    }
+
+    /**
+     * ДОБАВЛЕНИЕ ПОСЛЕ КОММИТА
+     * Внутри транзакции username попадает в фильтр только после COMMIT: тогда строку либо уже видит
+     * чтение перестраиваемого фильтра, либо она попадет в building. Добавление до коммита
+     * могло бы записаться только в старый фильтр, а строку чтение при перестроении еще не увидело бы.
+     */
+    public void add(String username) {
+        if (username == null) return;
+
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    put(username);
+                }
+            });
+        } else {
+            put(username);
+        }
+    }
+
+    // Порядок чтения важен: rebuild() публикует current раньше, чем обнуляет building,
+    // поэтому при building == null current уже указывает на новый фильтр
+    private void put(String username) {
+        BloomBits next = building;
+        if (next != null) next.put(username);
+
+        BloomBits bits = current;
+        if (bits != null && bits != next) bits.put(username);
+    }
+
+    public void recordDeleted(long count) {
+        deletedSinceRebuild.addAndGet(count);
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void buildOnStartup() {
+        if (!properties.enabled()) return;
+
+        // Не задерживаем готовность приложения: до окончания построения фильтр просто не используется
+        rebuildExecutor.execute(this::rebuild);
+    }
+
+    /**
+     * ПЕРЕСТРОЕНИЕ ПРИ ПЕРЕПОЛНЕНИИ ИЛИ БОЛЬШОЙ ДОЛЕ УДАЛЕННЫХ
+     * Планировщик только проверяет условие, само перестроение уходит в rebuildExecutor
+     */
+    @Scheduled(fixedDelayString = "PT10M", initialDelayString = "PT10M")
+    public void rebuildIfStale() {
+        BloomBits bits = current;
+        if (bits == null) return;
+
+        long insertions = bits.insertions.get();
+        boolean overfilled = insertions > bits.capacity;
+        boolean tooManyDeleted = deletedSinceRebuild.get() > insertions * properties.maxDeletedRatio();
+
+        if (overfilled || tooManyDeleted) {
+            rebuildExecutor.execute(this::rebuild);
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        rebuildExecutor.shutdownNow();
+    }
+
+    public void rebuild() {
+        if (!rebuilding.compareAndSet(false, true)) return;
+
+        try {
+            long started = System.nanoTime();
+
+            // Запас x2 на рост до следующего перестроения
+            long capacity = Math.max(properties.expectedInsertions(), ctx.fetchCount(source()) * 2L);
+            BloomBits next = new BloomBits(capacity, properties.falsePositiveProbability());
+            // building публикуется до чтения: все, что закоммичено позже начала чтения, добавит put()
+            building = next;
+            deletedSinceRebuild.set(0);
+
+            // Курсорное чтение в PostgreSQL работает только внутри транзакции
+            ctx.transaction(cfg -> {
+                try (Stream<String> usernames = cfg.dsl().select(usernameField())
+                        .from(source())
+                        .fetchSize(properties.fetchSize())
+                        .fetchStream()
+                        .map(Record1::value1)) {
+                    usernames.forEach(next::put);
+                }
+            });
+
+            current = next;
+            building = null;
+            log.info("Username filter built: {} usernames, {} bits, {} hashes in {} ms",
+                    next.insertions.get(), next.bitCount, next.hashCount,
+                    (System.nanoTime() - started) / 1_000_000);
+        } catch (RuntimeException e) {
+            log.warn("Failed to build username filter, lookups will go to the database: {}", e.getMessage());
+        } finally {
+            building = null;
+            rebuilding.set(false);
+        }
+    }
+
+    private Table<?> source() {
+        return shardRouter.isSharded() ? USERNAME_INDEX : USERS;
+    }
+
+    private Field<String> usernameField() {
+        return shardRouter.isSharded() ? USERNAME_INDEX.USERNAME : USERS.USERNAME;
+    }
+
+    // Знаменатель - все username, которых нет в БД: ложные "может быть" и истинные "точно нет"
+    private double observedFalsePositiveRate() {
+        double absent = falsePositives.count() + negativeChecks.count();
+        return absent == 0 ? 0.0 : falsePositives.count() / absent;
+    }
+
+    private double expectedFalsePositiveRate() {
+        BloomBits bits = current;
+        return bits == null ? 0.0 : bits.expectedFalsePositiveRate();
+    }
+
+    /**
+     * БИТОВЫЙ МАССИВ BLOOM-ФИЛЬТРА
+     * AtomicLongArray позволяет добавлять элементы из разных потоков без блокировок.
+     * Позиции битов - двойное хеширование: h1 + i * h2.
+     */
+    static final class BloomBits {
+
+        private final AtomicLongArray words;
+        private final long bitCount;
+        private final int hashCount;
+        private final long capacity;
+        private final AtomicLong insertions = new AtomicLong();
+
+        BloomBits(long capacity, double falsePositiveProbability) {
+            double ln2 = Math.log(2);
+            long bits = (long) Math.ceil(-capacity * Math.log(falsePositiveProbability) / (ln2 * ln2));
+
+            this.capacity = capacity;
+            this.words = new AtomicLongArray((int) Math.max(1, (bits + 63) >>> 6));
+            this.bitCount = words.length() * 64L;
+            this.hashCount = Math.max(1, (int) Math.round((double) bitCount / capacity * ln2));
+        }
+
+        void put(String value) {
+            long h1 = hash(value);
+            long h2 = mix(h1 ^ 0x9E3779B97F4A7C15L) | 1;
+            for (int i = 0; i < hashCount; i++) {
+                long index = Math.floorMod(h1 + i * h2, bitCount);
+                long mask = 1L << index;
+                words.getAndAccumulate((int) (index >>> 6), mask, (word, bit) -> word | bit);
+            }
+            insertions.incrementAndGet();
+        }
+
+        boolean mightContain(String value) {
+            long h1 = hash(value);
+            long h2 = mix(h1 ^ 0x9E3779B97F4A7C15L) | 1;
+            for (int i = 0; i < hashCount; i++) {
+                long index = Math.floorMod(h1 + i * h2, bitCount);
+                if ((words.get((int) (index >>> 6)) & (1L << index)) == 0) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        long bitCount() {
+            return bitCount;
+        }
+
+        int hashCount() {
+            return hashCount;
+        }
+
+        double expectedFalsePositiveRate() {
+            return Math.pow(1 - Math.exp(-(double) hashCount * insertions.get() / bitCount), hashCount);
+        }
+
+        // FNV-1a по символам строки + финализатор SplitMix64 для равномерного распределения битов
+        private static long hash(String value) {
+            long h = 0xcbf29ce484222325L;
+            for (int i = 0; i < value.length(); i++) {
+                h ^= value.charAt(i);
+                h *= 0x100000001b3L;
+            }
+            return mix(h);
+        }
+
+        private static long mix(long z) {
+            z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+            z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+            return z ^ (z >>> 31);
+        }
+    }
+}
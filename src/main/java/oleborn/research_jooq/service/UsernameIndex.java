@@ -0,0 +1,76 @@
+package oleborn.research_jooq.service;
+
+import lombok.RequiredArgsConstructor;
+import oleborn.research_jooq.excepption.UsernameAlreadyExistsException;
+import org.jooq.DSLContext;
+import org.springframework.stereotype.Service;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+
+import static oleborn.research_jooq.jooq.tables.UsernameIndex.USERNAME_INDEX;
+
+/**
+ * ГЛОБАЛЬНЫЙ ИНДЕКС username -> (user_id, шард)
+ * <p>
+ * Хранится в основной БД. При шардировании username перестает быть ключом маршрутизации,
+ * поэтому поиск по нему без индекса означал бы запрос ко всем шардам.
+ * PRIMARY KEY по username заодно обеспечивает уникальность username между шардами:
+ * запись в индекс делается до вставки в шард.
+ */
+@Service
+@RequiredArgsConstructor
+public class UsernameIndex {
+
+    private final DSLContext ctx;
+
+    public record Entry(UUID userId, String shard) {}
+
+    public Optional<Entry> lookup(String username) {
+        return ctx.select(USERNAME_INDEX.USER_ID, USERNAME_INDEX.SHARD)
+                .from(USERNAME_INDEX)
+                .where(USERNAME_INDEX.USERNAME.eq(username))
+                .fetchOptional(r -> new Entry(r.value1(), r.value2()));
+    }
+
+    /**
+     * Поиск пачки username одним запросом
+     *
+     * @return только найденные username
+     */
+    public Map<String, Entry> lookupAll(Collection<String> usernames) {
+        return ctx.select(USERNAME_INDEX.USERNAME, USERNAME_INDEX.USER_ID, USERNAME_INDEX.SHARD)
+                .from(USERNAME_INDEX)
+                .where(USERNAME_INDEX.USERNAME.in(usernames))
+                .fetchMap(USERNAME_INDEX.USERNAME, r -> new Entry(r.value2(), r.value3()));
+    }
+
+    public boolean exists(String username) {
+        return ctx.fetchExists(USERNAME_INDEX, USERNAME_INDEX.USERNAME.eq(username));
+    }
+
+    /**
+     * ЗАНЯТЬ username ЗА ПОЛЬЗОВАТЕЛЕМ
+     * INSERT ... ON CONFLICT DO NOTHING: 0 строк - username уже занят на каком-то шарде
+     */
+    public void register(String username, UUID userId, String shard) {
+        int inserted = ctx.insertInto(USERNAME_INDEX)
+                .set(USERNAME_INDEX.USERNAME, username)
+                .set(USERNAME_INDEX.USER_ID, userId)
+                .set(USERNAME_INDEX.SHARD, shard)
+                .onConflictDoNothing()
+                .execute();
+
+        if (inserted == 0) {
+            throw new UsernameAlreadyExistsException("User with username " + username + " already exists");
+        }
+    }
+
+    public void remove(String username) {
+        ctx.deleteFrom(USERNAME_INDEX)
+                .where(USERNAME_INDEX.USERNAME.eq(username))
+                .execute();
+    }
+}
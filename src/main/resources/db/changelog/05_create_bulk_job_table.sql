@@ -0,0 +1,14 @@
+CREATE TABLE bulk_job
+(
+    id              UUID PRIMARY KEY,
+    job_type        VARCHAR(50) NOT NULL,
+    status          VARCHAR(20) NOT NULL,
+    total_items     BIGINT DEFAULT 0 NOT NULL,
+    processed_items BIGINT DEFAULT 0 NOT NULL,
+    failed_items    BIGINT DEFAULT 0 NOT NULL,
+    last_error      VARCHAR(1000),
+    created_at      TIMESTAMP DEFAULT NOW(),
+    started_at      TIMESTAMP,
+    finished_at     TIMESTAMP,
+    updated_at      TIMESTAMP DEFAULT NOW()
+);
@@ -0,0 +1,9 @@
+CREATE TABLE change_feed
+(
+    seq        BIGINT GENERATED BY DEFAULT AS IDENTITY PRIMARY KEY,
+    table_name VARCHAR(50) NOT NULL,
+    operation  VARCHAR(10) NOT NULL,
+    row_id     UUID        NOT NULL,
+    user_id    UUID,
+    created_at TIMESTAMP DEFAULT NOW()
+);
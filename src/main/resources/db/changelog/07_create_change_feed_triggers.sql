@@ -0,0 +1,54 @@
+-- Каждое изменение пишется в change_feed и публикуется через NOTIFY.
+-- NOTIFY доставляется слушателям только после COMMIT, откаченные изменения не публикуются.
+CREATE OR REPLACE FUNCTION publish_change() RETURNS TRIGGER AS
+$$
+DECLARE
+    changed    RECORD;
+    evt_seq    BIGINT;
+    evt_user   UUID;
+    evt_time   TIMESTAMP;
+BEGIN
+    IF TG_OP = 'DELETE' THEN
+        changed := OLD;
+    ELSE
+        changed := NEW;
+    END IF;
+
+    IF TG_TABLE_NAME = 'users' THEN
+        evt_user := changed.id;
+    ELSIF TG_TABLE_NAME IN ('address', 'users_car') THEN
+        evt_user := changed.user_id;
+    END IF;
+
+    INSERT INTO change_feed (table_name, operation, row_id, user_id)
+    VALUES (TG_TABLE_NAME, TG_OP, changed.id, evt_user)
+    RETURNING seq, created_at INTO evt_seq, evt_time;
+
+    PERFORM pg_notify('change_feed', json_build_object(
+            'seq', evt_seq,
+            'table', TG_TABLE_NAME,
+            'operation', TG_OP,
+            'rowId', changed.id,
+            'userId', evt_user,
+            'createdAt', evt_time
+        )::text);
+
+    RETURN NULL;
+END;
+$$ LANGUAGE plpgsql;
+
+CREATE TRIGGER users_change_feed
+    AFTER INSERT OR UPDATE OR DELETE ON users
+    FOR EACH ROW EXECUTE FUNCTION publish_change();
+
+CREATE TRIGGER address_change_feed
+    AFTER INSERT OR UPDATE OR DELETE ON address
+    FOR EACH ROW EXECUTE FUNCTION publish_change();
+
+CREATE TRIGGER car_change_feed
+    AFTER INSERT OR UPDATE OR DELETE ON car
+    FOR EACH ROW EXECUTE FUNCTION publish_change();
+
+CREATE TRIGGER users_car_change_feed
+    AFTER INSERT OR UPDATE OR DELETE ON users_car
+    FOR EACH ROW EXECUTE FUNCTION publish_change();
@@ -0,0 +1,9 @@
+CREATE TABLE outbox_event
+(
+    id             BIGINT GENERATED BY DEFAULT AS IDENTITY PRIMARY KEY,
+    aggregate_type VARCHAR(50) NOT NULL,
+    aggregate_id   UUID        NOT NULL,
+    event_type     VARCHAR(50) NOT NULL,
+    payload        TEXT        NOT NULL,
+    created_at     TIMESTAMP DEFAULT NOW()
+);
@@ -0,0 +1,13 @@
+CREATE TABLE idempotency_key
+(
+    scope           VARCHAR(100) NOT NULL,
+    request_key     VARCHAR(255) NOT NULL,
+    request_hash    VARCHAR(64)  NOT NULL,
+    status          VARCHAR(20)  NOT NULL,
+    response_status INTEGER,
+    response_body   TEXT,
+    created_at      TIMESTAMP DEFAULT NOW(),
+    expires_at      TIMESTAMP    NOT NULL,
+
+    PRIMARY KEY (scope, request_key)
+);
@@ -0,0 +1,135 @@
+-- ПАРТИЦИОНИРОВАНИЕ address И users_car ПО user_id (ШАГ 1 ИЗ 3: ПОДГОТОВКА)
+--
+-- Онлайн-миграция без остановки записи:
+--   1. (этот файл) создаются секционированные копии address_part / users_car_part
+--      и триггеры, которые зеркалируют каждую запись в старые таблицы
+--   2. (11_*) существующие строки переносятся чанками, каждый чанк - отдельная транзакция
+--   3. (12_*) удаляются "призраки", и в одной короткой транзакции таблицы меняются местами
+--
+-- Первичный ключ секционированной таблицы обязан содержать ключ секционирования,
+-- поэтому PK становится (id, user_id). Для jOOQ это незаметно: кодогенерация
+-- работает по 03/04_*.sql, а эти changeSet'ы выполняются только на PostgreSQL.
+
+CREATE TABLE address_part
+(
+    id         UUID        NOT NULL,
+    user_id    UUID        NOT NULL,
+    city       VARCHAR(50) NOT NULL,
+    build      INTEGER,
+    apartment  INTEGER,
+    created_at TIMESTAMP DEFAULT NOW(),
+    updated_at TIMESTAMP DEFAULT NOW(),
+
+    PRIMARY KEY (id, user_id),
+    FOREIGN KEY (user_id) REFERENCES users (id) ON DELETE CASCADE
+) PARTITION BY HASH (user_id);
+
+CREATE TABLE users_car_part
+(
+    id         UUID NOT NULL,
+    user_id    UUID NOT NULL,
+    car_id     UUID NOT NULL,
+    created_at TIMESTAMP DEFAULT NOW(),
+    updated_at TIMESTAMP DEFAULT NOW(),
+
+    PRIMARY KEY (id, user_id),
+    FOREIGN KEY (user_id) REFERENCES users (id) ON DELETE CASCADE,
+    FOREIGN KEY (car_id) REFERENCES car (id) ON DELETE CASCADE,
+
+    UNIQUE (user_id, car_id)
+) PARTITION BY HASH (user_id);
+
+-- 8 секций: чтение и каскадное удаление по user_id затрагивают одну,
+-- VACUUM и перестроение индексов выполняются по секциям параллельно
+DO
+$$
+BEGIN
+    FOR i IN 0..7 LOOP
+        EXECUTE format('CREATE TABLE address_p%s PARTITION OF address_part FOR VALUES WITH (MODULUS 8, REMAINDER %s)', i, i);
+        EXECUTE format('CREATE TABLE users_car_p%s PARTITION OF users_car_part FOR VALUES WITH (MODULUS 8, REMAINDER %s)', i, i);
+    END LOOP;
+END
+$$;
+
+-- Поиск адреса по пользователю (в старой таблице индекса не было - только seq scan)
+CREATE INDEX idx_address_part_user_id ON address_part (user_id);
+-- Каскад ON DELETE из car
+CREATE INDEX idx_users_car_part_car_id ON users_car_part (car_id);
+
+-- ЗЕРКАЛИРОВАНИЕ ЗАПИСИ ИЗ СТАРЫХ ТАБЛИЦ
+CREATE OR REPLACE FUNCTION mirror_address_to_part() RETURNS TRIGGER AS
+$$
+BEGIN
+    IF TG_OP IN ('UPDATE', 'DELETE') THEN
+        DELETE FROM address_part WHERE id = OLD.id AND user_id = OLD.user_id;
+    END IF;
+    IF TG_OP IN ('INSERT', 'UPDATE') THEN
+        INSERT INTO address_part (id, user_id, city, build, apartment, created_at, updated_at)
+        VALUES (NEW.id, NEW.user_id, NEW.city, NEW.build, NEW.apartment, NEW.created_at, NEW.updated_at)
+        ON CONFLICT (id, user_id) DO NOTHING;
+    END IF;
+    RETURN NULL;
+END;
+$$ LANGUAGE plpgsql;
+
+CREATE OR REPLACE FUNCTION mirror_users_car_to_part() RETURNS TRIGGER AS
+$$
+BEGIN
+    IF TG_OP IN ('UPDATE', 'DELETE') THEN
+        DELETE FROM users_car_part WHERE id = OLD.id AND user_id = OLD.user_id;
+    END IF;
+    IF TG_OP IN ('INSERT', 'UPDATE') THEN
+        INSERT INTO users_car_part (id, user_id, car_id, created_at, updated_at)
+        VALUES (NEW.id, NEW.user_id, NEW.car_id, NEW.created_at, NEW.updated_at)
+        ON CONFLICT (id, user_id) DO NOTHING;
+    END IF;
+    RETURN NULL;
+END;
+$$ LANGUAGE plpgsql;
+
+CREATE TRIGGER address_mirror_to_part
+    AFTER INSERT OR UPDATE OR DELETE ON address
+    FOR EACH ROW EXECUTE FUNCTION mirror_address_to_part();
+
+CREATE TRIGGER users_car_mirror_to_part
+    AFTER INSERT OR UPDATE OR DELETE ON users_car
+    FOR EACH ROW EXECUTE FUNCTION mirror_users_car_to_part();
+
+-- ПЕРЕНОС СУЩЕСТВУЮЩИХ СТРОК ЧАНКАМИ (вызывается в 11_*, вне транзакции Liquibase)
+CREATE OR REPLACE PROCEDURE backfill_partitioned_relations(batch_size INTEGER) AS
+$$
+DECLARE
+    last_id UUID;
+    copied  INTEGER;
+BEGIN
+    last_id := '00000000-0000-0000-0000-000000000000';
+    LOOP
+        WITH chunk AS (
+            SELECT * FROM address WHERE id > last_id ORDER BY id LIMIT batch_size
+        ), inserted AS (
+            INSERT INTO address_part (id, user_id, city, build, apartment, created_at, updated_at)
+            SELECT id, user_id, city, build, apartment, created_at, updated_at FROM chunk
+            ON CONFLICT (id, user_id) DO NOTHING
+        )
+        SELECT count(*), (array_agg(id ORDER BY id DESC))[1] INTO copied, last_id FROM chunk;
+
+        EXIT WHEN copied = 0;
+        COMMIT;
+    END LOOP;
+
+    last_id := '00000000-0000-0000-0000-000000000000';
+    LOOP
+        WITH chunk AS (
+            SELECT * FROM users_car WHERE id > last_id ORDER BY id LIMIT batch_size
+        ), inserted AS (
+            INSERT INTO users_car_part (id, user_id, car_id, created_at, updated_at)
+            SELECT id, user_id, car_id, created_at, updated_at FROM chunk
+            ON CONFLICT (id, user_id) DO NOTHING
+        )
+        SELECT count(*), (array_agg(id ORDER BY id DESC))[1] INTO copied, last_id FROM chunk;
+
+        EXIT WHEN copied = 0;
+        COMMIT;
+    END LOOP;
+END;
+$$ LANGUAGE plpgsql;
@@ -0,0 +1,5 @@
+-- ПАРТИЦИОНИРОВАНИЕ (ШАГ 2 ИЗ 3): ПЕРЕНОС СУЩЕСТВУЮЩИХ СТРОК
+-- Выполняется вне транзакции (runInTransaction: false): процедура коммитит каждый чанк,
+-- поэтому блокировки короткие, а прогресс не теряется при обрыве - повторный запуск
+-- продолжит с ON CONFLICT DO NOTHING. Новые записи в это время копируют триггеры из 10_*.
+CALL backfill_partitioned_relations(10000);
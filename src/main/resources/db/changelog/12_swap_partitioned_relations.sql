@@ -0,0 +1,85 @@
+-- ПАРТИЦИОНИРОВАНИЕ (ШАГ 3 ИЗ 3): СВЕРКА И ПОДМЕНА ТАБЛИЦ
+--
+-- Строка, удаленная во время переноса, могла быть скопирована из старого снимка уже после
+-- того, как триггер удалил ее копию. Перенос завершен, поэтому новых "призраков" не появится
+-- и их достаточно удалить один раз.
+DELETE FROM address_part p
+WHERE NOT EXISTS (SELECT 1 FROM address a WHERE a.id = p.id AND a.user_id = p.user_id);
+
+DELETE FROM users_car_part p
+WHERE NOT EXISTS (SELECT 1 FROM users_car uc WHERE uc.id = p.id AND uc.user_id = p.user_id);
+
+-- Подмена: эксклюзивная блокировка держится только на время переименования
+LOCK TABLE address, users_car IN ACCESS EXCLUSIVE MODE;
+
+DROP TRIGGER address_mirror_to_part ON address;
+DROP TRIGGER users_car_mirror_to_part ON users_car;
+DROP TRIGGER IF EXISTS address_change_feed ON address;
+DROP TRIGGER IF EXISTS users_car_change_feed ON users_car;
+
+ALTER TABLE address RENAME TO address_legacy;
+ALTER TABLE users_car RENAME TO users_car_legacy;
+ALTER TABLE address_part RENAME TO address;
+ALTER TABLE users_car_part RENAME TO users_car;
+
+-- Старые таблицы больше не участвуют в каскадах при удалении users / car
+ALTER TABLE address_legacy DROP CONSTRAINT IF EXISTS address_user_id_fkey;
+ALTER TABLE users_car_legacy DROP CONSTRAINT IF EXISTS users_car_user_id_fkey;
+ALTER TABLE users_car_legacy DROP CONSTRAINT IF EXISTS users_car_car_id_fkey;
+
+-- Лента изменений (07_*) должна следить уже за секционированными таблицами.
+-- Для секционированной таблицы TG_TABLE_NAME - имя секции (address_p3), поэтому суффикс отрезается
+CREATE OR REPLACE FUNCTION publish_change() RETURNS TRIGGER AS
+$$
+DECLARE
+    changed    RECORD;
+    evt_table  TEXT;
+    evt_seq    BIGINT;
+    evt_user   UUID;
+    evt_time   TIMESTAMP;
+BEGIN
+    IF TG_OP = 'DELETE' THEN
+        changed := OLD;
+    ELSE
+        changed := NEW;
+    END IF;
+
+    evt_table := regexp_replace(TG_TABLE_NAME, '_p[0-9]+$', '');
+
+    IF evt_table = 'users' THEN
+        evt_user := changed.id;
+    ELSIF evt_table IN ('address', 'users_car') THEN
+        evt_user := changed.user_id;
+    END IF;
+
+    INSERT INTO change_feed (table_name, operation, row_id, user_id)
+    VALUES (evt_table, TG_OP, changed.id, evt_user)
+    RETURNING seq, created_at INTO evt_seq, evt_time;
+
+    PERFORM pg_notify('change_feed', json_build_object(
+            'seq', evt_seq,
+            'table', evt_table,
+            'operation', TG_OP,
+            'rowId', changed.id,
+            'userId', evt_user,
+            'createdAt', evt_time
+        )::text);
+
+    RETURN NULL;
+END;
+$$ LANGUAGE plpgsql;
+
+CREATE TRIGGER address_change_feed
+    AFTER INSERT OR UPDATE OR DELETE ON address
+    FOR EACH ROW EXECUTE FUNCTION publish_change();
+
+CREATE TRIGGER users_car_change_feed
+    AFTER INSERT OR UPDATE OR DELETE ON users_car
+    FOR EACH ROW EXECUTE FUNCTION publish_change();
+
+DROP FUNCTION mirror_address_to_part();
+DROP FUNCTION mirror_users_car_to_part();
+DROP PROCEDURE backfill_partitioned_relations(INTEGER);
+
+-- address_legacy / users_car_legacy остаются для отката; удалить после проверки:
+--   DROP TABLE address_legacy, users_car_legacy;
@@ -0,0 +1,7 @@
+CREATE TABLE username_index
+(
+    username   VARCHAR(50) PRIMARY KEY,
+    user_id    UUID        NOT NULL,
+    shard      VARCHAR(50) NOT NULL,
+    created_at TIMESTAMP DEFAULT NOW()
+);
@@ -0,0 +1,28 @@
+CREATE TABLE user_relations_snapshot
+(
+    username       VARCHAR(50) PRIMARY KEY,
+    user_id        UUID    NOT NULL UNIQUE,
+    snapshot       JSONB   NOT NULL,
+    format_version INTEGER NOT NULL,
+    updated_at     TIMESTAMP DEFAULT NOW(),
+
+    FOREIGN KEY (user_id) REFERENCES users (id) ON DELETE CASCADE
+);
+
+-- Снимки для уже существующих пользователей; формат совпадает с JSON UserWithRelationsDto
+INSERT INTO user_relations_snapshot (username, user_id, snapshot, format_version)
+SELECT u.username,
+       u.id,
+       jsonb_build_object(
+               'user', jsonb_build_object('username', u.username, 'age', u.age),
+               'address', (SELECT jsonb_build_object('city', a.city, 'build', a.build, 'apartment', a.apartment)
+                           FROM address a
+                           WHERE a.user_id = u.id
+                           LIMIT 1),
+               'cars', COALESCE((SELECT jsonb_agg(jsonb_build_object('model', c.model, 'carYear', c.release_year))
+                                 FROM car c
+                                          JOIN users_car uc ON uc.car_id = c.id
+                                 WHERE uc.user_id = u.id), '[]'::jsonb)
+       ),
+       1
+FROM users u;
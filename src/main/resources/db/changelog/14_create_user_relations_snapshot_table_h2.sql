@@ -0,0 +1,10 @@
+CREATE TABLE user_relations_snapshot
+(
+    username       VARCHAR(50) PRIMARY KEY,
+    user_id        UUID    NOT NULL UNIQUE,
+    snapshot       JSON    NOT NULL,
+    format_version INTEGER NOT NULL,
+    updated_at     TIMESTAMP DEFAULT NOW(),
+
+    FOREIGN KEY (user_id) REFERENCES users (id) ON DELETE CASCADE
+);
@@ -0,0 +1,45 @@
+-- АРХИВ ОЧИЩЕННЫХ ПОЛЬЗОВАТЕЛЕЙ (задача PURGE_USERS с archive = true)
+--
+-- Строки копируются тем же запросом, которым удаляются, поэтому внешних ключей нет:
+-- исходные строки в users / address / users_car к моменту коммита уже удалены.
+-- Модель и год машины денормализованы в users_car_archive - машина может быть удалена
+-- вместе с последней связью.
+
+CREATE TABLE users_archive
+(
+    id          UUID PRIMARY KEY,
+    username    VARCHAR(50) NOT NULL,
+    age         INTEGER,
+    created_at  TIMESTAMP,
+    updated_at  TIMESTAMP,
+    archived_at TIMESTAMP DEFAULT NOW()
+);
+
+CREATE TABLE address_archive
+(
+    id          UUID PRIMARY KEY,
+    user_id     UUID        NOT NULL,
+    city        VARCHAR(50) NOT NULL,
+    build       INTEGER,
+    apartment   INTEGER,
+    created_at  TIMESTAMP,
+    updated_at  TIMESTAMP,
+    archived_at TIMESTAMP DEFAULT NOW()
+);
+
+CREATE TABLE users_car_archive
+(
+    id           UUID PRIMARY KEY,
+    user_id      UUID NOT NULL,
+    car_id       UUID NOT NULL,
+    model        VARCHAR(50),
+    release_year INTEGER,
+    created_at   TIMESTAMP,
+    archived_at  TIMESTAMP DEFAULT NOW()
+);
+
+CREATE INDEX idx_address_archive_user_id ON address_archive (user_id);
+CREATE INDEX idx_users_car_archive_user_id ON users_car_archive (user_id);
+
+-- Отбор жертв чанками (created_at < ? ORDER BY created_at LIMIT n) без полного сканирования users
+CREATE INDEX idx_users_created_at ON users (created_at);
@@ -0,0 +1,96 @@
+-- ЛЕНТА ИЗМЕНЕНИЙ: КУРСОР, НЕ ЗАВИСЯЩИЙ ОТ ПОРЯДКА COMMIT
+--
+-- seq выдается до COMMIT: транзакция, начавшая писать раньше, может закоммититься позже,
+-- и курсор "seq > последнего" навсегда пропустит ее события. Поэтому каждое событие помечается
+-- номером своей транзакции (xid8, PostgreSQL 13+), а читатель выдает только события транзакций
+-- ниже горизонта pg_snapshot_xmin(pg_current_snapshot()): все они уже завершены, и ни одна
+-- новая строка с меньшей позицией (txid, seq) появиться не может.
+--
+-- Существующие события получают txid = 0 и читаются по seq, как раньше
+ALTER TABLE change_feed ADD COLUMN txid XID8 NOT NULL DEFAULT '0';
+ALTER TABLE change_feed ALTER COLUMN txid SET DEFAULT pg_current_xact_id();
+
+CREATE INDEX idx_change_feed_txid_seq ON change_feed (txid, seq);
+
+-- Построчные триггеры 07_* / 12_* вызывали pg_notify на каждую строку: массовая операция
+-- порождала тысячи уведомлений. Теперь триггер уровня оператора пишет события одним INSERT
+-- из переходной таблицы и шлет одно уведомление без данных - это только сигнал "перечитай журнал".
+-- Одинаковые уведомления в пределах транзакции PostgreSQL схлопывает в одно
+DROP TRIGGER IF EXISTS users_change_feed ON users;
+DROP TRIGGER IF EXISTS address_change_feed ON address;
+DROP TRIGGER IF EXISTS car_change_feed ON car;
+DROP TRIGGER IF EXISTS users_car_change_feed ON users_car;
+
+DROP FUNCTION IF EXISTS publish_change();
+
+CREATE FUNCTION publish_change() RETURNS TRIGGER AS
+$$
+DECLARE
+    published BIGINT;
+BEGIN
+    IF TG_OP = 'DELETE' THEN
+        INSERT INTO change_feed (table_name, operation, row_id, user_id)
+        SELECT TG_TABLE_NAME,
+               TG_OP,
+               (to_jsonb(r) ->> 'id')::UUID,
+               (to_jsonb(r) ->> CASE WHEN TG_TABLE_NAME = 'users' THEN 'id' ELSE 'user_id' END)::UUID
+        FROM old_rows r;
+    ELSE
+        INSERT INTO change_feed (table_name, operation, row_id, user_id)
+        SELECT TG_TABLE_NAME,
+               TG_OP,
+               (to_jsonb(r) ->> 'id')::UUID,
+               (to_jsonb(r) ->> CASE WHEN TG_TABLE_NAME = 'users' THEN 'id' ELSE 'user_id' END)::UUID
+        FROM new_rows r;
+    END IF;
+
+    GET DIAGNOSTICS published = ROW_COUNT;
+    IF published > 0 THEN
+        PERFORM pg_notify('change_feed', '');
+    END IF;
+
+    RETURN NULL;
+END;
+$$ LANGUAGE plpgsql;
+
+-- Переходные таблицы нельзя объявить у триггера на несколько событий, поэтому по триггеру на событие.
+-- Для секционированных address / users_car триггер на корневой таблице, TG_TABLE_NAME - ее имя
+CREATE TRIGGER users_change_feed_insert
+    AFTER INSERT ON users REFERENCING NEW TABLE AS new_rows
+    FOR EACH STATEMENT EXECUTE FUNCTION publish_change();
+CREATE TRIGGER users_change_feed_update
+    AFTER UPDATE ON users REFERENCING NEW TABLE AS new_rows
+    FOR EACH STATEMENT EXECUTE FUNCTION publish_change();
+CREATE TRIGGER users_change_feed_delete
+    AFTER DELETE ON users REFERENCING OLD TABLE AS old_rows
+    FOR EACH STATEMENT EXECUTE FUNCTION publish_change();
+
+CREATE TRIGGER address_change_feed_insert
+    AFTER INSERT ON address REFERENCING NEW TABLE AS new_rows
+    FOR EACH STATEMENT EXECUTE FUNCTION publish_change();
+CREATE TRIGGER address_change_feed_update
+    AFTER UPDATE ON address REFERENCING NEW TABLE AS new_rows
+    FOR EACH STATEMENT EXECUTE FUNCTION publish_change();
+CREATE TRIGGER address_change_feed_delete
+    AFTER DELETE ON address REFERENCING OLD TABLE AS old_rows
+    FOR EACH STATEMENT EXECUTE FUNCTION publish_change();
+
+CREATE TRIGGER car_change_feed_insert
+    AFTER INSERT ON car REFERENCING NEW TABLE AS new_rows
+    FOR EACH STATEMENT EXECUTE FUNCTION publish_change();
+CREATE TRIGGER car_change_feed_update
+    AFTER UPDATE ON car REFERENCING NEW TABLE AS new_rows
+    FOR EACH STATEMENT EXECUTE FUNCTION publish_change();
+CREATE TRIGGER car_change_feed_delete
+    AFTER DELETE ON car REFERENCING OLD TABLE AS old_rows
+    FOR EACH STATEMENT EXECUTE FUNCTION publish_change();
+
+CREATE TRIGGER users_car_change_feed_insert
+    AFTER INSERT ON users_car REFERENCING NEW TABLE AS new_rows
+    FOR EACH STATEMENT EXECUTE FUNCTION publish_change();
+CREATE TRIGGER users_car_change_feed_update
+    AFTER UPDATE ON users_car REFERENCING NEW TABLE AS new_rows
+    FOR EACH STATEMENT EXECUTE FUNCTION publish_change();
+CREATE TRIGGER users_car_change_feed_delete
+    AFTER DELETE ON users_car REFERENCING OLD TABLE AS old_rows
+    FOR EACH STATEMENT EXECUTE FUNCTION publish_change();
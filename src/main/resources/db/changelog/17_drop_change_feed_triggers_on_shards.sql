@@ -0,0 +1,26 @@
+-- ЛЕНТА ИЗМЕНЕНИЙ НА ШАРДАХ НЕ ВЕДЕТСЯ
+--
+-- ChangeFeedService, ChangeFeedListener и очистка по retention работают только с основной БД:
+-- события шарда никто не читает и не удаляет. Выполняется только на шардах (предусловие в changelog-master):
+-- снимает триггеры, созданные до появления предусловия, и построчные триггеры, которые пересоздает 12_*.
+DROP TRIGGER IF EXISTS users_change_feed ON users;
+DROP TRIGGER IF EXISTS address_change_feed ON address;
+DROP TRIGGER IF EXISTS car_change_feed ON car;
+DROP TRIGGER IF EXISTS users_car_change_feed ON users_car;
+
+DROP TRIGGER IF EXISTS users_change_feed_insert ON users;
+DROP TRIGGER IF EXISTS users_change_feed_update ON users;
+DROP TRIGGER IF EXISTS users_change_feed_delete ON users;
+DROP TRIGGER IF EXISTS address_change_feed_insert ON address;
+DROP TRIGGER IF EXISTS address_change_feed_update ON address;
+DROP TRIGGER IF EXISTS address_change_feed_delete ON address;
+DROP TRIGGER IF EXISTS car_change_feed_insert ON car;
+DROP TRIGGER IF EXISTS car_change_feed_update ON car;
+DROP TRIGGER IF EXISTS car_change_feed_delete ON car;
+DROP TRIGGER IF EXISTS users_car_change_feed_insert ON users_car;
+DROP TRIGGER IF EXISTS users_car_change_feed_update ON users_car;
+DROP TRIGGER IF EXISTS users_car_change_feed_delete ON users_car;
+
+DROP FUNCTION IF EXISTS publish_change();
+
+TRUNCATE change_feed;
@@ -0,0 +1,11 @@
+-- КОНТРОЛЬНАЯ СУММА ПРИМЕНЕННОГО CHANGELOG (app.startup.skip-liquibase-when-current)
+--
+-- ChecksumSkippingLiquibase записывает сюда сумму файлов db/** и настроек запуска после успешного
+-- прогона и пропускает Liquibase, пока сумма не изменится. Раньше таблица создавалась из Java,
+-- поэтому на уже работающих БД она может существовать.
+CREATE TABLE IF NOT EXISTS app_schema_checksum
+(
+    id         INTEGER PRIMARY KEY,
+    checksum   VARCHAR(64) NOT NULL,
+    applied_at TIMESTAMP   NOT NULL
+);
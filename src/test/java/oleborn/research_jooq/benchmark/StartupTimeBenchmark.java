@@ -0,0 +1,95 @@
+package oleborn.research_jooq.benchmark;
+
+import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+/**
+ * БЕНЧМАРК ВРЕМЕНИ СТАРТА ПРИЛОЖЕНИЯ
+ * <p>
+ * Каждый вариант запускается отдельным процессом с -Dspring.context.exit=onRefresh:
+ * контекст поднимается полностью (включая Liquibase) и сразу закрывается.
+ * Время - от запуска процесса до его завершения, медиана по нескольким прогонам.
+ * Запуск: mvn verify -Pfast-startup (нужен PostgreSQL из docker-compose).
+ */
+@Slf4j
+@Tag("benchmark")
+class StartupTimeBenchmark {
+
+    private static final int WARMUP_RUNS = 1;
+    private static final int MEASURED_RUNS = 5;
+    private static final long TIMEOUT_SECONDS = 120;
+
+    @Test
+    void startupTime() throws Exception {
+        // Пути к jar задает failsafe в профиле fast-startup; при mvn test -Pbenchmark тест пропускается
+        assumeTrue(System.getProperty("startup.jar") != null, "Run with mvn verify -Pfast-startup");
+
+        Path jar = Path.of(System.getProperty("startup.jar"));
+        Path extractedJar = Path.of(System.getProperty("startup.extracted-jar"));
+        Path archive = extractedJar.resolveSibling("application.jsa");
+        assertTrue(Files.exists(archive), "CDS archive is missing: " + archive);
+
+        report("plain jar", measure(jar, List.of()));
+        report("AOT", measure(jar, List.of("-Dspring.aot.enabled=true")));
+        report("AOT + CDS", measure(extractedJar, List.of(
+                "-XX:SharedArchiveFile=" + archive,
+                "-Dspring.aot.enabled=true")));
+        // Первый прогон с fast-startup сохраняет контрольную сумму, дальше Liquibase пропускается
+        report("AOT + CDS + fast-startup", measure(extractedJar, List.of(
+                "-XX:SharedArchiveFile=" + archive,
+                "-Dspring.aot.enabled=true",
+                "-Dspring.profiles.active=fast-startup")));
+    }
+
+    private long measure(Path jar, List<String> jvmOptions) throws IOException, InterruptedException {
+        for (int i = 0; i < WARMUP_RUNS; i++) {
+            runOnce(jar, jvmOptions);
+        }
+
+        long[] millis = new long[MEASURED_RUNS];
+        for (int i = 0; i < MEASURED_RUNS; i++) {
+            millis[i] = runOnce(jar, jvmOptions);
+        }
+        Arrays.sort(millis);
+        return millis[MEASURED_RUNS / 2];
+    }
+
+    private long runOnce(Path jar, List<String> jvmOptions) throws IOException, InterruptedException {
+        List<String> command = new ArrayList<>();
+        command.add(Path.of(System.getProperty("java.home"), "bin", "java").toString());
+        command.addAll(jvmOptions);
+        command.add("-Dspring.context.exit=onRefresh");
+        command.add("-jar");
+        command.add(jar.toString());
+
+        long started = System.nanoTime();
+        Process process = new ProcessBuilder(command)
+                .directory(jar.getParent().toFile())
+                .redirectErrorStream(true)
+                .redirectOutput(ProcessBuilder.Redirect.appendTo(new File(jar.getParent().toFile(), "startup-benchmark.log")))
+                .start();
+
+        assertTrue(process.waitFor(TIMEOUT_SECONDS, TimeUnit.SECONDS), "Application did not exit in time: " + command);
+        long elapsed = (System.nanoTime() - started) / 1_000_000;
+        assertEquals(0, process.exitValue(), "Application failed to start, see startup-benchmark.log: " + command);
+        return elapsed;
+    }
+
+    private static void report(String variant, long medianMillis) {
+        log.info("[benchmark] startup {}: {} ms (median of {})", variant, medianMillis, MEASURED_RUNS);
+    }
+}
@@ -0,0 +1,84 @@
+package oleborn.research_jooq.benchmark;
+
+import lombok.extern.slf4j.Slf4j;
+import oleborn.research_jooq.dto.CreateCarRequest;
+import oleborn.research_jooq.dto.CreateUserRequest;
+import oleborn.research_jooq.dto.CreateUserWithRelationsRequest;
+import oleborn.research_jooq.service.UserRelationsService;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.List;
+import java.util.Locale;
+import java.util.UUID;
+import java.util.stream.IntStream;
+
+/**
+ * БЕНЧМАРК ПАКЕТНОЙ ВСТАВКИ МАШИН (bind batch + reWriteBatchedInserts)
+ * <p>
+ * Одна операция = один пользователь с N машинами и N связями.
+ * Каждый прогон выполняется в транзакции, которая откатывается, - БД не засоряется.
+ * Запуск: mvn test -Pbenchmark (нужен PostgreSQL из docker-compose).
+ */
+@Slf4j
+@Tag("benchmark")
+@SpringBootTest(properties = {
+        "logging.level.org.jooq=INFO",
+        "logging.level.org.springframework.jdbc.core=INFO"
+})
+class UserCarsBatchBenchmark {
+
+    private static final int WARMUP_RUNS = 2;
+    private static final int MEASURED_RUNS = 5;
+
+    @Autowired
+    private UserRelationsService userRelationsService;
+
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+
+    @ParameterizedTest(name = "{0} cars per call")
+    @ValueSource(ints = {10, 1_000, 100_000})
+    void createUserCarsBatch(int carsPerCall) {
+        int runs = carsPerCall >= 100_000 ? 1 : MEASURED_RUNS;
+
+        for (int i = 0; i < WARMUP_RUNS; i++) {
+            runOnce(carsPerCall);
+        }
+
+        long totalNanos = 0;
+        for (int i = 0; i < runs; i++) {
+            totalNanos += runOnce(carsPerCall);
+        }
+
+        double seconds = totalNanos / 1_000_000_000.0;
+        long cars = (long) carsPerCall * runs;
+        log.info("[benchmark] {} cars per call: {} cars/sec ({} rows/sec incl. links), {} ms per call",
+                carsPerCall, Math.round(cars / seconds), Math.round(2 * cars / seconds),
+                String.format(Locale.ROOT, "%.1f", seconds * 1000 / runs));
+    }
+
+    private long runOnce(int carsPerCall) {
+        List<CreateCarRequest> cars = IntStream.range(0, carsPerCall)
+                .mapToObj(i -> new CreateCarRequest("model-" + i, 2000 + i % 25))
+                .toList();
+        CreateUserWithRelationsRequest request = new CreateUserWithRelationsRequest(
+                new CreateUserRequest("bench-" + UUID.randomUUID(), null, null, 30),
+                null,
+                cars
+        );
+
+        Long elapsed = transactionTemplate.execute(status -> {
+            long started = System.nanoTime();
+            userRelationsService.createUsersWithRelationsBatch(List.of(request));
+            long nanos = System.nanoTime() - started;
+            status.setRollbackOnly();
+            return nanos;
+        });
+        return elapsed != null ? elapsed : 0L;
+    }
+}
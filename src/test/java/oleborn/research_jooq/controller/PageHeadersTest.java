@@ -0,0 +1,44 @@
+package oleborn.research_jooq.controller;
+
+import oleborn.research_jooq.dto.PageResult;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * ЗАГОЛОВКИ X-Total-Count / X-Total-Count-Estimated
+ */
+class PageHeadersTest {
+
+    @Test
+    void withoutTotalSendsOnlyBody() {
+        ResponseEntity<List<String>> response = PageHeaders.ok(PageResult.withoutTotal(List.of("a", "b")));
+
+        assertThat(response.getStatusCode()).isEqualTo(HttpStatus.OK);
+        assertThat(response.getBody()).containsExactly("a", "b");
+        assertThat(response.getHeaders().containsKey(PageHeaders.TOTAL_COUNT)).isFalse();
+        assertThat(response.getHeaders().containsKey(PageHeaders.TOTAL_COUNT_ESTIMATED)).isFalse();
+    }
+
+    @Test
+    void exactTotalIsMarkedNotEstimated() {
+        ResponseEntity<List<String>> response = PageHeaders.ok(new PageResult<>(List.of("a"), 41L, true));
+
+        assertThat(response.getHeaders().getFirst(PageHeaders.TOTAL_COUNT)).isEqualTo("41");
+        assertThat(response.getHeaders().getFirst(PageHeaders.TOTAL_COUNT_ESTIMATED)).isEqualTo("false");
+        assertThat(response.getBody()).containsExactly("a");
+    }
+
+    @Test
+    void statisticsEstimateIsMarkedEstimated() {
+        ResponseEntity<List<String>> response = PageHeaders.ok(new PageResult<>(List.of(), 1_250_000L, false));
+
+        assertThat(response.getHeaders().getFirst(PageHeaders.TOTAL_COUNT)).isEqualTo("1250000");
+        assertThat(response.getHeaders().getFirst(PageHeaders.TOTAL_COUNT_ESTIMATED)).isEqualTo("true");
+        assertThat(response.getBody()).isEmpty();
+    }
+}
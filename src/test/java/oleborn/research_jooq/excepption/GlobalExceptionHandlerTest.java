@@ -0,0 +1,55 @@
+package oleborn.research_jooq.excepption;
+
+import oleborn.research_jooq.dto.ErrorDto;
+import org.junit.jupiter.api.Test;
+import org.postgresql.util.PSQLException;
+import org.postgresql.util.ServerErrorMessage;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.mock.web.MockHttpServletRequest;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/**
+ * DuplicateKeyException -> 409 только для UNIQUE-ограничений username
+ */
+class GlobalExceptionHandlerTest {
+
+    private final GlobalExceptionHandler handler = new GlobalExceptionHandler();
+    private final MockHttpServletRequest request = new MockHttpServletRequest("POST", "/api/users");
+
+    @Test
+    void usernameConstraintIsConflict() {
+        for (String constraint : GlobalExceptionHandler.USERNAME_CONSTRAINTS) {
+            ResponseEntity<ErrorDto> response = handler.handleDuplicateKeyException(duplicate(constraint), request);
+
+            assertThat(response.getStatusCode()).isEqualTo(HttpStatus.CONFLICT);
+            assertThat(response.getBody().errorDescription()).isEqualTo("Username is already taken");
+        }
+    }
+
+    @Test
+    void otherConstraintIsNotReportedAsTakenUsername() {
+        DuplicateKeyException linkDuplicate = duplicate("users_car_user_id_car_id_key");
+
+        assertThatThrownBy(() -> handler.handleDuplicateKeyException(linkDuplicate, request)).isSameAs(linkDuplicate);
+    }
+
+    @Test
+    void duplicateWithoutServerMessageIsRethrown() {
+        DuplicateKeyException duplicate = new DuplicateKeyException("duplicate key");
+
+        assertThatThrownBy(() -> handler.handleDuplicateKeyException(duplicate, request)).isSameAs(duplicate);
+    }
+
+    /**
+     * Ошибка в том виде, в каком ее переводит Spring: PSQLException с полем n (имя ограничения) в причине
+     */
+    private static DuplicateKeyException duplicate(String constraint) {
+        PSQLException cause = new PSQLException(new ServerErrorMessage(
+                "SERROR\0C23505\0Mduplicate key value violates unique constraint \"" + constraint + "\"\0n" + constraint + "\0"));
+        return new DuplicateKeyException(cause.getMessage(), cause);
+    }
+}
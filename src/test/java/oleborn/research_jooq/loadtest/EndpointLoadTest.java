@@ -0,0 +1,220 @@
+package oleborn.research_jooq.loadtest;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.extern.slf4j.Slf4j;
+import oleborn.research_jooq.dto.CreateAddressRequest;
+import oleborn.research_jooq.dto.CreateCarRequest;
+import oleborn.research_jooq.dto.CreateUserRequest;
+import oleborn.research_jooq.dto.CreateUserWithRelationsRequest;
+import oleborn.research_jooq.service.UserRelationsService;
+import org.jooq.DSLContext;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.server.LocalServerPort;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+import java.util.stream.IntStream;
+
+import static oleborn.research_jooq.jooq.tables.Car.CAR;
+import static oleborn.research_jooq.jooq.tables.Users.USERS;
+import static oleborn.research_jooq.jooq.tables.UsersCar.USERS_CAR;
+
+/**
+ * НАГРУЗОЧНЫЙ ТЕСТ ВСЕХ ЭНДПОИНТОВ UserController И UserRelationsController
+ * <p>
+ * Приложение поднимается целиком на случайном порту (Tomcat, Hikari, Jackson, PostgreSQL),
+ * перед прогоном засевается заданный объем данных, затем каждый эндпоинт по очереди
+ * нагружается с фиксированной частотой (см. OpenModelLoadGenerator).
+ * Засеянные и созданные тестом пользователи удаляются после прогона.
+ * <p>
+ * Запуск: mvn test -Pload (нужен PostgreSQL из docker-compose). Параметры - системные свойства:
+ * -Dload.users=1000 -Dload.cars-per-user=3 -Dload.rate=100 -Dload.warmup=PT5S -Dload.duration=PT30S
+ * Отчет: target/load-reports/&lt;runId&gt;/
+ * <p>
+ * DELETE не нагружается: он разрушал бы данные, на которых работают остальные сценарии.
+ */
+@Slf4j
+@Tag("load")
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT, properties = {
+        "logging.level.org.jooq=INFO",
+        "logging.level.org.springframework.jdbc.core=INFO"
+})
+class EndpointLoadTest {
+
+    private static final int SEED_CHUNK = 1000;
+
+    private final int users = Integer.getInteger("load.users", 1000);
+    private final int carsPerUser = Integer.getInteger("load.cars-per-user", 3);
+    private final double rate = Double.parseDouble(System.getProperty("load.rate", "100"));
+    private final Duration warmup = Duration.parse(System.getProperty("load.warmup", "PT5S"));
+    private final Duration duration = Duration.parse(System.getProperty("load.duration", "PT30S"));
+
+    private final String runId = LocalDateTime.now().format(DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss"));
+    private final String prefix = "load-" + runId + "-";
+    private final AtomicLong created = new AtomicLong();
+
+    @LocalServerPort
+    private int port;
+
+    @Autowired
+    private UserRelationsService userRelationsService;
+
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+
+    @Autowired
+    private DSLContext ctx;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    private List<UUID> seededIds;
+    private List<String> seededUsernames;
+
+    @BeforeAll
+    void seed() {
+        for (int from = 0; from < users; from += SEED_CHUNK) {
+            List<CreateUserWithRelationsRequest> chunk = IntStream.range(from, Math.min(users, from + SEED_CHUNK))
+                    .mapToObj(i -> userWithRelations(prefix + i))
+                    .toList();
+            transactionTemplate.executeWithoutResult(status -> userRelationsService.createUsersWithRelationsBatch(chunk));
+        }
+
+        var seeded = ctx.select(USERS.ID, USERS.USERNAME)
+                .from(USERS)
+                .where(USERS.USERNAME.startsWith(prefix))
+                .fetch();
+        seededIds = seeded.getValues(USERS.ID);
+        seededUsernames = seeded.getValues(USERS.USERNAME);
+    }
+
+    @AfterAll
+    void cleanUp() {
+        // Машины не удаляются каскадом от users - сначала машины загруженных пользователей
+        ctx.deleteFrom(CAR)
+                .where(CAR.ID.in(ctx.select(USERS_CAR.CAR_ID)
+                        .from(USERS_CAR)
+                        .join(USERS).on(USERS.ID.eq(USERS_CAR.USER_ID))
+                        .where(USERS.USERNAME.startsWith(prefix))))
+                .execute();
+        ctx.deleteFrom(USERS)
+                .where(USERS.USERNAME.startsWith(prefix))
+                .execute();
+    }
+
+    @Test
+    void allEndpoints() {
+        HttpClient client = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1)
+                .connectTimeout(Duration.ofSeconds(5))
+                .build();
+        OpenModelLoadGenerator generator = new OpenModelLoadGenerator(client);
+
+        Map<String, Supplier<HttpRequest>> scenarios = new LinkedHashMap<>();
+        scenarios.put("GET /api/users/{id}", () -> get("/api/users/" + randomId()));
+        scenarios.put("GET /api/users", () -> get("/api/users?page=" + randomPage() + "&size=10"));
+        scenarios.put("POST /api/users", () -> post("/api/users", newUser()));
+        scenarios.put("PATCH /api/users/{id}", () -> patch("/api/users/" + randomId(),
+                new CreateUserRequest(null, null, "patched", ThreadLocalRandom.current().nextInt(18, 80))));
+        scenarios.put("GET /api/users/relations/{username}", () -> get("/api/users/relations/" + randomUsername()));
+        scenarios.put("GET /api/users/relations/full", () -> get("/api/users/relations/full?page=" + randomPage() + "&size=10"));
+        scenarios.put("GET /api/users/relations/search", () -> get("/api/users/relations/search?username=" + prefix + "1&size=10"));
+        scenarios.put("POST /api/users/relations", () -> post("/api/users/relations",
+                userWithRelations(prefix + "new-" + created.incrementAndGet())));
+
+        List<OpenModelLoadGenerator.Result> results = new ArrayList<>();
+        scenarios.forEach((endpoint, requests) ->
+                results.add(generator.run(endpoint, rate, warmup, duration, requests)));
+
+        Map<String, Object> parameters = new LinkedHashMap<>();
+        parameters.put("run", runId);
+        parameters.put("users", users);
+        parameters.put("cars_per_user", carsPerUser);
+        parameters.put("rate", rate);
+        parameters.put("warmup", warmup);
+        parameters.put("duration", duration);
+
+        LoadReport.print(results);
+        Path report = LoadReport.write(Path.of("target", "load-reports", runId), parameters, results);
+        log.info("[load] report written to {}", report.toAbsolutePath());
+    }
+
+    private CreateUserWithRelationsRequest userWithRelations(String username) {
+        List<CreateCarRequest> cars = IntStream.range(0, carsPerUser)
+                .mapToObj(i -> new CreateCarRequest("model-" + i, 2000 + i % 25))
+                .toList();
+        return new CreateUserWithRelationsRequest(
+                new CreateUserRequest(username, username + "@load.test", "Load", 30),
+                new CreateAddressRequest("City", 1, 1),
+                cars
+        );
+    }
+
+    private CreateUserRequest newUser() {
+        String username = prefix + "new-" + created.incrementAndGet();
+        return new CreateUserRequest(username, username + "@load.test", "Load", 30);
+    }
+
+    private UUID randomId() {
+        return seededIds.get(ThreadLocalRandom.current().nextInt(seededIds.size()));
+    }
+
+    private String randomUsername() {
+        return seededUsernames.get(ThreadLocalRandom.current().nextInt(seededUsernames.size()));
+    }
+
+    private int randomPage() {
+        return ThreadLocalRandom.current().nextInt(Math.max(1, users / 10));
+    }
+
+    private HttpRequest get(String path) {
+        return request(path).GET().build();
+    }
+
+    private HttpRequest post(String path, Object body) {
+        return request(path).header("Content-Type", "application/json")
+                .POST(HttpRequest.BodyPublishers.ofString(json(body)))
+                .build();
+    }
+
+    private HttpRequest patch(String path, Object body) {
+        return request(path).header("Content-Type", "application/json")
+                .method("PATCH", HttpRequest.BodyPublishers.ofString(json(body)))
+                .build();
+    }
+
+    private HttpRequest.Builder request(String path) {
+        return HttpRequest.newBuilder(URI.create("http://localhost:" + port + path))
+                .timeout(Duration.ofSeconds(30));
+    }
+
+    private String json(Object body) {
+        try {
+            return objectMapper.writeValueAsString(body);
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
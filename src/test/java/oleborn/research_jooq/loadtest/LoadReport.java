@@ -0,0 +1,83 @@
+package oleborn.research_jooq.loadtest;
+
+import lombok.extern.slf4j.Slf4j;
+import org.HdrHistogram.Histogram;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * ОТЧЕТ ПО ПРОГОНУ НАГРУЗОЧНОГО ТЕСТА
+ * <p>
+ * В target/load-reports/&lt;runId&gt;/ пишутся:
+ * - summary.csv - одна строка на эндпоинт, столбцы неизменны от прогона к прогону (удобно сравнивать diff'ом)
+ * - &lt;endpoint&gt;.hgrm - полное распределение задержек (HdrHistogram percentile distribution, мс)
+ * Параметры прогона (объем данных, частота, длительность) записываются в шапку summary.csv.
+ */
+@Slf4j
+final class LoadReport {
+
+    private static final String HEADER = "endpoint,target_rps,achieved_rps,requests,errors,max_in_flight,"
+            + "p50_ms,p99_ms,p999_ms,max_ms,p50_uncorrected_ms,p99_uncorrected_ms,p999_uncorrected_ms";
+
+    private LoadReport() {
+    }
+
+    static Path write(Path directory, Map<String, Object> parameters, List<OpenModelLoadGenerator.Result> results) {
+        try {
+            Files.createDirectories(directory);
+
+            try (PrintStream csv = new PrintStream(Files.newOutputStream(directory.resolve("summary.csv")))) {
+                parameters.forEach((name, value) -> csv.println("# " + name + "=" + value));
+                csv.println(HEADER);
+                for (OpenModelLoadGenerator.Result result : results) {
+                    csv.println(row(result));
+                }
+            }
+
+            for (OpenModelLoadGenerator.Result result : results) {
+                Path file = directory.resolve(result.endpoint().replaceAll("[^A-Za-z0-9]+", "_") + ".hgrm");
+                try (PrintStream out = new PrintStream(Files.newOutputStream(file))) {
+                    // Значения в гистограмме - микросекунды, в файле - миллисекунды
+                    result.corrected().outputPercentileDistribution(out, 1000.0);
+                }
+            }
+            return directory;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    static void print(List<OpenModelLoadGenerator.Result> results) {
+        // Столбцы выравниваются форматом, поэтому строка таблицы собирается целиком
+        log.info("[load] {}", String.format("%-40s %8s %8s %7s %9s %9s %9s %9s",
+                "endpoint", "rps", "requests", "errors", "p50 ms", "p99 ms", "p999 ms", "max ms"));
+        for (OpenModelLoadGenerator.Result result : results) {
+            Histogram h = result.corrected();
+            log.info("[load] {}", String.format(Locale.ROOT, "%-40s %8.1f %8d %7d %9.2f %9.2f %9.2f %9.2f",
+                    result.endpoint(), result.achievedRate(), h.getTotalCount(), result.errors(),
+                    millis(h, 50), millis(h, 99), millis(h, 99.9), h.getMaxValue() / 1000.0));
+        }
+    }
+
+    private static String row(OpenModelLoadGenerator.Result result) {
+        Histogram corrected = result.corrected();
+        Histogram uncorrected = result.uncorrected();
+        return String.format(Locale.ROOT, "%s,%.1f,%.1f,%d,%d,%d,%.3f,%.3f,%.3f,%.3f,%.3f,%.3f,%.3f",
+                result.endpoint(), result.targetRate(), result.achievedRate(),
+                corrected.getTotalCount(), result.errors(), result.maxInFlight(),
+                millis(corrected, 50), millis(corrected, 99), millis(corrected, 99.9),
+                corrected.getMaxValue() / 1000.0,
+                millis(uncorrected, 50), millis(uncorrected, 99), millis(uncorrected, 99.9));
+    }
+
+    private static double millis(Histogram histogram, double percentile) {
+        return histogram.getValueAtPercentile(percentile) / 1000.0;
+    }
+}
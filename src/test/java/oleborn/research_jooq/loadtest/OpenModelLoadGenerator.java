@@ -0,0 +1,108 @@
+package oleborn.research_jooq.loadtest;
+
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
+
+import java.io.IOException;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Supplier;
+
+/**
+ * ГЕНЕРАТОР НАГРУЗКИ ПО ОТКРЫТОЙ МОДЕЛИ (фиксированная частота поступления)
+ * <p>
+ * Запросы отправляются по расписанию start + i * interval независимо от того, ответил ли сервер
+ * на предыдущие: каждый запрос выполняется в своем виртуальном потоке.
+ * Задержка считается от запланированного, а не фактического момента отправки -
+ * так в гистограмму попадает и время, которое запрос "простоял бы" в очереди
+ * (поправка на coordinated omission). Нескорректированная гистограмма пишется рядом для сравнения.
+ */
+final class OpenModelLoadGenerator {
+
+    private final HttpClient client;
+
+    OpenModelLoadGenerator(HttpClient client) {
+        this.client = client;
+    }
+
+    record Result(
+            String endpoint,
+            double targetRate,
+            Duration duration,
+            Histogram corrected,
+            Histogram uncorrected,
+            long errors,
+            int maxInFlight
+    ) {
+
+        double achievedRate() {
+            return corrected.getTotalCount() / (duration.toNanos() / 1_000_000_000.0);
+        }
+    }
+
+    /**
+     * @param ratePerSecond частота поступления запросов
+     * @param warmup        период прогрева - запросы идут, но не учитываются
+     * @param duration      измеряемый период
+     * @param requests      фабрика запросов (вызывается в потоке генератора)
+     */
+    Result run(String endpoint, double ratePerSecond, Duration warmup, Duration duration, Supplier<HttpRequest> requests) {
+        long intervalNanos = (long) (1_000_000_000L / ratePerSecond);
+
+        // Значения в микросекундах, гистограммы расширяются автоматически
+        Histogram corrected = new ConcurrentHistogram(3);
+        Histogram uncorrected = new ConcurrentHistogram(3);
+        AtomicLong errors = new AtomicLong();
+        AtomicInteger inFlight = new AtomicInteger();
+        AtomicInteger maxInFlight = new AtomicInteger();
+
+        long start = System.nanoTime();
+        long measureFrom = start + warmup.toNanos();
+        long end = measureFrom + duration.toNanos();
+
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (long i = 0; ; i++) {
+                long intended = start + i * intervalNanos;
+                if (intended >= end) break;
+
+                long wait = intended - System.nanoTime();
+                if (wait > 0) LockSupport.parkNanos(wait);
+
+                boolean measured = intended >= measureFrom;
+                HttpRequest request = requests.get();
+
+                executor.execute(() -> {
+                    maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+                    long sent = System.nanoTime();
+                    boolean failed;
+                    try {
+                        HttpResponse<Void> response = client.send(request, HttpResponse.BodyHandlers.discarding());
+                        failed = response.statusCode() >= 400;
+                    } catch (IOException e) {
+                        failed = true;
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        failed = true;
+                    }
+                    long done = System.nanoTime();
+                    inFlight.decrementAndGet();
+
+                    if (measured) {
+                        corrected.recordValue((done - intended) / 1000);
+                        uncorrected.recordValue((done - sent) / 1000);
+                        if (failed) errors.incrementAndGet();
+                    }
+                });
+            }
+        } // close() дожидается всех отправленных запросов
+
+        return new Result(endpoint, ratePerSecond, duration, corrected, uncorrected, errors.get(), maxInFlight.get());
+    }
+}
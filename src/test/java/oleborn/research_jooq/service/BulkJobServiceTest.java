@@ -0,0 +1,187 @@
+package oleborn.research_jooq.service;
+
+import oleborn.research_jooq.dto.BulkJobState;
+import oleborn.research_jooq.dto.BulkJobStatusDto;
+import oleborn.research_jooq.dto.CreateAddressRequest;
+import oleborn.research_jooq.dto.CreateCarRequest;
+import oleborn.research_jooq.dto.CreateUserRequest;
+import oleborn.research_jooq.dto.CreateUserWithRelationsRequest;
+import oleborn.research_jooq.dto.PurgeUsersRequest;
+import org.jooq.DSLContext;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+
+import static oleborn.research_jooq.jooq.tables.Users.USERS;
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * ЖИЗНЕННЫЙ ЦИКЛ BULK-ЗАДАЧИ: чанки, пропуск упавшего чанка, отмена в очереди и во время паузы,
+ * скорость и оценка оставшегося времени
+ * (как и ResearchJooqApplicationTests, работает с БД из application.yml)
+ */
+@SpringBootTest(properties = {
+        "app.jobs.worker-threads=1",
+        "app.jobs.chunk-size=2",
+        "app.jobs.purge.chunk-size=1"
+})
+class BulkJobServiceTest {
+
+    // Жертвы очистки старше всех остальных пользователей в БД
+    private static final LocalDateTime ANCIENT = LocalDateTime.of(1901, 1, 1, 0, 0);
+
+    @Autowired
+    private BulkJobService bulkJobService;
+
+    @Autowired
+    private UserRelationsService userRelationsService;
+
+    @Autowired
+    private ThreadPoolExecutor bulkJobExecutor;
+
+    @Autowired
+    private DSLContext ctx;
+
+    @Test
+    void importRunsInChunksUntilCompleted() throws Exception {
+        List<String> usernames = List.of(username(), username(), username(), username(), username());
+
+        BulkJobStatusDto submitted = bulkJobService.submitImportUsers(usernames.stream().map(this::request).toList());
+        BulkJobStatusDto finished = awaitStatus(submitted.id(), status -> status.status().isFinal());
+
+        assertThat(submitted.totalItems()).isEqualTo(5);
+        assertThat(finished.status()).isEqualTo(BulkJobState.COMPLETED);
+        assertThat(finished.processedItems()).isEqualTo(5);
+        assertThat(finished.failedItems()).isZero();
+        assertThat(finished.startedAt()).isNotNull();
+        assertThat(finished.finishedAt()).isNotNull();
+        // У завершенной задачи оценки оставшегося времени нет
+        assertThat(finished.etaSeconds()).isNull();
+        assertThat(ctx.fetchCount(USERS, USERS.USERNAME.in(usernames))).isEqualTo(5);
+    }
+
+    @Test
+    void failedChunkIsSkippedAndImportContinues() throws Exception {
+        String first = username();
+        String skipped = username();
+        String last = username();
+
+        // Второй чанк повторяет username из первого - он падает целиком, третий выполняется
+        BulkJobStatusDto submitted = bulkJobService.submitImportUsers(List.of(
+                request(first), request(username()),
+                request(first), request(skipped),
+                request(last)));
+        BulkJobStatusDto finished = awaitStatus(submitted.id(), status -> status.status().isFinal());
+
+        assertThat(finished.status()).isEqualTo(BulkJobState.COMPLETED);
+        assertThat(finished.processedItems()).isEqualTo(3);
+        assertThat(finished.failedItems()).isEqualTo(2);
+        assertThat(finished.lastError()).isNotBlank();
+        assertThat(ctx.fetchExists(USERS, USERS.USERNAME.eq(skipped))).isFalse();
+        assertThat(ctx.fetchExists(USERS, USERS.USERNAME.eq(last))).isTrue();
+    }
+
+    @Test
+    void queuedJobCancelledBeforeItStartsNeverRuns() throws Exception {
+        String username = username();
+        CountDownLatch release = new CountDownLatch(1);
+
+        // Единственный поток пула занят - задача остается в очереди
+        bulkJobExecutor.execute(() -> {
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        try {
+            BulkJobStatusDto submitted = bulkJobService.submitImportUsers(List.of(request(username)));
+            assertThat(submitted.status()).isEqualTo(BulkJobState.QUEUED);
+
+            BulkJobStatusDto cancelled = bulkJobService.cancel(submitted.id());
+            assertThat(cancelled.status()).isEqualTo(BulkJobState.CANCELLED);
+            assertThat(cancelled.finishedAt()).isNotNull();
+        } finally {
+            release.countDown();
+        }
+
+        // Пул однопоточный: когда выполнится следующая задача, отмененная уже снята с очереди
+        bulkJobExecutor.submit(() -> {}).get(30, TimeUnit.SECONDS);
+        assertThat(ctx.fetchExists(USERS, USERS.USERNAME.eq(username))).isFalse();
+    }
+
+    @Test
+    void pausedPurgeReportsEtaAndStopsOnCancel() throws Exception {
+        List<UUID> victims = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            victims.add(victim());
+        }
+
+        // Чанк из одного пользователя при 1 пользователе/сек - секунда паузы после каждого чанка
+        BulkJobStatusDto submitted = bulkJobService.submitPurgeUsers(
+                new PurgeUsersRequest(ANCIENT.plusDays(1), false, true, 1));
+        BulkJobStatusDto paused = awaitStatus(
+                submitted.id(), status -> status.processedItems() > 0 || status.status().isFinal());
+
+        assertThat(paused.status()).isEqualTo(BulkJobState.RUNNING);
+        assertThat(paused.itemsPerSecond()).isPositive();
+        assertThat(paused.etaSeconds()).isNotNull();
+
+        bulkJobService.cancel(submitted.id());
+        BulkJobStatusDto cancelled = awaitStatus(submitted.id(), status -> status.status().isFinal());
+
+        // Отмена срабатывает во время паузы, закоммиченные чанки не откатываются
+        assertThat(cancelled.status()).isEqualTo(BulkJobState.CANCELLED);
+        assertThat(cancelled.processedItems()).isBetween(1L, 4L);
+        assertThat(cancelled.etaSeconds()).isNull();
+        assertThat(ctx.fetchCount(USERS, USERS.ID.in(victims))).isEqualTo(5 - (int) cancelled.processedItems());
+    }
+
+    /**
+     * Опрос состояния задачи, пока не выполнится условие (не дольше 30 секунд)
+     */
+    private BulkJobStatusDto awaitStatus(UUID jobId, Predicate<BulkJobStatusDto> condition) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(30);
+        BulkJobStatusDto status = bulkJobService.getStatus(jobId);
+        while (!condition.test(status)) {
+            assertThat(System.nanoTime()).as("job %s: %s", jobId, status).isLessThan(deadline);
+            Thread.sleep(20);
+            status = bulkJobService.getStatus(jobId);
+        }
+        return status;
+    }
+
+    private UUID victim() {
+        String username = username();
+        userRelationsService.createUserWithRelations(
+                new CreateUserRequest(username, null, null, 30),
+                new CreateAddressRequest("Moscow", 1, 10),
+                List.of(new CreateCarRequest("Lada", 2010)));
+
+        ctx.update(USERS)
+                .set(USERS.CREATED_AT, ANCIENT)
+                .where(USERS.USERNAME.eq(username))
+                .execute();
+        return ctx.select(USERS.ID).from(USERS).where(USERS.USERNAME.eq(username)).fetchOne(USERS.ID);
+    }
+
+    private CreateUserWithRelationsRequest request(String username) {
+        return new CreateUserWithRelationsRequest(
+                new CreateUserRequest(username, null, null, 30),
+                new CreateAddressRequest("Moscow", 1, 10),
+                List.of(new CreateCarRequest("Lada", 2010)));
+    }
+
+    private static String username() {
+        return "bulk-" + UUID.randomUUID();
+    }
+}
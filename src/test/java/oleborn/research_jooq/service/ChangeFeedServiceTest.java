@@ -0,0 +1,93 @@
+package oleborn.research_jooq.service;
+
+import oleborn.research_jooq.dto.ChangeEventDto;
+import oleborn.research_jooq.dto.ChangeFeedPosition;
+import org.jooq.DSLContext;
+import org.jooq.impl.DSL;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import static oleborn.research_jooq.jooq.tables.Users.USERS;
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * ЛЕНТА ИЗМЕНЕНИЙ ПРИ COMMIT НЕ ПО ПОРЯДКУ: транзакция, начавшая писать раньше, коммитится позже,
+ * и курсор (txid, seq) не должен пропустить ее события
+ * (как и ResearchJooqApplicationTests, работает с БД из application.yml)
+ */
+@SpringBootTest(properties = "app.change-feed.enabled=true")
+class ChangeFeedServiceTest {
+
+    @Autowired
+    private ChangeFeedService changeFeedService;
+
+    @Autowired
+    private DataSource dataSource;
+
+    @Autowired
+    private DSLContext ctx;
+
+    @Test
+    void laterCommitOfEarlierTransactionIsNotSkipped() throws Exception {
+        UUID earlier = UUID.randomUUID();
+        UUID later = UUID.randomUUID();
+        ChangeFeedPosition from = changeFeedService.currentPosition();
+
+        try (Connection first = dataSource.getConnection(); Connection second = dataSource.getConnection()) {
+            first.setAutoCommit(false);
+            second.setAutoCommit(false);
+
+            // Первая транзакция пишет раньше (меньшие txid и seq), вторая пишет и коммитится первой
+            insertUser(first, earlier);
+            insertUser(second, later);
+            second.commit();
+
+            // Событие второй транзакции закоммичено, но выше горизонта - оно придерживается
+            assertThat(events(changeFeedService.fetchSince(from, 10_000), earlier, later)).isEmpty();
+            assertThat(changeFeedService.hasWithheldSince(from)).isTrue();
+
+            first.commit();
+        }
+
+        // Другие пишущие транзакции приложения могут ненадолго сдвинуть горизонт - ждем обе
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        List<ChangeEventDto> events = events(changeFeedService.fetchSince(from, 10_000), earlier, later);
+        while (events.size() < 2 && System.nanoTime() < deadline) {
+            Thread.sleep(20);
+            events = events(changeFeedService.fetchSince(from, 10_000), earlier, later);
+        }
+
+        // Обе вставки выданы в порядке (txid, seq), а не в порядке COMMIT
+        assertThat(events).extracting(ChangeEventDto::rowId).containsExactly(earlier, later);
+        assertThat(events.get(0).position()).isLessThan(events.get(1).position());
+        assertThat(events.get(0).position()).isGreaterThan(from);
+    }
+
+    private void insertUser(Connection connection, UUID userId) {
+        DSL.using(connection, ctx.dialect(), ctx.settings())
+                .insertInto(USERS)
+                .set(USERS.ID, userId)
+                .set(USERS.USERNAME, "feed-" + userId)
+                .set(USERS.AGE, 30)
+                .execute();
+    }
+
+    /**
+     * События вставки указанных пользователей
+     */
+    private static List<ChangeEventDto> events(List<ChangeEventDto> feed, UUID... userIds) {
+        Set<UUID> ids = Set.of(userIds);
+        return feed.stream()
+                .filter(event -> "users".equals(event.table()) && "INSERT".equals(event.operation()))
+                .filter(event -> ids.contains(event.rowId()))
+                .toList();
+    }
+}
@@ -0,0 +1,181 @@
+package oleborn.research_jooq.service;
+
+import oleborn.research_jooq.dto.CreateUserRequest;
+import oleborn.research_jooq.dto.UserResponseDto;
+import oleborn.research_jooq.excepption.IdempotencyKeyMismatchException;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.test.web.servlet.MockMvc;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+/**
+ * Idempotency-Key: повтор, другое тело с тем же ключом и одновременные дубликаты
+ * (как и ResearchJooqApplicationTests, работает с БД из application.yml)
+ */
+@SpringBootTest
+@AutoConfigureMockMvc
+class IdempotencyServiceTest {
+
+    @Autowired
+    private IdempotencyService idempotencyService;
+
+    @Autowired
+    private MockMvc mockMvc;
+
+    @Test
+    void retryReturnsStoredResponseWithoutExecutingAgain() {
+        String scope = scope();
+        String key = UUID.randomUUID().toString();
+        AtomicInteger executions = new AtomicInteger();
+
+        ResponseEntity<UserResponseDto> first = idempotencyService.execute(
+                key, scope, "body", UserResponseDto.class, () -> created(executions, "alice"));
+        ResponseEntity<UserResponseDto> retry = idempotencyService.execute(
+                key, scope, "body", UserResponseDto.class, () -> created(executions, "bob"));
+
+        assertThat(executions).hasValue(1);
+        assertThat(first.getHeaders().containsKey(IdempotencyService.REPLAYED_HEADER)).isFalse();
+        assertThat(retry.getStatusCode()).isEqualTo(HttpStatus.CREATED);
+        assertThat(retry.getHeaders().getFirst(IdempotencyService.REPLAYED_HEADER)).isEqualTo("true");
+        assertThat(retry.getBody()).isEqualTo(first.getBody());
+    }
+
+    @Test
+    void sameKeyWithDifferentBodyIsRejected() {
+        String scope = scope();
+        String key = UUID.randomUUID().toString();
+        AtomicInteger executions = new AtomicInteger();
+
+        idempotencyService.execute(key, scope, "body", UserResponseDto.class, () -> created(executions, "alice"));
+
+        assertThatThrownBy(() -> idempotencyService.execute(
+                key, scope, "other body", UserResponseDto.class, () -> created(executions, "alice")))
+                .isInstanceOf(IdempotencyKeyMismatchException.class);
+        assertThat(executions).hasValue(1);
+    }
+
+    @Test
+    void sameKeyWithDifferentBodyOverHttpIs422() throws Exception {
+        String key = UUID.randomUUID().toString();
+        String username = "idempotency-" + UUID.randomUUID();
+
+        mockMvc.perform(post("/api/users")
+                        .header(IdempotencyService.HEADER, key)
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(userJson(username, 30)))
+                .andExpect(status().isCreated());
+
+        mockMvc.perform(post("/api/users")
+                        .header(IdempotencyService.HEADER, key)
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(userJson(username, 30)))
+                .andExpect(status().isCreated())
+                .andExpect(header().string(IdempotencyService.REPLAYED_HEADER, "true"));
+
+        mockMvc.perform(post("/api/users")
+                        .header(IdempotencyService.HEADER, key)
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(userJson(username, 31)))
+                .andExpect(status().isUnprocessableEntity());
+    }
+
+    @Test
+    void concurrentDuplicatesExecuteOnce() throws Exception {
+        String scope = scope();
+        String key = UUID.randomUUID().toString();
+        AtomicInteger executions = new AtomicInteger();
+        int callers = 8;
+        CountDownLatch start = new CountDownLatch(1);
+
+        ExecutorService pool = Executors.newFixedThreadPool(callers);
+        try {
+            List<Future<ResponseEntity<UserResponseDto>>> results = new ArrayList<>();
+            for (int i = 0; i < callers; i++) {
+                results.add(pool.submit(() -> {
+                    start.await();
+                    return idempotencyService.execute(key, scope, "body", UserResponseDto.class, () -> {
+                        sleep(200);
+                        return created(executions, "alice");
+                    });
+                }));
+            }
+            start.countDown();
+
+            for (Future<ResponseEntity<UserResponseDto>> result : results) {
+                ResponseEntity<UserResponseDto> response = result.get(10, TimeUnit.SECONDS);
+                assertThat(response.getStatusCode()).isEqualTo(HttpStatus.CREATED);
+                assertThat(response.getBody()).isEqualTo(new UserResponseDto("alice", 1));
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+
+        assertThat(executions).hasValue(1);
+    }
+
+    @Test
+    void failedOrNonSuccessfulExecutionDoesNotConsumeKey() {
+        String scope = scope();
+        String key = UUID.randomUUID().toString();
+        AtomicInteger executions = new AtomicInteger();
+
+        assertThatThrownBy(() -> idempotencyService.execute(key, scope, "body", UserResponseDto.class, () -> {
+            executions.incrementAndGet();
+            throw new IllegalStateException("boom");
+        })).isInstanceOf(IllegalStateException.class);
+
+        ResponseEntity<UserResponseDto> rejected = idempotencyService.execute(key, scope, "body", UserResponseDto.class, () -> {
+            executions.incrementAndGet();
+            return ResponseEntity.badRequest().build();
+        });
+        ResponseEntity<UserResponseDto> succeeded = idempotencyService.execute(
+                key, scope, "body", UserResponseDto.class, () -> created(executions, "alice"));
+
+        assertThat(rejected.getStatusCode()).isEqualTo(HttpStatus.BAD_REQUEST);
+        assertThat(succeeded.getStatusCode()).isEqualTo(HttpStatus.CREATED);
+        assertThat(executions).hasValue(3);
+    }
+
+    private static ResponseEntity<UserResponseDto> created(AtomicInteger executions, String username) {
+        int execution = executions.incrementAndGet();
+        return ResponseEntity.status(HttpStatus.CREATED).body(new UserResponseDto(username, execution));
+    }
+
+    private static String userJson(String username, int age) {
+        return """
+                {"username": "%s", "age": %d}
+                """.formatted(username, age);
+    }
+
+    private static String scope() {
+        return "test " + UUID.randomUUID();
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
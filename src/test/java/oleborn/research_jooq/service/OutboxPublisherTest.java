@@ -0,0 +1,106 @@
+package oleborn.research_jooq.service;
+
+import oleborn.research_jooq.dto.CreateUserRequest;
+import oleborn.research_jooq.dto.OutboxEventDto;
+import org.jooq.DSLContext;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.transaction.IllegalTransactionStateException;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import static oleborn.research_jooq.jooq.tables.OutboxEvent.OUTBOX_EVENT;
+import static oleborn.research_jooq.jooq.tables.Users.USERS;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/**
+ * OUTBOX: событие пишется в транзакции изменения и откатывается вместе с ним,
+ * OutboxPublisher доставляет его в sink и удаляет из таблицы
+ * (как и ResearchJooqApplicationTests, работает с БД из application.yml)
+ */
+@SpringBootTest(properties = "app.outbox.sink=memory")
+class OutboxPublisherTest {
+
+    @Autowired
+    private UserService userService;
+
+    @Autowired
+    private OutboxService outboxService;
+
+    @Autowired
+    private OutboxPublisher outboxPublisher;
+
+    @Autowired
+    private InMemoryOutboxSink sink;
+
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+
+    @Autowired
+    private DSLContext ctx;
+
+    @Test
+    void eventIsWrittenInTheChangeTransactionAndRolledBackWithIt() {
+        String username = username();
+
+        String eventType = transactionTemplate.execute(status -> {
+            userService.createUser(new CreateUserRequest(username, null, null, 30));
+
+            // Незакоммиченное событие видно только этой транзакции - публикатор его не заберет
+            String pending = ctx.select(OUTBOX_EVENT.EVENT_TYPE)
+                    .from(OUTBOX_EVENT)
+                    .where(OUTBOX_EVENT.AGGREGATE_ID.eq(userId(username)))
+                    .fetchOne(OUTBOX_EVENT.EVENT_TYPE);
+            status.setRollbackOnly();
+            return pending;
+        });
+
+        assertThat(eventType).isEqualTo(OutboxService.USER_CREATED);
+        assertThat(ctx.fetchExists(USERS, USERS.USERNAME.eq(username))).isFalse();
+        assertThat(sink.recent()).noneMatch(event -> event.payload().contains(username));
+    }
+
+    @Test
+    void appendOutsideTransactionIsRejected() {
+        UUID aggregateId = UUID.randomUUID();
+
+        assertThatThrownBy(() -> outboxService.append(
+                OutboxService.AGGREGATE_USER, aggregateId, OutboxService.USER_DELETED, Map.of("id", aggregateId)))
+                .isInstanceOf(IllegalTransactionStateException.class);
+        assertThat(ctx.fetchExists(OUTBOX_EVENT, OUTBOX_EVENT.AGGREGATE_ID.eq(aggregateId))).isFalse();
+    }
+
+    @Test
+    void committedEventIsPublishedAndDeleted() throws InterruptedException {
+        String username = username();
+        userService.createUser(new CreateUserRequest(username, null, null, 30));
+        UUID userId = userId(username);
+
+        // Плановый запуск может держать строку (SKIP LOCKED) - тогда ждем, пока он ее удалит
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        outboxPublisher.publishPending();
+        while (ctx.fetchExists(OUTBOX_EVENT, OUTBOX_EVENT.AGGREGATE_ID.eq(userId)) && System.nanoTime() < deadline) {
+            Thread.sleep(20);
+            outboxPublisher.publishPending();
+        }
+
+        assertThat(sink.recent())
+                .filteredOn(event -> userId.equals(event.aggregateId()))
+                .extracting(OutboxEventDto::eventType)
+                .containsExactly(OutboxService.USER_CREATED);
+        assertThat(ctx.fetchExists(OUTBOX_EVENT, OUTBOX_EVENT.AGGREGATE_ID.eq(userId))).isFalse();
+    }
+
+    private UUID userId(String username) {
+        return ctx.select(USERS.ID).from(USERS).where(USERS.USERNAME.eq(username)).fetchOne(USERS.ID);
+    }
+
+    private static String username() {
+        return "outbox-" + UUID.randomUUID();
+    }
+}
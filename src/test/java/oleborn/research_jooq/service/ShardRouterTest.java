@@ -0,0 +1,129 @@
+package oleborn.research_jooq.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.UUID;
+import java.util.stream.IntStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * КОЛЬЦО КОНСИСТЕНТНОГО ХЕШИРОВАНИЯ И СЛИЯНИЕ СТРАНИЦ ШАРДОВ
+ */
+class ShardRouterTest {
+
+    private static final List<String> SHARDS = List.of("shard_0", "shard_1", "shard_2");
+    private static final int VIRTUAL_NODES = 128;
+    private static final int USERS = 30_000;
+
+    private static final LocalDateTime NOW = LocalDateTime.of(2025, 1, 1, 12, 0);
+
+    @Test
+    void sameUserAlwaysLandsOnSameShard() {
+        ShardRouter.HashRing first = new ShardRouter.HashRing(SHARDS, VIRTUAL_NODES);
+        ShardRouter.HashRing second = new ShardRouter.HashRing(SHARDS, VIRTUAL_NODES);
+
+        users().forEach(userId -> assertThat(second.shardOf(userId)).isEqualTo(first.shardOf(userId)));
+    }
+
+    @Test
+    void spreadsUsersEvenly() {
+        ShardRouter.HashRing ring = new ShardRouter.HashRing(SHARDS, VIRTUAL_NODES);
+
+        Map<String, Integer> perShard = new HashMap<>();
+        users().forEach(userId -> perShard.merge(ring.shardOf(userId), 1, Integer::sum));
+
+        assertThat(perShard).containsOnlyKeys(SHARDS);
+        // Идеально - треть; 128 виртуальных узлов дают разброс в несколько процентов
+        perShard.values().forEach(count -> assertThat((double) count / USERS).isBetween(0.25, 0.42));
+    }
+
+    @Test
+    void addingShardMovesOnlyItsShareOfUsers() {
+        ShardRouter.HashRing before = new ShardRouter.HashRing(SHARDS, VIRTUAL_NODES);
+        List<String> grown = new ArrayList<>(SHARDS);
+        grown.add("shard_3");
+        ShardRouter.HashRing after = new ShardRouter.HashRing(grown, VIRTUAL_NODES);
+
+        int moved = 0;
+        for (UUID userId : users()) {
+            String was = before.shardOf(userId);
+            String now = after.shardOf(userId);
+            if (!was.equals(now)) {
+                // Переезжают только на новый шард, между старыми никто не перемещается
+                assertThat(now).isEqualTo("shard_3");
+                moved++;
+            }
+        }
+
+        // ~1/4 пользователей, а не почти все, как при hash % N
+        assertThat((double) moved / USERS).isBetween(0.15, 0.35);
+    }
+
+    @Test
+    void mergePageMatchesGlobalOrder() {
+        List<List<ShardRouter.Ranked<String>>> perShard = List.of(
+                ranked("a", 0, 3, 6, 9, 12),
+                ranked("b", 1, 2, 7, 8),
+                List.of(),
+                ranked("c", 4, 5, 10, 11, 13, 14)
+        );
+        List<String> global = perShard.stream()
+                .flatMap(List::stream)
+                .sorted(Comparator.comparing(ShardRouter.Ranked<String>::createdAt).reversed())
+                .map(ShardRouter.Ranked::value)
+                .toList();
+
+        for (int size = 1; size <= 4; size++) {
+            for (int offset = 0; offset <= global.size(); offset += size) {
+                List<String> expected = global.subList(offset, Math.min(offset + size, global.size()));
+                assertThat(ShardRouter.mergePage(perShard, offset, size))
+                        .as("offset %d, size %d", offset, size)
+                        .containsExactlyElementsOf(expected);
+            }
+        }
+    }
+
+    @Test
+    void mergePagePutsRowsWithoutCreatedAtLast() {
+        List<List<ShardRouter.Ranked<String>>> perShard = List.of(
+                List.of(new ShardRouter.Ranked<>(NOW, "new"), new ShardRouter.Ranked<>(null, "undated-a")),
+                List.of(new ShardRouter.Ranked<>(NOW.minusDays(1), "old"), new ShardRouter.Ranked<>(null, "undated-b"))
+        );
+
+        assertThat(ShardRouter.mergePage(perShard, 0, 4))
+                .startsWith("new", "old")
+                .containsExactlyInAnyOrder("new", "old", "undated-a", "undated-b");
+    }
+
+    @Test
+    void mergePageBeyondLastRowIsEmpty() {
+        List<List<ShardRouter.Ranked<String>>> perShard = List.of(ranked("a", 0, 1), ranked("b", 2));
+
+        assertThat(ShardRouter.mergePage(perShard, 3, 10)).isEmpty();
+        assertThat(ShardRouter.mergePage(List.<List<ShardRouter.Ranked<String>>>of(), 0, 10)).isEmpty();
+    }
+
+    /**
+     * Строки шарда, отсортированные по created_at DESC: чем больше минут назад, тем дальше в списке
+     */
+    private static List<ShardRouter.Ranked<String>> ranked(String shard, int... minutesAgo) {
+        return IntStream.of(minutesAgo)
+                .mapToObj(m -> new ShardRouter.Ranked<>(NOW.minusMinutes(m), shard + m))
+                .toList();
+    }
+
+    private static List<UUID> users() {
+        Random random = new Random(42);
+        return IntStream.range(0, USERS)
+                .mapToObj(i -> new UUID(random.nextLong(), random.nextLong()))
+                .toList();
+    }
+}
@@ -0,0 +1,94 @@
+package oleborn.research_jooq.service;
+
+import oleborn.research_jooq.config.PaginationProperties;
+import oleborn.research_jooq.config.ShardingProperties;
+import org.jooq.DSLContext;
+import org.jooq.Field;
+import org.jooq.Record2;
+import org.jooq.Result;
+import org.jooq.SQLDialect;
+import org.jooq.impl.DSL;
+import org.jooq.tools.jdbc.MockConnection;
+import org.jooq.tools.jdbc.MockResult;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static oleborn.research_jooq.jooq.tables.Users.USERS;
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * ОЦЕНКА КОЛИЧЕСТВА СТРОК И ВЫБОР МЕЖДУ ТОЧНЫМ ПОДСЧЕТОМ И ОЦЕНКОЙ
+ * Запрос к каталогу PostgreSQL подменяется MockConnection jOOQ: проверяется, какая таблица
+ * запрошена и как обрабатывается ответ, без живой БД
+ */
+class TotalCountServiceTest {
+
+    private static final long THRESHOLD = 10_000;
+    private static final Field<Long> LIVE_TUPLES = DSL.field("n_live_tup", Long.class);
+    private static final Field<Long> RELTUPLES = DSL.field("reltuples", Long.class);
+
+    private final List<Object[]> bindings = new ArrayList<>();
+
+    @Test
+    void estimateReadsStatisticsOfRequestedTable() {
+        TotalCountService service = service(1_250_000L, 1_200_000L);
+
+        assertThat(service.estimate(USERS)).isEqualTo(1_250_000L);
+        assertThat(bindings).hasSize(1);
+        assertThat(bindings.get(0)).containsExactly(USERS.getName());
+    }
+
+    @Test
+    void estimateIsNullWithoutStatistics() {
+        assertThat(service(null, null).estimate(USERS)).isNull();
+    }
+
+    @Test
+    void resetLiveTupleCounterFallsBackToReltuples() {
+        // После сброса статистики / восстановления после сбоя n_live_tup = 0, а не NULL
+        TotalCountService service = service(0L, 5_000_000L);
+
+        assertThat(service.estimate(USERS)).isEqualTo(5_000_000L);
+        assertThat(service.useExact(service.estimate(USERS))).isFalse();
+    }
+
+    @Test
+    void missingEitherStatisticUsesTheOther() {
+        assertThat(service(42L, null).estimate(USERS)).isEqualTo(42L);
+        assertThat(service(null, 42L).estimate(USERS)).isEqualTo(42L);
+    }
+
+    @Test
+    void smallOrUnknownTableIsCountedExactly() {
+        TotalCountService service = service(null, null);
+
+        assertThat(service.useExact(null)).isTrue();
+        assertThat(service.useExact(0L)).isTrue();
+        assertThat(service.useExact(THRESHOLD)).isTrue();
+    }
+
+    @Test
+    void largeTableGetsEstimate() {
+        assertThat(service(null, null).useExact(THRESHOLD + 1)).isFalse();
+    }
+
+    /**
+     * Сервис без шардирования, каталог которого отвечает одной строкой статистики
+     */
+    private TotalCountService service(Long liveTuples, Long reltuples) {
+        DSLContext results = DSL.using(SQLDialect.POSTGRES);
+        Result<Record2<Long, Long>> row = results.newResult(LIVE_TUPLES, RELTUPLES);
+        row.add(results.newRecord(LIVE_TUPLES, RELTUPLES).values(liveTuples, reltuples));
+
+        DSLContext db = DSL.using(new MockConnection(context -> {
+            bindings.add(context.bindings());
+            return new MockResult[]{new MockResult(1, row)};
+        }), SQLDialect.POSTGRES);
+
+        ShardRouter router = new ShardRouter(
+                db, new ShardingProperties(false, 128, 5, 8, List.of()), null, null, null);
+        return new TotalCountService(new PaginationProperties(THRESHOLD), router);
+    }
+}
@@ -0,0 +1,185 @@
+package oleborn.research_jooq.service;
+
+import oleborn.research_jooq.dto.CreateAddressRequest;
+import oleborn.research_jooq.dto.CreateCarRequest;
+import oleborn.research_jooq.dto.CreateUserRequest;
+import oleborn.research_jooq.dto.PurgeUsersRequest;
+import org.jooq.DSLContext;
+import org.jooq.Field;
+import org.jooq.Table;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static oleborn.research_jooq.jooq.tables.Address.ADDRESS;
+import static oleborn.research_jooq.jooq.tables.Car.CAR;
+import static oleborn.research_jooq.jooq.tables.UsernameIndex.USERNAME_INDEX;
+import static oleborn.research_jooq.jooq.tables.Users.USERS;
+import static oleborn.research_jooq.jooq.tables.UsersCar.USERS_CAR;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+import static org.jooq.impl.DSL.field;
+import static org.jooq.impl.DSL.name;
+import static org.jooq.impl.DSL.table;
+
+/**
+ * ОЧИСТКА ПОЛЬЗОВАТЕЛЕЙ ОДНИМ ЗАПРОСОМ НА ЧАНК: размер чанка, SKIP LOCKED, архив,
+ * машины без владельцев и записи username_index
+ * (как и ResearchJooqApplicationTests, работает с БД из application.yml)
+ */
+@SpringBootTest(properties = "app.jobs.purge.chunk-size=2")
+class UserPurgeServiceTest {
+
+    // Жертвы тестов старше всех остальных пользователей в БД
+    private static final LocalDateTime ANCIENT = LocalDateTime.of(1900, 1, 1, 0, 0);
+    private static final PurgeUsersRequest REQUEST = new PurgeUsersRequest(ANCIENT.plusDays(1), true, true, 0);
+
+    // Архивные таблицы не попадают в кодогенерацию
+    private static final Table<?> USERS_ARCHIVE = table(name("users_archive"));
+    private static final Table<?> ADDRESS_ARCHIVE = table(name("address_archive"));
+    private static final Table<?> USERS_CAR_ARCHIVE = table(name("users_car_archive"));
+    private static final Field<UUID> ARCHIVE_ID = field(name("id"), UUID.class);
+    private static final Field<UUID> ARCHIVE_USER_ID = field(name("user_id"), UUID.class);
+    private static final Field<String> ARCHIVE_MODEL = field(name("model"), String.class);
+
+    @Autowired
+    private UserPurgeService userPurgeService;
+
+    @Autowired
+    private UserRelationsService userRelationsService;
+
+    @Autowired
+    private DSLContext ctx;
+
+    @Test
+    void purgesInChunksArchivesAndDropsOrphanCars() {
+        List<UUID> victims = List.of(victim("Lada"), victim("Volga"), victim("Niva"));
+        List<UUID> victimCars = ctx.select(USERS_CAR.CAR_ID).from(USERS_CAR)
+                .where(USERS_CAR.USER_ID.in(victims))
+                .fetch(USERS_CAR.CAR_ID);
+
+        // Машина первой жертвы есть и у пользователя, который не очищается
+        UUID survivor = userId(create(username(), "Kamaz"));
+        UUID sharedCar = ctx.select(USERS_CAR.CAR_ID).from(USERS_CAR)
+                .where(USERS_CAR.USER_ID.eq(victims.get(0)))
+                .fetchOne(USERS_CAR.CAR_ID);
+        ctx.insertInto(USERS_CAR)
+                .set(USERS_CAR.ID, UUID.randomUUID())
+                .set(USERS_CAR.USER_ID, survivor)
+                .set(USERS_CAR.CAR_ID, sharedCar)
+                .execute();
+
+        List<Integer> chunks = drain();
+
+        // Чанк не больше chunk-size: три жертвы - минимум два чанка
+        assertThat(chunks).hasSizeGreaterThanOrEqualTo(2).allMatch(purged -> purged <= 2);
+
+        assertThat(ctx.fetchCount(USERS, USERS.ID.in(victims))).isZero();
+        assertThat(ctx.fetchCount(ADDRESS, ADDRESS.USER_ID.in(victims))).isZero();
+        assertThat(ctx.fetchCount(USERNAME_INDEX, USERNAME_INDEX.USER_ID.in(victims))).isZero();
+
+        // Машины без владельцев удалены, общая машина осталась у выжившего пользователя
+        assertThat(ctx.select(CAR.ID).from(CAR).where(CAR.ID.in(victimCars)).fetch(CAR.ID))
+                .containsExactly(sharedCar);
+        assertThat(ctx.fetchExists(USERS_CAR, USERS_CAR.USER_ID.eq(survivor).and(USERS_CAR.CAR_ID.eq(sharedCar))))
+                .isTrue();
+
+        assertThat(ctx.fetchCount(USERS_ARCHIVE, ARCHIVE_ID.in(victims))).isEqualTo(3);
+        assertThat(ctx.fetchCount(ADDRESS_ARCHIVE, ARCHIVE_USER_ID.in(victims))).isEqualTo(3);
+        assertThat(ctx.select(ARCHIVE_MODEL).from(USERS_CAR_ARCHIVE).where(ARCHIVE_USER_ID.in(victims))
+                .fetch(ARCHIVE_MODEL))
+                .containsExactlyInAnyOrder("Lada", "Volga", "Niva");
+    }
+
+    @Test
+    void lockedVictimsAreSkippedNotWaitedFor() throws Exception {
+        UUID locked = victim("Lada");
+        UUID free = victim("Volga");
+        CountDownLatch acquired = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+
+        ExecutorService pool = Executors.newSingleThreadExecutor();
+        try {
+            Future<?> holder = pool.submit(() -> ctx.transaction(cfg -> {
+                cfg.dsl().select(USERS.ID).from(USERS).where(USERS.ID.eq(locked)).forUpdate().fetch();
+                acquired.countDown();
+                release.await();
+            }));
+            assertThat(acquired.await(30, TimeUnit.SECONDS)).isTrue();
+
+            // Строка, занятая другой транзакцией, пропускается - очистка не ждет ее блокировку
+            assertTimeoutPreemptively(Duration.ofSeconds(30), this::drain);
+            assertThat(ctx.fetchExists(USERS, USERS.ID.eq(locked))).isTrue();
+            assertThat(ctx.fetchExists(USERS, USERS.ID.eq(free))).isFalse();
+
+            release.countDown();
+            holder.get(30, TimeUnit.SECONDS);
+        } finally {
+            release.countDown();
+            pool.shutdownNow();
+        }
+
+        drain();
+        assertThat(ctx.fetchExists(USERS, USERS.ID.eq(locked))).isFalse();
+    }
+
+    /**
+     * Чанки до первого пустого
+     *
+     * @return количество удаленных пользователей в каждом чанке
+     */
+    private List<Integer> drain() {
+        List<Integer> chunks = new ArrayList<>();
+        for (int purged = userPurgeService.purgeChunk(REQUEST); purged > 0; purged = userPurgeService.purgeChunk(REQUEST)) {
+            chunks.add(purged);
+        }
+        return chunks;
+    }
+
+    /**
+     * Пользователь с адресом, одной машиной и записью в username_index, созданный "давно"
+     */
+    private UUID victim(String model) {
+        String username = username();
+        UUID userId = userId(create(username, model));
+
+        ctx.update(USERS)
+                .set(USERS.CREATED_AT, ANCIENT)
+                .where(USERS.ID.eq(userId))
+                .execute();
+        // Без шардирования индекс не ведется - запись добавляется, чтобы проверить ее удаление
+        ctx.insertInto(USERNAME_INDEX)
+                .set(USERNAME_INDEX.USERNAME, username)
+                .set(USERNAME_INDEX.USER_ID, userId)
+                .set(USERNAME_INDEX.SHARD, ShardRouter.PRIMARY)
+                .execute();
+        return userId;
+    }
+
+    private String create(String username, String model) {
+        userRelationsService.createUserWithRelations(
+                new CreateUserRequest(username, null, null, 30),
+                new CreateAddressRequest("Moscow", 1, 10),
+                List.of(new CreateCarRequest(model, 2010)));
+        return username;
+    }
+
+    private UUID userId(String username) {
+        return ctx.select(USERS.ID).from(USERS).where(USERS.USERNAME.eq(username)).fetchOne(USERS.ID);
+    }
+
+    private static String username() {
+        return "purge-" + UUID.randomUUID();
+    }
+}
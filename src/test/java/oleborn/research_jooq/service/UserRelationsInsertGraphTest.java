@@ -0,0 +1,115 @@
+package oleborn.research_jooq.service;
+
+import oleborn.research_jooq.dto.AddressDto;
+import oleborn.research_jooq.dto.CarDto;
+import oleborn.research_jooq.dto.CreateAddressRequest;
+import oleborn.research_jooq.dto.CreateCarRequest;
+import oleborn.research_jooq.dto.CreateUserRequest;
+import oleborn.research_jooq.dto.UserResponseDto;
+import oleborn.research_jooq.dto.UserWithRelationsDto;
+import org.jooq.DSLContext;
+import org.jooq.Records;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+
+import java.util.List;
+import java.util.UUID;
+
+import static oleborn.research_jooq.jooq.tables.Address.ADDRESS;
+import static oleborn.research_jooq.jooq.tables.Car.CAR;
+import static oleborn.research_jooq.jooq.tables.OutboxEvent.OUTBOX_EVENT;
+import static oleborn.research_jooq.jooq.tables.Users.USERS;
+import static oleborn.research_jooq.jooq.tables.UsersCar.USERS_CAR;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.jooq.impl.DSL.multiset;
+import static org.jooq.impl.DSL.row;
+import static org.jooq.impl.DSL.select;
+
+/**
+ * СОЗДАНИЕ ПОЛЬЗОВАТЕЛЯ СО СВЯЗЯМИ ОДНИМ ЗАПРОСОМ (app.relations-insert.mode = single-statement):
+ * ответ, строки в таблицах, снимок и событие outbox должны совпадать
+ * (как и ResearchJooqApplicationTests, работает с БД из application.yml)
+ */
+@SpringBootTest(properties = "app.relations-insert.mode=single-statement")
+class UserRelationsInsertGraphTest {
+
+    @Autowired
+    private UserRelationsService userRelationsService;
+
+    @Autowired
+    private RelationsSnapshotService relationsSnapshotService;
+
+    @Autowired
+    private DSLContext ctx;
+
+    @Test
+    void createdGraphMatchesStoredRows() {
+        String username = username();
+
+        UserWithRelationsDto created = userRelationsService.createUserWithRelations(
+                new CreateUserRequest(username, null, null, 30),
+                new CreateAddressRequest("Moscow", 1, 10),
+                List.of(new CreateCarRequest("Volga", 1980), new CreateCarRequest("Lada", 2010),
+                        new CreateCarRequest("Lada", 2010)));
+
+        // Машины в ответе - в порядке запроса, одинаковые машины - отдельные строки
+        assertThat(created).isEqualTo(new UserWithRelationsDto(
+                new UserResponseDto(username, 30),
+                new AddressDto("Moscow", 1, 10),
+                List.of(new CarDto("Volga", 1980), new CarDto("Lada", 2010), new CarDto("Lada", 2010))));
+
+        UserWithRelationsDto stored = stored(username);
+        assertThat(stored.user()).isEqualTo(created.user());
+        assertThat(stored.address()).isEqualTo(created.address());
+        assertThat(stored.cars()).containsExactlyInAnyOrderElementsOf(created.cars());
+
+        assertThat(relationsSnapshotService.read(ctx, username)).contains(created);
+        assertThat(ctx.select(OUTBOX_EVENT.EVENT_TYPE)
+                .from(OUTBOX_EVENT)
+                .where(OUTBOX_EVENT.AGGREGATE_ID.eq(userId(username)))
+                .fetch(OUTBOX_EVENT.EVENT_TYPE))
+                .containsExactly(OutboxService.USER_WITH_RELATIONS_CREATED);
+    }
+
+    @Test
+    void withoutAddressAndCarsOnlyUserIsInserted() {
+        String username = username();
+
+        UserWithRelationsDto created = userRelationsService.createUserWithRelations(
+                new CreateUserRequest(username, null, null, 25), null, List.of());
+
+        assertThat(created).isEqualTo(new UserWithRelationsDto(new UserResponseDto(username, 25), null, List.of()));
+        assertThat(stored(username).user()).isEqualTo(created.user());
+        assertThat(ctx.fetchCount(ADDRESS, ADDRESS.USER_ID.eq(userId(username)))).isZero();
+        assertThat(ctx.fetchCount(USERS_CAR, USERS_CAR.USER_ID.eq(userId(username)))).isZero();
+    }
+
+    /**
+     * Тот же запрос, что и обычное чтение без снимка: пользователь, адрес и машины из таблиц
+     */
+    private UserWithRelationsDto stored(String username) {
+        return ctx.select(
+                        row(USERS.USERNAME, USERS.AGE).mapping(UserResponseDto::new),
+                        row(ADDRESS.CITY, ADDRESS.BUILD, ADDRESS.APARTMENT).mapping(AddressDto::new),
+                        multiset(
+                                select(CAR.MODEL, CAR.RELEASE_YEAR)
+                                        .from(CAR)
+                                        .join(USERS_CAR).on(CAR.ID.eq(USERS_CAR.CAR_ID))
+                                        .where(USERS_CAR.USER_ID.eq(USERS.ID))
+                        ).convertFrom(r -> r.map(Records.mapping(CarDto::new)))
+                )
+                .from(USERS)
+                .leftJoin(ADDRESS).on(USERS.ID.eq(ADDRESS.USER_ID))
+                .where(USERS.USERNAME.eq(username))
+                .fetchOne(Records.mapping(UserWithRelationsDto::new));
+    }
+
+    private UUID userId(String username) {
+        return ctx.select(USERS.ID).from(USERS).where(USERS.USERNAME.eq(username)).fetchOne(USERS.ID);
+    }
+
+    private static String username() {
+        return "graph-" + UUID.randomUUID();
+    }
+}
@@ -0,0 +1,219 @@
+package oleborn.research_jooq.service;
+
+import oleborn.research_jooq.dto.AddressDto;
+import oleborn.research_jooq.dto.CarDto;
+import oleborn.research_jooq.dto.CreateAddressRequest;
+import oleborn.research_jooq.dto.CreateCarRequest;
+import oleborn.research_jooq.dto.CreateUserRequest;
+import oleborn.research_jooq.dto.CreateUserWithRelationsRequest;
+import oleborn.research_jooq.dto.UpsertResultDto;
+import org.jooq.DSLContext;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.MediaType;
+import org.springframework.test.web.servlet.MockMvc;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static oleborn.research_jooq.jooq.tables.Address.ADDRESS;
+import static oleborn.research_jooq.jooq.tables.Car.CAR;
+import static oleborn.research_jooq.jooq.tables.OutboxEvent.OUTBOX_EVENT;
+import static oleborn.research_jooq.jooq.tables.Users.USERS;
+import static oleborn.research_jooq.jooq.tables.UsersCar.USERS_CAR;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.put;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+/**
+ * UPSERT ПО username ОДНИМ ЗАПРОСОМ: создание/обновление, замена адреса и машин, повторы в пачке,
+ * параллельные PUT одного username
+ * (как и ResearchJooqApplicationTests, работает с БД из application.yml)
+ */
+@SpringBootTest
+@AutoConfigureMockMvc
+class UserUpsertServiceTest {
+
+    @Autowired
+    private UserUpsertService userUpsertService;
+
+    @Autowired
+    private RelationsSnapshotService relationsSnapshotService;
+
+    @Autowired
+    private DSLContext ctx;
+
+    @Autowired
+    private MockMvc mockMvc;
+
+    @Test
+    void firstCallCreatesSecondUpdates() {
+        String username = username();
+
+        UpsertResultDto created = userUpsertService.upsertUserWithRelations(username, request(
+                username, 30, new CreateAddressRequest("Moscow", 1, 10),
+                List.of(new CreateCarRequest("Lada", 2010), new CreateCarRequest("Volga", 1980))));
+        UpsertResultDto updated = userUpsertService.upsertUserWithRelations(username, request(
+                username, 31, new CreateAddressRequest("Kazan", 2, 20),
+                List.of(new CreateCarRequest("Lada", 2010), new CreateCarRequest("Niva", 2020))));
+
+        assertThat(created.created()).isTrue();
+        assertThat(updated.created()).isFalse();
+        assertThat(updated.user().user().age()).isEqualTo(31);
+
+        assertThat(ctx.fetchCount(USERS, USERS.USERNAME.eq(username))).isEqualTo(1);
+        assertThat(address(username)).isEqualTo(new AddressDto("Kazan", 2, 20));
+        assertThat(cars(username)).containsExactlyInAnyOrder(new CarDto("Lada", 2010), new CarDto("Niva", 2020));
+
+        // Снимок и событие пишутся тем же запросом и совпадают с ответом
+        assertThat(relationsSnapshotService.read(ctx, username)).contains(updated.user());
+        assertThat(ctx.select(OUTBOX_EVENT.EVENT_TYPE)
+                .from(OUTBOX_EVENT)
+                .where(OUTBOX_EVENT.AGGREGATE_ID.eq(userId(username)))
+                .orderBy(OUTBOX_EVENT.ID)
+                .fetch(OUTBOX_EVENT.EVENT_TYPE))
+                .containsExactly(OutboxService.USER_CREATED, OutboxService.USER_UPDATED);
+    }
+
+    @Test
+    void matchingCarsAreKeptAndOnlyTheDifferenceIsWritten() {
+        String username = username();
+
+        userUpsertService.upsertUserWithRelations(username, request(username, 30, null,
+                List.of(new CreateCarRequest("Lada", 2010), new CreateCarRequest("Lada", 2010),
+                        new CreateCarRequest("Volga", 1980))));
+        Map<UUID, CarDto> before = carsById(username);
+
+        userUpsertService.upsertUserWithRelations(username, request(username, 30, null,
+                List.of(new CreateCarRequest("Lada", 2010), new CreateCarRequest("Niva", 2020))));
+        Map<UUID, CarDto> after = carsById(username);
+
+        // Одна из двух одинаковых машин осталась той же строкой, вторая и Volga удалены вместе со строками car
+        assertThat(after.values()).containsExactlyInAnyOrder(new CarDto("Lada", 2010), new CarDto("Niva", 2020));
+        assertThat(after.keySet()).containsAnyElementsOf(before.keySet());
+        assertThat(ctx.fetchCount(CAR, CAR.ID.in(before.keySet()))).isEqualTo(1);
+    }
+
+    @Test
+    void missingAddressAndCarsRemoveThem() {
+        String username = username();
+
+        userUpsertService.upsertUserWithRelations(username, request(
+                username, 30, new CreateAddressRequest("Moscow", 1, 10), List.of(new CreateCarRequest("Lada", 2010))));
+        UpsertResultDto replaced = userUpsertService.upsertUserWithRelations(username, request(username, 30, null, null));
+
+        assertThat(replaced.user().address()).isNull();
+        assertThat(replaced.user().cars()).isEmpty();
+        assertThat(address(username)).isNull();
+        assertThat(cars(username)).isEmpty();
+    }
+
+    @Test
+    void duplicateUsernamesInBatchCollapseToLast() {
+        String first = username();
+        String second = username();
+
+        List<UpsertResultDto> results = userUpsertService.upsertUsersWithRelations(List.of(
+                request(first, 20, null, List.of()),
+                request(second, 40, null, List.of()),
+                request(first, 21, new CreateAddressRequest("Kazan", 2, 20), List.of())
+        ));
+
+        assertThat(results).extracting(r -> r.user().user().username()).containsExactly(first, second);
+        assertThat(results).allMatch(UpsertResultDto::created);
+        assertThat(results.get(0).user().user().age()).isEqualTo(21);
+        assertThat(ctx.select(USERS.AGE).from(USERS).where(USERS.USERNAME.eq(first)).fetchOne(USERS.AGE)).isEqualTo(21);
+        assertThat(address(first)).isEqualTo(new AddressDto("Kazan", 2, 20));
+    }
+
+    @Test
+    void concurrentUpsertsOfSameUsernameDoNotDuplicateRelations() throws Exception {
+        String username = username();
+        int callers = 8;
+        CountDownLatch start = new CountDownLatch(1);
+
+        ExecutorService pool = Executors.newFixedThreadPool(callers);
+        try {
+            List<Future<UpsertResultDto>> results = new ArrayList<>();
+            for (int i = 0; i < callers; i++) {
+                results.add(pool.submit(() -> {
+                    start.await();
+                    return userUpsertService.upsertUserWithRelations(username, request(
+                            username, 30, new CreateAddressRequest("Moscow", 1, 10),
+                            List.of(new CreateCarRequest("Lada", 2010), new CreateCarRequest("Volga", 1980))));
+                }));
+            }
+            start.countDown();
+
+            int created = 0;
+            for (Future<UpsertResultDto> result : results) {
+                if (result.get(30, TimeUnit.SECONDS).created()) created++;
+            }
+            assertThat(created).isEqualTo(1);
+        } finally {
+            pool.shutdownNow();
+        }
+
+        assertThat(ctx.fetchCount(ADDRESS, ADDRESS.USER_ID.eq(userId(username)))).isEqualTo(1);
+        assertThat(cars(username)).containsExactlyInAnyOrder(new CarDto("Lada", 2010), new CarDto("Volga", 1980));
+    }
+
+    @Test
+    void putReturns201ThenOk() throws Exception {
+        String username = username();
+        String body = """
+                {"user": {"age": 30}, "address": {"city": "Moscow", "build": 1, "apartment": 10}, "cars": []}
+                """;
+
+        mockMvc.perform(put("/api/users/by-username/{username}", username)
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(body))
+                .andExpect(status().isCreated());
+
+        mockMvc.perform(put("/api/users/by-username/{username}", username)
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(body))
+                .andExpect(status().isOk());
+    }
+
+    private AddressDto address(String username) {
+        return ctx.select(ADDRESS.CITY, ADDRESS.BUILD, ADDRESS.APARTMENT)
+                .from(ADDRESS)
+                .where(ADDRESS.USER_ID.eq(userId(username)))
+                .fetchOneInto(AddressDto.class);
+    }
+
+    private List<CarDto> cars(String username) {
+        return List.copyOf(carsById(username).values());
+    }
+
+    private Map<UUID, CarDto> carsById(String username) {
+        return ctx.select(CAR.ID, CAR.MODEL, CAR.RELEASE_YEAR)
+                .from(CAR)
+                .join(USERS_CAR).on(USERS_CAR.CAR_ID.eq(CAR.ID))
+                .where(USERS_CAR.USER_ID.eq(userId(username)))
+                .fetchMap(CAR.ID, r -> new CarDto(r.value2(), r.value3()));
+    }
+
+    private UUID userId(String username) {
+        return ctx.select(USERS.ID).from(USERS).where(USERS.USERNAME.eq(username)).fetchOne(USERS.ID);
+    }
+
+    private static CreateUserWithRelationsRequest request(
+            String username, int age, CreateAddressRequest address, List<CreateCarRequest> cars) {
+        return new CreateUserWithRelationsRequest(new CreateUserRequest(username, null, null, age), address, cars);
+    }
+
+    private static String username() {
+        return "upsert-" + UUID.randomUUID();
+    }
+}
@@ -0,0 +1,63 @@
+package oleborn.research_jooq.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.stream.IntStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * БИТОВЫЙ МАССИВ BLOOM-ФИЛЬТРА: размер, отсутствие ложноотрицательных ответов и доля ложноположительных
+ */
+class UsernameFilterBloomBitsTest {
+
+    private static final int CAPACITY = 100_000;
+    private static final double TARGET_FPR = 0.01;
+
+    @Test
+    void sizesBitsAndHashesFromCapacityAndTargetProbability() {
+        UsernameFilter.BloomBits bits = new UsernameFilter.BloomBits(CAPACITY, TARGET_FPR);
+
+        // m = -n * ln(p) / ln(2)^2, округленное вверх до целого числа 64-битных слов
+        double ln2 = Math.log(2);
+        long optimalBits = (long) Math.ceil(-CAPACITY * Math.log(TARGET_FPR) / (ln2 * ln2));
+        assertThat(bits.bitCount()).isBetween(optimalBits, optimalBits + 63);
+        assertThat(bits.bitCount() % 64).isZero();
+
+        // k = m / n * ln(2), для p = 1% это 7
+        assertThat(bits.hashCount()).isEqualTo(7);
+    }
+
+    @Test
+    void tinyCapacityStillHasOneWordAndOneHash() {
+        UsernameFilter.BloomBits bits = new UsernameFilter.BloomBits(1, 0.5);
+
+        assertThat(bits.bitCount()).isEqualTo(64);
+        assertThat(bits.hashCount()).isGreaterThanOrEqualTo(1);
+    }
+
+    @Test
+    void neverReportsInsertedValueAsAbsent() {
+        UsernameFilter.BloomBits bits = new UsernameFilter.BloomBits(CAPACITY, TARGET_FPR);
+        IntStream.range(0, CAPACITY).forEach(i -> bits.put("user-" + i));
+
+        assertThat(IntStream.range(0, CAPACITY).filter(i -> !bits.mightContain("user-" + i)).count())
+                .isZero();
+    }
+
+    @Test
+    void falsePositiveRateAtCapacityStaysWithinBound() {
+        UsernameFilter.BloomBits bits = new UsernameFilter.BloomBits(CAPACITY, TARGET_FPR);
+        IntStream.range(0, CAPACITY).forEach(i -> bits.put("user-" + i));
+
+        int probes = 200_000;
+        long falsePositives = IntStream.range(0, probes)
+                .filter(i -> bits.mightContain("absent-" + i))
+                .count();
+        double observed = (double) falsePositives / probes;
+
+        // Запас x1.5 на разброс выборки и неидеальность хеша
+        assertThat(observed).isLessThan(TARGET_FPR * 1.5);
+        assertThat(bits.expectedFalsePositiveRate()).isLessThan(TARGET_FPR * 1.1);
+    }
+}